@@ -35,15 +35,14 @@ import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.antrun.AntPropertyHelper;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.PropertyHelper;
 import org.apache.tools.ant.Target;
 import org.apache.tools.ant.types.Path;
-import org.apache.xerces.jaxp.SAXParserFactoryImpl;
 import org.apache.xml.resolver.CatalogManager;
-import org.apache.xml.resolver.tools.CatalogResolver;
 import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
 import org.codehaus.plexus.util.DirectoryScanner;
 import org.codehaus.plexus.util.StringUtils;
@@ -62,7 +61,6 @@ import javax.servlet.jsp.el.VariableResolver;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.*;
 import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
@@ -73,6 +71,12 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The abstract Mojo base for concrete Mojos that generate some kind of output format from DocBook. This Mojo will
@@ -84,6 +88,50 @@ import java.util.*;
 public abstract class AbstractTransformerMojo extends AbstractMojo {
   protected String[] catalogs = { "catalog.xml", "docbook/catalog.xml" };
 
+  /**
+   * The catalog files found on the classpath so far. (Maps class loaders to maps of catalog names
+   * to catalog files.)
+   */
+  private static final Map CATALOG_FILES = new WeakHashMap();
+
+  /**
+   * The {@link BufferingLog} of the document rendered by the current thread, when rendering
+   * concurrently.
+   */
+  private final ThreadLocal documentLog = new ThreadLocal();
+
+  /**
+   * Guards the Mojo state touched while setting up the <code>Transformer</code> of a document.
+   */
+  private final Object transformerLock = new Object();
+
+  /**
+   * The fingerprints of the inputs, when comparing their content rather than their modification
+   * time.
+   */
+  private FingerprintStore fingerprints;
+
+  /**
+   * The cache holding the output of documents rendered earlier on, if any.
+   */
+  private BuildCache buildCache;
+
+  /**
+   * The resolved documents still being written in the background. (Instances of
+   * {@link DumpingFilter}.)
+   */
+  private final List pendingDumps = Collections.synchronizedList(new ArrayList());
+
+  /**
+   * The cache of the DTDs parsed, if any.
+   */
+  private DTDGrammarCache dtdCache;
+
+  /**
+   * The readers taken from the {@link XMLReaderPool}, to be given back once done.
+   */
+  private final List borrowedReaders = Collections.synchronizedList(new ArrayList());
+
   /**
    * Builds the actual output document.
    */
@@ -107,124 +155,554 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
 
     final String[] included = scanIncludedFiles();
 
+    int threads = getThreads();
+    if (threads < 1) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    threads = Math.min(threads, included.length);
+
+    if (threads > 1 && !isConcurrentRenderingSupported()) {
+      getLog().warn("Concurrent rendering is not supported by this output, rendering with a single thread.");
+      threads = 1;
+    }
+
+    if (isUseContentFingerprints() || getBuildCacheDirectory() != null) {
+      fingerprints = new FingerprintStore(new File(getManifestDirectory(), "fingerprints.properties"));
+    }
+    if (getBuildCacheDirectory() != null) {
+      buildCache = new BuildCache(getBuildCacheDirectory());
+    }
+    if (isCacheDTDs()) {
+      if (getEntities() == null) {
+        dtdCache = DTDGrammarCache.getSharedInstance(findCatalogFiles());
+      } else {
+        // the entities are injected while reading the DTD of every document
+        getLog().debug("Not caching DTDs, since entities are injected.");
+      }
+    }
+    final int dtdHits = (dtdCache == null) ? 0 : dtdCache.getHits();
+    final int dtdMisses = (dtdCache == null) ? 0 : dtdCache.getMisses();
+
+    try {
+      if (threads > 1) {
+        renderConcurrently(included, threads);
+      } else {
+        final RenderingContext context = createRenderingContext(false, null);
+        // iterate over included source files
+        for (int i = included.length - 1; i >= 0; i--) {
+          render(included[i], context);
+        }
+      }
+    } finally {
+      awaitDumps();
+      releaseReaders();
+      storeFingerprints();
+      if (dtdCache != null && dtdCache.getHits() + dtdCache.getMisses() > dtdHits + dtdMisses) {
+        getLog().info("DTD cache: " + (dtdCache.getHits() - dtdHits) + " hits, " + (dtdCache.getMisses() - dtdMisses)
+            + " misses.");
+      }
+    }
+
+    // userland (ant tasks) post process
+    postProcess();
+  }
+
+  /**
+   * Renders the given source files using a pool of worker threads. Every worker uses its own
+   * {@link RenderingContext}, sharing the compiled stylesheet, and the messages logged while rendering a document are written in
+   * one go, in the same order as when rendering sequentially.
+   *
+   * @param included The source files to render.
+   * @param threads  The number of workers.
+   * @throws MojoExecutionException If one of the documents fails to render.
+   */
+  private void renderConcurrently(String[] included, int threads) throws MojoExecutionException {
+    getLog().info("Rendering " + included.length + " documents using " + threads + " threads.");
+
+    final Log log = getLog();
+    final ThreadLocal contexts = new ThreadLocal();
+    // the stylesheet is compiled once, on behalf of all workers
+    final TransformerBuilder builder = createTransformerBuilder(
+        createStyleSheetResolver(createCatalogResolver(true)));
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final List results = new ArrayList(included.length);
+
+    try {
+      for (int i = included.length - 1; i >= 0; i--) {
+        results.add(executor.submit(new RenderingTask(included[i], contexts, builder, log)));
+      }
+
+      for (int i = 0; i < results.size(); i++) {
+        final BufferingLog documentLog;
+        try {
+          documentLog = (BufferingLog) ((Future) results.get(i)).get();
+        } catch (InterruptedException ie) {
+          throw new MojoExecutionException("Interrupted while rendering documents.", ie);
+        } catch (ExecutionException ee) {
+          throw new MojoExecutionException("Failed to render document.", ee.getCause());
+        }
+        documentLog.replay(log);
+        if (documentLog.getFailure() != null) {
+          throw documentLog.getFailure();
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      try {
+        // do not leave any work behind once this Mojo is done
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Creates the objects needed to render documents: the resolvers, the XML reader with its
+   * <code>&lt;?eval?&gt;</code> filter and the {@link TransformerBuilder}. A context is used by a
+   * single thread at a time, only the <code>TransformerBuilder</code> may be shared.
+   *
+   * @param concurrent <code>true</code> if other contexts will be used at the same time.
+   * @param builder    The builder shared with other contexts, or <code>null</code> to create one.
+   * @return A new context.
+   * @throws MojoExecutionException If the context cannot be created.
+   */
+  private RenderingContext createRenderingContext(boolean concurrent, TransformerBuilder builder)
+      throws MojoExecutionException {
+    final RenderingContext context = new RenderingContext();
+
     // configure a resolver for catalog files
-    final CatalogManager catalogManager = createCatalogManager();
-    final CatalogResolver catalogResolver = new CatalogResolver(catalogManager);
+    final IndexedCatalogResolver catalogResolver = createCatalogResolver(concurrent);
     // configure a resolver for urn:dockbx:stylesheet
-    final URIResolver uriResolver = createStyleSheetResolver(catalogResolver);
+    context.uriResolver = createStyleSheetResolver(catalogResolver);
     // configure a resolver for xml entities
-    final InjectingEntityResolver injectingResolver = createEntityResolver(catalogResolver);
+    context.injectingResolver = createEntityResolver(catalogResolver);
 
     EntityResolver resolver = catalogResolver;
-    if (injectingResolver != null) {
-      resolver = injectingResolver;
+    if (context.injectingResolver != null) {
+      resolver = context.injectingResolver;
     }
 
     // configure the builder for XSL Transforms
-    final TransformerBuilder builder = createTransformerBuilder(uriResolver);
-    // configure the XML parser
-    SAXParserFactory factory = createParserFactory();
+    context.builder = (builder == null) ? createTransformerBuilder(context.uriResolver) : builder;
 
-    // iterate over included source files
-    for (int i = included.length - 1; i >= 0; i--) {
-      try {
-        if (injectingResolver != null) {
-          injectingResolver.forceInjection();
+    // configure the XML parser
+    try {
+      final XMLReader reader = XMLReaderPool.getSharedInstance().borrow(getXIncludeSupported());
+      borrowedReaders.add(reader);
+      // configure XML reader
+      reader.setEntityResolver(resolver);
+      if (dtdCache != null) {
+        try {
+          dtdCache.install(reader);
+        } catch (SAXException saxe) {
+          getLog().debug("Parser does not support caching DTDs.", saxe);
         }
-        final String inputFilename = included[i];
-        // targetFilename is inputFilename - ".xml" + targetFile extension
-        String baseTargetFile = inputFilename.substring(0, inputFilename.length() - 4);
-        final String targetFilename = baseTargetFile + "." + getTargetFileExtension();
-        final File sourceFile = new File(sourceDirectory, inputFilename);
-        getLog().debug("SourceFile: " + sourceFile.toString());
-
-
-        // creating targetFile
-        File targetFile = null;
-        if (isUseStandardOutput()) {
-          targetFile = new File(targetDirectory, targetFilename);
-          getLog().debug("TargetFile: " + targetFile.toString());
-        } else {
-          String name = new File(baseTargetFile).getName();
-          String dir = new File(baseTargetFile).getParent();
-          if (dir == null) { // file is located on root of targetDirectory
-            targetFile = targetDirectory;
-          } else { // else append the relative directory to targetDirectory
-            targetFile = new File(targetDirectory, dir);
-          }
-          targetFile = new File(targetFile, name + "." + getTargetFileExtension());
-          getLog().debug("TargetDirectory: " + targetDirectory.getAbsolutePath());
+      }
+      // keep track of the files read
+      context.tracker = new InputTrackingFilter(reader);
+      context.tracker.setEntityResolver(resolver);
+      // eval PI
+      context.filter = createPIHandler(resolver, context.tracker);
+    } catch (SAXException saxe) {
+      throw new MojoExecutionException("Failed to construct parser.", saxe);
+    } catch (ParserConfigurationException pce) {
+      throw new MojoExecutionException("Failed to construct parser.", pce);
+    }
+    return context;
+  }
+
+  /**
+   * Creates a resolver for the catalog files.
+   *
+   * @param concurrent <code>true</code> if other resolvers will be used at the same time.
+   * @return A new resolver.
+   */
+  private IndexedCatalogResolver createCatalogResolver(boolean concurrent) {
+    final CatalogManager catalogManager = createCatalogManager();
+    if (concurrent) {
+      // the static catalog is lazily loaded, which is not thread-safe
+      catalogManager.setUseStaticCatalog(false);
+    }
+    return new IndexedCatalogResolver(CatalogIndex.getSharedInstance(Thread.currentThread()
+        .getContextClassLoader(), findCatalogFiles()), catalogManager);
+  }
+
+  /**
+   * Renders a single source file, unless the target file is up to date.
+   *
+   * @param inputFilename The name of the source file, relative to the source directory.
+   * @param context       The objects to use for rendering.
+   * @throws MojoExecutionException If the document fails to render.
+   */
+  private void render(String inputFilename, RenderingContext context) throws MojoExecutionException {
+    final File targetDirectory = getTargetDirectory();
+    final File sourceDirectory = getSourceDirectory();
+    try {
+      if (context.injectingResolver != null) {
+        context.injectingResolver.forceInjection();
+      }
+      // targetFilename is inputFilename - ".xml" + targetFile extension
+      String baseTargetFile = inputFilename.substring(0, inputFilename.length() - 4);
+      final String targetFilename = baseTargetFile + "." + getTargetFileExtension();
+      final File sourceFile = new File(sourceDirectory, inputFilename);
+      getLog().debug("SourceFile: " + sourceFile.toString());
+
+
+      // creating targetFile
+      File targetFile = null;
+      if (isUseStandardOutput()) {
+        targetFile = new File(targetDirectory, targetFilename);
+        getLog().debug("TargetFile: " + targetFile.toString());
+      } else {
+        String name = new File(baseTargetFile).getName();
+        String dir = new File(baseTargetFile).getParent();
+        if (dir == null) { // file is located on root of targetDirectory
+          targetFile = targetDirectory;
+        } else { // else append the relative directory to targetDirectory
+          targetFile = new File(targetDirectory, dir);
         }
+        targetFile = new File(targetFile, name + "." + getTargetFileExtension());
+        getLog().debug("TargetDirectory: " + targetDirectory.getAbsolutePath());
+      }
 
-        if (!targetFile.exists() || (targetFile.exists() && FileUtils.isFileNewer(sourceFile, targetFile)) || (targetFile.exists() && getXIncludeSupported())) {
-          getLog().info("Processing input file: " + inputFilename);
+      // compare the configuration and the inputs with the ones of the last rendering
+      final String configuration;
+      synchronized (transformerLock) {
+        configureXref(targetFile);
+        configuration = describeConfiguration();
+      }
+      final File manifestFile = getManifestFile(inputFilename);
+      final BuildManifest previous = BuildManifest.load(manifestFile, getBaseDirectory(), fingerprints);
+      final String cacheKey = (buildCache == null) ? null : createCacheKey(inputFilename, sourceFile, configuration);
 
-          final XMLReader reader = factory.newSAXParser().getXMLReader();
-          // configure XML reader
-          reader.setEntityResolver(resolver);
-          // eval PI
-          final PreprocessingFilter filter = createPIHandler(resolver, reader);
-          // configure SAXSource for XInclude
-          final Source xmlSource = createSource(inputFilename, sourceFile, filter);
+      boolean upToDate = previous != null && previous.isUpToDate(configuration) && areExpressionsUpToDate(previous);
+      if (!upToDate && cacheKey != null) {
+        upToDate = restoreFromCache(inputFilename, cacheKey, configuration, manifestFile);
+      }
 
-          configureXref(targetFile);
+      if (!upToDate) {
+        getLog().info("Processing input file: " + inputFilename);
+        manifestFile.delete();
+        context.tracker.reset(sourceFile);
+
+        // configure SAXSource for XInclude, unless the document has been parsed already
+        final Source xmlSource = createParsedSource(inputFilename, sourceFile, context);
 
-          // XSL Transformation setup
-          final Transformer transformer = builder.build();
+        // XSL Transformation setup, the Mojo state touched here is shared by all contexts
+        final Transformer transformer;
+        synchronized (transformerLock) {
+          configureXref(targetFile);
+          transformer = context.builder.build();
+          transformer.setURIResolver(context.uriResolver);
           adjustTransformer(transformer, sourceFile.getAbsolutePath(), targetFile);
+        }
 
-          // configure the output file
-          Result result = null;
-          if(!shouldProcessResult()) {
-            // if the output is not the main result of the transformation, ie xref database
-            if(getLog().isDebugEnabled()) {
-              result = new StreamResult(System.out);
-            } else {
-              result = new StreamResult(new NullOutputStream());
-            }
-          } else if (isUseStandardOutput()) {
-            // if the output of the main result is the standard output
-            result = new StreamResult(targetFile.getAbsolutePath());
+        // configure the output file
+        Result result = null;
+        if(!shouldProcessResult()) {
+          // if the output is not the main result of the transformation, ie xref database
+          if(getLog().isDebugEnabled()) {
+            result = new StreamResult(System.out);
           } else {
-            // if the output of the main result is not the standard output
-            if(getLog().isDebugEnabled()) {
-              result = new StreamResult(System.out);
-            } else {
-              result = new StreamResult(new NullOutputStream());
-            }
+            result = new StreamResult(new NullOutputStream());
           }
+        } else if (isUseStandardOutput()) {
+          // if the output of the main result is the standard output
+          result = createResult(targetFile);
+        } else {
+          // if the output of the main result is not the standard output
+          if(getLog().isDebugEnabled()) {
+            result = new StreamResult(System.out);
+          } else {
+            result = new StreamResult(new NullOutputStream());
+          }
+        }
 
+        try {
           transformer.transform(xmlSource, result);
+        } finally {
+          releaseResult(result);
+        }
 
-          if(shouldProcessResult()) {
-            // if the transformation has produce the expected main results, we can continue
-            // the chain of processing in the output mojos which can override postProcessResult
-            postProcessResult(targetFile);
+        if(shouldProcessResult()) {
+          // if the transformation has produce the expected main results, we can continue
+          // the chain of processing in the output mojos which can override postProcessResult
+          postProcessResult(targetFile);
 
-            if (isUseStandardOutput()) {
-              getLog().info(targetFile + " has been generated.");
-            } else {
-              getLog().info("See " + targetFile.getParentFile().getAbsolutePath() + " for generated file(s)");
-            }
+          if (isUseStandardOutput()) {
+            getLog().info(targetFile + " has been generated.");
           } else {
-            // if the output is not the main result
-            getLog().info("See " + targetFile.getParentFile().getAbsolutePath() + " for generated secondary file(s)");
+            getLog().info("See " + targetFile.getParentFile().getAbsolutePath() + " for generated file(s)");
           }
-
         } else {
-          getLog().info(targetFile + " is up to date.");
+          // if the output is not the main result
+          getLog().info("See " + targetFile.getParentFile().getAbsolutePath() + " for generated secondary file(s)");
         }
-      } catch (SAXException saxe) {
-        throw new MojoExecutionException("Failed to parse " + included[i] + ".", saxe);
-      } catch (TransformerException te) {
-        throw new MojoExecutionException("Failed to transform " + included[i] + ".", te);
-      } catch (ParserConfigurationException pce) {
-        throw new MojoExecutionException("Failed to construct parser.", pce);
+
+        storeManifest(manifestFile, cacheKey, configuration, context, targetFile);
+
+      } else {
+        getLog().info(targetFile + " is up to date.");
       }
+    } catch (TransformerException te) {
+      throw new MojoExecutionException("Failed to transform " + inputFilename + ".", te);
     }
+  }
 
-    // userland (ant tasks) post process
-    postProcess();
+  /**
+   * Returns the file holding the {@link BuildManifest} of a source file. Manifests are kept in the
+   * build directory of the project, apart from the output, per type of output and target directory.
+   *
+   * @param inputFilename The name of the source file, relative to the source directory.
+   * @return The manifest file.
+   */
+  private File getManifestFile(String inputFilename) {
+    final String execution = getType() + "-"
+        + BuildManifest.digest(getTargetDirectory().getAbsolutePath()).substring(0, 8);
+    return new File(getManifestDirectory(), execution + "/" + inputFilename + ".properties");
+  }
+
+  /**
+   * Returns the directory holding the build manifests and the fingerprints of the inputs.
+   *
+   * @return The manifest directory.
+   */
+  protected File getManifestDirectory() {
+    final File buildDirectory = (getMavenProject() == null) ? getTargetDirectory()
+        : new File(getMavenProject().getBuild().getDirectory());
+    return new File(buildDirectory, "docbkx-manifests");
+  }
+
+  /**
+   * Returns the directory relative to which build manifests record files.
+   *
+   * @return The base directory of the project, or <code>null</code>.
+   */
+  private File getBaseDirectory() {
+    return (getMavenProject() == null) ? null : getMavenProject().getBasedir();
+  }
+
+  /**
+   * Saves the fingerprints computed while rendering, if any.
+   */
+  private void storeFingerprints() {
+    if (fingerprints != null) {
+      try {
+        fingerprints.store();
+      } catch (IOException ioe) {
+        getLog().warn("Failed to store the fingerprints of the inputs.", ioe);
+      }
+    }
+  }
+
+  /**
+   * Computes the key of a document in the {@link BuildCache}, out of the configuration and the
+   * content of the source file.
+   *
+   * @param inputFilename The name of the source file, relative to the source directory.
+   * @param sourceFile    The source file.
+   * @param configuration The description of the configuration.
+   * @return The key of the document, or <code>null</code> if the source file cannot be read.
+   */
+  private String createCacheKey(String inputFilename, File sourceFile, String configuration) {
+    try {
+      return BuildManifest.digest(configuration + "\n" + inputFilename + "\n"
+          + fingerprints.getFingerprint(sourceFile));
+    } catch (IOException ioe) {
+      return null;
+    }
+  }
+
+  /**
+   * Restores the output of a document from the {@link BuildCache}, provided it has been rendered
+   * from the same inputs with the same configuration.
+   *
+   * @param inputFilename The name of the source file, relative to the source directory.
+   * @param cacheKey      The key of the document in the cache.
+   * @param configuration The description of the configuration.
+   * @param manifestFile  The file receiving the manifest of the document.
+   * @return <code>true</code> if the output has been restored.
+   */
+  private boolean restoreFromCache(String inputFilename, String cacheKey, String configuration, File manifestFile) {
+    final BuildManifest cached = buildCache.find(cacheKey, configuration, getBaseDirectory(), fingerprints);
+    if (cached == null || !areExpressionsUpToDate(cached)) {
+      return false;
+    }
+    try {
+      buildCache.restore(cacheKey, cached);
+      cached.store(manifestFile);
+      getLog().info("Restored the output of " + inputFilename + " from the build cache.");
+      return true;
+    } catch (IOException ioe) {
+      getLog().warn("Failed to restore the output of " + inputFilename + " from the build cache.", ioe);
+      return false;
+    }
+  }
+
+  /**
+   * Tells if the <code>&lt;?eval?&gt;</code> expressions recorded in a manifest still evaluate to
+   * the same values.
+   *
+   * @param manifest The manifest of the last rendering.
+   * @return <code>true</code> if none of the values changed.
+   */
+  private boolean areExpressionsUpToDate(BuildManifest manifest) {
+    final ExpressionHandler handler = new ExpressionHandler(createVariableResolver(), getLog());
+    for (Iterator iterator = manifest.getExpressions().entrySet().iterator(); iterator.hasNext();) {
+      Map.Entry expression = (Map.Entry) iterator.next();
+      if (!expression.getValue().equals(evaluate(handler, (String) expression.getKey()))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String evaluate(ExpressionHandler handler, String expression) {
+    try {
+      return String.valueOf(handler.evaluate(expression));
+    } catch (ELException ele) {
+      return "";
+    }
+  }
+
+  /**
+   * Records the configuration, the inputs and the outputs of a document just rendered.
+   *
+   * @param manifestFile  The file receiving the manifest.
+   * @param cacheKey      The key of the document in the build cache, or <code>null</code>.
+   * @param configuration The description of the configuration the document has been rendered with.
+   * @param context       The context the document has been rendered with.
+   * @param targetFile    The target file.
+   */
+  private void storeManifest(File manifestFile, String cacheKey, String configuration, RenderingContext context,
+      File targetFile) {
+    final BuildManifest manifest = new BuildManifest(getBaseDirectory(), fingerprints);
+    manifest.setConfiguration(configuration);
+    addInputs(manifest, context.tracker.getInputs());
+    addInputs(manifest, getConfigurationFiles());
+    if (context.builder instanceof DefaultTransformerBuilder) {
+      addInputs(manifest, ((DefaultTransformerBuilder) context.builder).getDependencies());
+    }
+
+    final File[] outputs = getOutputFiles(targetFile);
+    for (int i = 0; i < outputs.length; i++) {
+      manifest.addOutput(outputs[i]);
+    }
+
+    final String[] expressions = context.tracker.getExpressions();
+    final ExpressionHandler handler = new ExpressionHandler(createVariableResolver(), getLog());
+    for (int i = 0; i < expressions.length; i++) {
+      manifest.addExpression(expressions[i], evaluate(handler, expressions[i]));
+    }
+
+    try {
+      manifest.store(manifestFile);
+    } catch (IOException ioe) {
+      getLog().warn("Failed to store build manifest " + manifestFile + ", the document will be rendered again.");
+    }
+
+    if (cacheKey != null) {
+      try {
+        buildCache.store(cacheKey, manifest);
+      } catch (IOException ioe) {
+        getLog().warn("Failed to store the output of " + manifestFile.getName() + " in the build cache.", ioe);
+      }
+    }
+  }
+
+  private static void addInputs(BuildManifest manifest, File[] inputs) {
+    for (int i = 0; i < inputs.length; i++) {
+      manifest.addInput(inputs[i]);
+    }
+  }
+
+  /**
+   * Describes everything but the source files affecting the output: the stylesheet, the resolvers,
+   * the stylesheet parameters, the injected entities, etc.
+   *
+   * @return The description of the configuration.
+   */
+  private String describeConfiguration() {
+    final StringBuffer configuration = new StringBuffer();
+    appendConfiguration(configuration);
+    return configuration.toString();
+  }
+
+  /**
+   * Appends a description of the configuration to the one of the build manifest. Documents are
+   * rendered again as soon as the description changes. Subclasses using additional configuration,
+   * not passed to the stylesheet, should override this operation.
+   *
+   * @param configuration The description of the configuration.
+   */
+  protected void appendConfiguration(StringBuffer configuration) {
+    configuration.append("mojo=").append(getClass().getName()).append('\n');
+    configuration.append("stylesheet=").append(createStylesheetCacheKey(getStylesheetURL())).append('\n');
+    configuration.append("extension=").append(getTargetFileExtension()).append('\n');
+    configuration.append("xinclude=").append(getXIncludeSupported()).append('\n');
+
+    final ParameterRecorder recorder = new ParameterRecorder();
+    configure(recorder);
+    applyCustomizationParameters(recorder);
+    configuration.append("parameters=").append(recorder.getParameters()).append('\n');
+
+    if (getEntities() != null) {
+      for (Iterator iterator = getEntities().iterator(); iterator.hasNext();) {
+        Entity entity = (Entity) iterator.next();
+        configuration.append("entity=").append(entity.getName()).append('=').append(entity.getValue()).append('\n');
+      }
+    }
+  }
+
+  /**
+   * Returns the files, other than the source files and the stylesheets, affecting the output.
+   *
+   * @return The configuration files.
+   */
+  protected File[] getConfigurationFiles() {
+    return new File[0];
+  }
+
+  /**
+   * Returns the files produced when rendering a document. The document is rendered again if one
+   * of them has been removed.
+   *
+   * @param targetFile The target file of the document.
+   * @return The output files.
+   */
+  protected File[] getOutputFiles(File targetFile) {
+    if (!shouldProcessResult()) {
+      final String targetsFilename = getProperty("targetsFilename");
+      return (targetsFilename == null) ? new File[0] : new File[] { new File(targetsFilename) };
+    } else if (isUseStandardOutput()) {
+      return new File[] { targetFile };
+    } else {
+      return new File[] { targetFile.getParentFile() };
+    }
+  }
+
+  /**
+   * Returns the log of the document rendered by the current thread when rendering concurrently,
+   * or the regular Mojo log otherwise.
+   *
+   * @return The log to use.
+   */
+  public Log getLog() {
+    final Log log = (Log) documentLog.get();
+    return (log == null) ? super.getLog() : log;
+  }
+
+  /**
+   * Tells if documents can be rendered concurrently. Subclasses keeping state for a single
+   * document in between {@link #adjustTransformer(Transformer, String, File)} and
+   * {@link #postProcessResult(File)}, or sharing results between documents, should override this
+   * operation.
+   *
+   * @return <code>true</code> if documents can be rendered concurrently.
+   */
+  protected boolean isConcurrentRenderingSupported() {
+    return true;
   }
 
   /**
@@ -242,6 +720,84 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
     return !"only".equalsIgnoreCase(collectXrefTargets);
   }
 
+  /**
+   * Returns the source of a document from the {@link ParsedSourceCache}, if another execution
+   * parsed it already from the same files, or parses it into the cache otherwise.
+   *
+   * @param inputFilename The name of the source file, relative to the source directory.
+   * @param sourceFile    The docbook source file.
+   * @param context       The objects to use for parsing.
+   * @return The source of the document.
+   * @throws MojoExecutionException If the document cannot be parsed.
+   */
+  private Source createParsedSource(String inputFilename, File sourceFile, RenderingContext context)
+      throws MojoExecutionException {
+    // executions not using the cache leave it alone, it may be used by others
+    if (getParsedSourceCacheSize() < 1) {
+      return createSource(inputFilename, sourceFile, context.filter);
+    }
+    final ParsedSourceCache cache = ParsedSourceCache.getSharedInstance();
+    cache.ensureCapacity(getParsedSourceCacheSize());
+
+    final String key = createParsedSourceKey(sourceFile);
+    ParsedSourceCache.Entry entry = cache.get(key);
+    if (entry != null && entry.getManifest().areInputsUpToDate(key) && areExpressionsUpToDate(entry.getManifest())) {
+      getLog().info("Reusing parsed document " + inputFilename);
+      context.tracker.record(entry.getInputs(), entry.getExpressions());
+      return entry.getBuffer().createSource();
+    }
+
+    final Source source = createSource(inputFilename, sourceFile, context.filter);
+    if (!(source instanceof SAXSource)) {
+      return source;
+    }
+
+    final SAXEventBuffer buffer = new SAXEventBuffer();
+    try {
+      buffer.record(((SAXSource) source).getXMLReader(), ((SAXSource) source).getInputSource());
+    } catch (SAXException saxe) {
+      throw new MojoExecutionException("Failed to parse " + inputFilename + ".", saxe);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Failed to read " + inputFilename + ".", ioe);
+    }
+
+    final File[] inputs = context.tracker.getInputs();
+    final String[] expressions = context.tracker.getExpressions();
+    final BuildManifest manifest = new BuildManifest();
+    manifest.setConfiguration(key);
+    addInputs(manifest, inputs);
+    final ExpressionHandler handler = new ExpressionHandler(createVariableResolver(), getLog());
+    for (int i = 0; i < expressions.length; i++) {
+      manifest.addExpression(expressions[i], evaluate(handler, expressions[i]));
+    }
+    cache.put(key, new ParsedSourceCache.Entry(buffer, manifest, inputs, expressions));
+    return buffer.createSource();
+  }
+
+  /**
+   * Returns the key of a document in the {@link ParsedSourceCache}. Besides the source file, the
+   * key covers everything affecting the way it is parsed: the XInclude mode, the catalogs and the
+   * injected entities.
+   *
+   * @param sourceFile The docbook source file.
+   * @return The key of the document.
+   */
+  private String createParsedSourceKey(File sourceFile) {
+    final StringBuffer key = new StringBuffer(sourceFile.getAbsolutePath());
+    key.append('|').append(getXIncludeSupported());
+    key.append('|').append(isResolvingXIncludesInMemory());
+    key.append('|').append(findCatalogFiles());
+    if (getEntities() != null) {
+      // the entities of the type of output are injected as well
+      key.append('|').append(getType());
+      for (Iterator iterator = getEntities().iterator(); iterator.hasNext();) {
+        Entity entity = (Entity) iterator.next();
+        key.append('|').append(entity.getName()).append('=').append(entity.getValue());
+      }
+    }
+    return key.toString();
+  }
+
   /**
    * Creates a SAXSource configured with the desired XInclude mode. XOM library is used for advanced XInclude else
    * Xerces XInclude is used.
@@ -255,7 +811,7 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
   protected Source createSource(String inputFilename, File sourceFile, PreprocessingFilter filter)
       throws MojoExecutionException {
     // if both properties are set, XOM is used for a better XInclude support.
-    if (getXIncludeSupported() && getGeneratedSourceDirectory() != null) {
+    if (isResolvingXIncludesInMemory()) {
       getLog().debug("Advanced XInclude mode entered");
       final Builder xomBuilder = new Builder();
       try {
@@ -276,10 +832,54 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
     } else { // else fallback on Xerces XInclude support.
       getLog().debug("Xerces XInclude mode entered");
       final InputSource inputSource = new InputSource(sourceFile.getAbsolutePath());
+      if (isDumpingXIncludesInBackground()) {
+        final DumpingFilter dumpingFilter = new DumpingFilter(filter, getResolvedSourceFile(inputFilename));
+        getLog().info("Dumping to " + dumpingFilter.getFile().getAbsolutePath() + " in the background");
+        pendingDumps.add(dumpingFilter);
+        return new SAXSource(dumpingFilter, inputSource);
+      }
       return new SAXSource(filter, inputSource);
     }
   }
 
+  /**
+   * Tells if XIncludes are resolved by XOM, building the entire document in memory and writing it
+   * to the generatedSourceDirectory before transforming it.
+   *
+   * @return <code>true</code> for the advanced XInclude mode.
+   */
+  private boolean isResolvingXIncludesInMemory() {
+    return getXIncludeSupported() && getGeneratedSourceDirectory() != null && !isStreamingXInclude();
+  }
+
+  /**
+   * Tells if XIncludes are resolved by Xerces while transforming, the resolved document being
+   * written to the generatedSourceDirectory in the background.
+   *
+   * @return <code>true</code> for the streaming XInclude mode.
+   */
+  private boolean isDumpingXIncludesInBackground() {
+    return getXIncludeSupported() && getGeneratedSourceDirectory() != null && isStreamingXInclude();
+  }
+
+  /**
+   * Waits for the resolved documents written in the background. Failing to write one of them does
+   * not fail the build, since it is not used for rendering.
+   */
+  private void awaitDumps() {
+    final Object[] dumps = pendingDumps.toArray();
+    pendingDumps.clear();
+    for (int i = 0; i < dumps.length; i++) {
+      final DumpingFilter dump = (DumpingFilter) dumps[i];
+      dump.close();
+      try {
+        dump.await();
+      } catch (IOException ioe) {
+        getLog().warn("Failed to dump resolved source to " + dump.getFile().getAbsolutePath(), ioe);
+      }
+    }
+  }
+
   /**
    * Creates an XML Processing handler for the built-in docbkx <code>&lt;?eval?&gt;</code> PI. This PI resolves maven
    * properties and basic math formula.
@@ -290,7 +890,19 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
    */
   private PreprocessingFilter createPIHandler(EntityResolver resolver, XMLReader reader) {
     PreprocessingFilter filter = new PreprocessingFilter(reader);
-    ProcessingInstructionHandler resolvingHandler = new ExpressionHandler(new VariableResolver() {
+    ProcessingInstructionHandler resolvingHandler = new ExpressionHandler(createVariableResolver(), getLog());
+    filter.setHandlers(Arrays.asList(new Object[] { resolvingHandler }));
+    filter.setEntityResolver(resolver);
+    return filter;
+  }
+
+  /**
+   * Creates the resolver of the variables used in <code>&lt;?eval?&gt;</code> expressions.
+   *
+   * @return The variable resolver.
+   */
+  private VariableResolver createVariableResolver() {
+    return new VariableResolver() {
 
       public Object resolveVariable(String name) throws ELException {
         if ("date".equals(name)) {
@@ -302,10 +914,7 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
         }
       }
 
-    }, getLog());
-    filter.setHandlers(Arrays.asList(new Object[] { resolvingHandler }));
-    filter.setEntityResolver(resolver);
-    return filter;
+    };
   }
 
   /**
@@ -329,19 +938,12 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
    *
    * @param catalogResolver The initial resolver to use
    * @return The Stylesheet resolver.
-   * @throws MojoExecutionException If an error occurs while reading the stylesheet
    */
-  private URIResolver createStyleSheetResolver(CatalogResolver catalogResolver) throws MojoExecutionException {
-    URIResolver uriResolver;
-    try {
-      URL url = getNonDefaultStylesheetURL() == null ? getDefaultStylesheetURL() : getNonDefaultStylesheetURL();
-      getLog().debug("Using stylesheet: " + url.toExternalForm());
-      uriResolver = new StylesheetResolver("urn:docbkx:stylesheet", new StreamSource(url.openStream(), url
-          .toExternalForm()), catalogResolver);
-    } catch (IOException ioe) {
-      throw new MojoExecutionException("Failed to read stylesheet.", ioe);
-    }
-    return uriResolver;
+  private URIResolver createStyleSheetResolver(URIResolver catalogResolver) {
+    URL url = getNonDefaultStylesheetURL() == null ? getDefaultStylesheetURL() : getNonDefaultStylesheetURL();
+    getLog().debug("Using stylesheet: " + url.toExternalForm());
+    // the stylesheet is only opened, and closed again, by the parser if it is imported at all
+    return new StylesheetResolver("urn:docbkx:stylesheet", new StreamSource(url.toExternalForm()), catalogResolver);
   }
 
   /**
@@ -364,17 +966,8 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
    * @throws MojoExecutionException
    */
   protected File dumpResolvedXML(String initialFilename, nu.xom.Document doc) throws MojoExecutionException {
-    final File file = new File(initialFilename);
-    final String parent = file.getParent();
-    File resolvedXML = null;
-    if (parent != null) {
-      resolvedXML = new File(getGeneratedSourceDirectory(), parent);
-      resolvedXML.mkdirs();
-      resolvedXML = new File(resolvedXML, "(gen)" + file.getName());
-    } else {
-      getGeneratedSourceDirectory().mkdirs();
-      resolvedXML = new File(getGeneratedSourceDirectory(), "(gen)" + initialFilename);
-    }
+    final File resolvedXML = getResolvedSourceFile(initialFilename);
+    resolvedXML.getParentFile().mkdirs();
 
     FileOutputStream fos = null;
     try {
@@ -404,12 +997,30 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
   }
 
   /**
-   * Returns the SAXParserFactory used for constructing parsers.
+   * Returns the file receiving the Docbook XML with all XIncludes resolved.
+   *
+   * @param initialFilename Filename of the root docbook source file.
+   * @return The file in the generatedSourceDirectory.
+   */
+  private File getResolvedSourceFile(String initialFilename) {
+    final File file = new File(initialFilename);
+    final String parent = file.getParent();
+    if (parent != null) {
+      return new File(new File(getGeneratedSourceDirectory(), parent), "(gen)" + file.getName());
+    } else {
+      return new File(getGeneratedSourceDirectory(), "(gen)" + initialFilename);
+    }
+  }
+
+  /**
+   * Gives back the readers used by this Mojo to the {@link XMLReaderPool}.
    */
-  private SAXParserFactory createParserFactory() {
-    SAXParserFactory factory = new SAXParserFactoryImpl();
-    factory.setXIncludeAware(getXIncludeSupported());
-    return factory;
+  private void releaseReaders() {
+    final Object[] readers = borrowedReaders.toArray();
+    borrowedReaders.clear();
+    for (int i = 0; i < readers.length; i++) {
+      XMLReaderPool.getSharedInstance().release((XMLReader) readers[i]);
+    }
   }
 
   /**
@@ -466,6 +1077,30 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
     // To be implemented by subclasses.
   }
 
+  /**
+   * Creates the {@link Result} receiving the main output of the transformation. By default, this
+   * is the target file itself; subclasses may override this operation in order to process the
+   * output of the stylesheets while it is being produced, rather than reading it back from the
+   * target file in {@link #postProcessResult(File)}.
+   *
+   * @param targetFile The target File.
+   * @return The <code>Result</code> of the transformation.
+   * @throws MojoExecutionException If the <code>Result</code> cannot be created.
+   */
+  protected Result createResult(File targetFile) throws MojoExecutionException {
+    return new StreamResult(targetFile.getAbsolutePath());
+  }
+
+  /**
+   * Releases the resources held by a {@link Result} created by {@link #createResult(File)}, once
+   * the transformation is over, whether it succeeded or not.
+   *
+   * @param result The <code>Result</code> of the transformation.
+   */
+  protected void releaseResult(Result result) {
+    // To be implemented by subclasses.
+  }
+
   /**
    * Allows subclasses to add their own specific pre-processing logic.
    *
@@ -532,9 +1167,37 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
   protected CatalogManager createCatalogManager() {
     CatalogManager manager = new CatalogManager();
     manager.setIgnoreMissingProperties(true);
+    String catalogFiles = findCatalogFiles();
+    if (catalogFiles.length() == 0) {
+      getLog().warn("Failed to find catalog files.");
+    } else {
+      if (getLog().isDebugEnabled()) {
+        getLog().debug("Catalogs to load: " + catalogFiles);
+      }
+      manager.setCatalogFiles(catalogFiles);
+    }
+    return manager;
+  }
+
+  /**
+   * Returns the catalog files found on the classpath. The classpath is searched once for every
+   * <code>ClassLoader</code>.
+   *
+   * @return The URLs of the catalog files, separated by semicolons.
+   */
+  private String findCatalogFiles() {
     ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    final String names = Arrays.asList(catalogs).toString();
+    synchronized (CATALOG_FILES) {
+      final Map found = (Map) CATALOG_FILES.get(classLoader);
+      if (found != null && found.containsKey(names)) {
+        return (String) found.get(names);
+      }
+    }
+
     StringBuffer builder = new StringBuffer();
     boolean first = true;
+    boolean failed = false;
     for (int i = 0; i < catalogs.length; i++) {
       final String catalog = catalogs[i];
       try {
@@ -551,19 +1214,37 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
       } catch (IOException ioe) {
         getLog().warn("Failed to search for catalog files: " + catalog);
         // Let's be a little tolerant here.
+        failed = true;
       }
     }
 
-    String catalogFiles = builder.toString();
-    if (catalogFiles.length() == 0) {
-      getLog().warn("Failed to find catalog files.");
-    } else {
-      if (getLog().isDebugEnabled()) {
-        getLog().debug("Catalogs to load: " + catalogFiles);
+    if (!failed) {
+      synchronized (CATALOG_FILES) {
+        Map found = (Map) CATALOG_FILES.get(classLoader);
+        if (found == null) {
+          found = new HashMap();
+          CATALOG_FILES.put(classLoader, found);
+        }
+        found.put(names, builder.toString());
       }
-      manager.setCatalogFiles(catalogFiles);
     }
-    return manager;
+    return builder.toString();
+  }
+
+  /**
+   * Returns the key of a compiled stylesheet in the {@link StylesheetCache}. Besides the URL of the
+   * stylesheet, the key covers the configuration of the resolvers, which determine the stylesheets
+   * actually imported.
+   *
+   * @param url The URL of the stylesheet.
+   * @return The key of the stylesheet.
+   */
+  private String createStylesheetCacheKey(URL url) {
+    URL stylesheet = getNonDefaultStylesheetURL() == null ? getDefaultStylesheetURL() : getNonDefaultStylesheetURL();
+    StringBuffer key = new StringBuffer(url.toExternalForm());
+    key.append('|').append(stylesheet == null ? "" : stylesheet.toExternalForm());
+    key.append('|').append(findCatalogFiles());
+    return key.toString();
   }
 
   /**
@@ -599,10 +1280,11 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
   }
 
   /**
-   * Constructs the default {@link TransformerBuilder}.
+   * Constructs the default {@link TransformerBuilder}. The builder is shared by all threads
+   * rendering documents, and must create a new <code>Transformer</code> on every call.
    */
   protected TransformerBuilder createTransformerBuilder(URIResolver resolver) {
-    return new CachingTransformerBuilder(new DefaultTransformerBuilder(resolver));
+    return new DefaultTransformerBuilder(resolver);
   }
 
   /**
@@ -681,6 +1363,55 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
 
   //------------ inner classes -----------
 
+  /**
+   * The objects needed to render documents, used by a single thread at a time.
+   */
+  private static class RenderingContext {
+    private URIResolver uriResolver;
+    private InjectingEntityResolver injectingResolver;
+    private InputTrackingFilter tracker;
+    private TransformerBuilder builder;
+    private PreprocessingFilter filter;
+  }
+
+  /**
+   * Renders a single document on a worker thread, buffering the messages logged in the
+   * meantime. The {@link RenderingContext} of the worker is created on first use.
+   */
+  private class RenderingTask implements Callable {
+    private final String inputFilename;
+    private final ThreadLocal contexts;
+    private final TransformerBuilder builder;
+    private final Log log;
+
+    public RenderingTask(String inputFilename, ThreadLocal contexts, TransformerBuilder builder, Log log) {
+      this.inputFilename = inputFilename;
+      this.contexts = contexts;
+      this.builder = builder;
+      this.log = log;
+    }
+
+    public Object call() {
+      final BufferingLog bufferingLog = new BufferingLog(log);
+      documentLog.set(bufferingLog);
+      try {
+        RenderingContext context = (RenderingContext) contexts.get();
+        if (context == null) {
+          context = createRenderingContext(true, builder);
+          contexts.set(context);
+        }
+        render(inputFilename, context);
+      } catch (MojoExecutionException mee) {
+        bufferingLog.setFailure(mee);
+      } catch (RuntimeException re) {
+        bufferingLog.setFailure(new MojoExecutionException("Failed to render " + inputFilename + ".", re));
+      } finally {
+        documentLog.set(null);
+      }
+      return bufferingLog;
+    }
+  }
+
   /**
    * This output stream does nothing, it is void.
    */
@@ -691,74 +1422,188 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
   }
 
   /**
-   * The default policy for constructing Transformers.
+   * A <code>Transformer</code> merely recording the parameters passed to it, in order to describe
+   * the configuration of a document without compiling the stylesheet.
+   */
+  private static class ParameterRecorder extends Transformer {
+    private final Map parameters = new TreeMap();
+    private URIResolver resolver;
+    private ErrorListener listener;
+    private Properties outputProperties = new Properties();
+
+    public Map getParameters() {
+      return parameters;
+    }
+
+    public void transform(Source xmlSource, Result outputTarget) throws TransformerException {
+      throw new TransformerException("Parameters are recorded only.");
+    }
+
+    public void setParameter(String name, Object value) {
+      parameters.put(name, value);
+    }
+
+    public Object getParameter(String name) {
+      return parameters.get(name);
+    }
+
+    public void clearParameters() {
+      parameters.clear();
+    }
+
+    public void setURIResolver(URIResolver resolver) {
+      this.resolver = resolver;
+    }
+
+    public URIResolver getURIResolver() {
+      return resolver;
+    }
+
+    public void setOutputProperties(Properties oformat) {
+      outputProperties = (oformat == null) ? new Properties() : oformat;
+    }
+
+    public Properties getOutputProperties() {
+      return outputProperties;
+    }
+
+    public void setOutputProperty(String name, String value) {
+      outputProperties.setProperty(name, value);
+    }
+
+    public String getOutputProperty(String name) {
+      return outputProperties.getProperty(name);
+    }
+
+    public void setErrorListener(ErrorListener listener) {
+      this.listener = listener;
+    }
+
+    public ErrorListener getErrorListener() {
+      return listener;
+    }
+  }
+
+  /**
+   * The default policy for constructing Transformers: the stylesheet is compiled once, and every
+   * document gets a new Transformer configured with the parameters of this Mojo.
    */
-  private class DefaultTransformerBuilder implements TransformerBuilder {
+  private class DefaultTransformerBuilder extends TemplatesTransformerBuilder {
 
     /**
      * The standard {@link URIResolver}.
      */
     private URIResolver resolver;
 
+    /**
+     * The local files the stylesheet has been compiled from.
+     */
+    private File[] dependencies = new File[0];
+
     public DefaultTransformerBuilder(URIResolver resolver) {
       this.resolver = resolver;
     }
 
-    public Transformer build() throws TransformerBuilderException {
-      Transformer transformer = createTransformer(resolver);
-      transformer.setURIResolver(resolver);
-      return transformer;
+    /**
+     * Returns the local files the stylesheet has been compiled from, such as the files of a
+     * customization layer.
+     *
+     * @return The dependencies of the stylesheet, empty until it has been compiled.
+     */
+    public synchronized File[] getDependencies() {
+      return dependencies;
     }
 
     /**
-     * Returns a <code>Transformer</code> capable of rendering a particular type of output from DocBook input.
+     * Compiles the stylesheet capable of rendering a particular type of output from DocBook input,
+     * unless another execution has compiled it already.
      *
-     * @param uriResolver
-     * @return A <code>Transformer</code> capable of rendering a particular type of output from DocBook input.
-     * @throws MojoExecutionException If the operation fails to create a <code>Transformer</code>.
+     * @return The compiled stylesheet.
+     * @throws TransformerBuilderException If the stylesheet cannot be read or compiled.
      */
-    protected Transformer createTransformer(URIResolver uriResolver) throws TransformerBuilderException {
+    protected Templates createTemplates() throws TransformerBuilderException {
+      // only once, rather than for every document prepared afterwards
+      if (getCustomizationParameters() != null) {
+        getLog().info("Applying customization parameters after docbkx parameters");
+      }
       URL url = getStylesheetURL();
-      try {
-        TransformerFactory transformerFactory = new TransformerFactoryImpl();
-        transformerFactory.setURIResolver(uriResolver);
-        Source source = new StreamSource(url.openStream(), url.toExternalForm());
-        Transformer transformer = transformerFactory.newTransformer(source);
-
-        if (!isShowXslMessages()) {
-          Controller controller = (Controller) transformer;
-          try {
-            controller.makeMessageEmitter();
-            controller.getMessageEmitter().setWriter(new NullWriter());
-          } catch (TransformerException te) {
-            getLog().error("Failed to redirect xsl:message output.", te);
-          }
-        }
-
-        configure(transformer);
-
-        if (getCustomizationParameters() != null) {
-          getLog().info("Applying customization parameters after docbkx parameters");
-          final Iterator iterator = getCustomizationParameters().iterator();
-          while (iterator.hasNext()) {
-            Parameter param = (Parameter) iterator.next();
-            if (param.getName() != null) // who knows
-            {
-              transformer.setParameter(param.getName(), param.getValue());
-            }
-          }
+      StylesheetCache cache = StylesheetCache.getSharedInstance();
+      cache.setCapacity(getStylesheetCacheSize());
+      String key = createStylesheetCacheKey(url);
+      Templates templates = cache.get(key);
+      if (templates != null) {
+        getLog().info("Reusing compiled stylesheet " + url.toExternalForm());
+        File[] cached = cache.getDependencies(key);
+        if (cached != null) {
+          dependencies = cached;
         }
+        return templates;
+      }
 
-        return transformer;
+      InputStream in = null;
+      try {
+        StylesheetCache.DependencyRecorder recorder = new StylesheetCache.DependencyRecorder(resolver);
+        recorder.record(url);
+        TransformerFactory transformerFactory = new TransformerFactoryImpl();
+        transformerFactory.setURIResolver(recorder);
+        in = url.openStream();
+        Source source = new StreamSource(in, url.toExternalForm());
+        templates = transformerFactory.newTemplates(source);
+        dependencies = recorder.getDependencies();
+        cache.put(key, templates, dependencies);
+        return templates;
       } catch (IOException ioe) {
         throw new TransformerBuilderException("Failed to read stylesheet from " + url.toExternalForm(), ioe);
       } catch (TransformerConfigurationException tce) {
         throw new TransformerBuilderException("Failed to build Transformer from " + url.toExternalForm(), tce);
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+    }
+
+    /**
+     * Passes the parameters of this Mojo to a new <code>Transformer</code>.
+     *
+     * @param transformer The <code>Transformer</code> to prepare.
+     */
+    protected void prepare(Transformer transformer) {
+      transformer.setURIResolver(resolver);
+
+      if (!isShowXslMessages()) {
+        Controller controller = (Controller) transformer;
+        try {
+          controller.makeMessageEmitter();
+          controller.getMessageEmitter().setWriter(new NullWriter());
+        } catch (TransformerException te) {
+          getLog().error("Failed to redirect xsl:message output.", te);
+        }
       }
+
+      configure(transformer);
+
+      applyCustomizationParameters(transformer);
     }
 
   }
 
+  /**
+   * Passes the customization parameters to the <code>Transformer</code>.
+   *
+   * @param transformer The <code>Transformer</code> to configure.
+   */
+  private void applyCustomizationParameters(Transformer transformer) {
+    if (getCustomizationParameters() != null) {
+      final Iterator iterator = getCustomizationParameters().iterator();
+      while (iterator.hasNext()) {
+        Parameter param = (Parameter) iterator.next();
+        if (param.getName() != null) // who knows
+        {
+          transformer.setParameter(param.getName(), param.getValue());
+        }
+      }
+    }
+  }
+
   /**
    * Configure the Transformer by passing in some parameters.
    *
@@ -917,6 +1762,62 @@ public abstract class AbstractTransformerMojo extends AbstractMojo {
    */
   protected abstract List getArtifacts();
 
+  /**
+   * Returns the number of documents rendered concurrently. A value lower than one stands for the
+   * number of available processors.
+   *
+   * @return The number of rendering threads.
+   */
+  protected abstract int getThreads();
+
+  /**
+   * Returns the maximum number of compiled stylesheets kept in memory, to be reused by later
+   * executions. A value lower than one disables the cache.
+   *
+   * @return The capacity of the {@link StylesheetCache}.
+   */
+  protected abstract int getStylesheetCacheSize();
+
+  /**
+   * Tells if the inputs of a document should be compared by content, rather than by modification
+   * time, when deciding whether to render it again.
+   *
+   * @return <code>true</code> to fingerprint the content of the inputs.
+   */
+  protected abstract boolean isUseContentFingerprints();
+
+  /**
+   * Returns the directory caching the output of documents, to be restored rather than rendered
+   * again when the same inputs show up. Implies content fingerprints.
+   *
+   * @return The build cache directory, or <code>null</code> if there is none.
+   */
+  protected abstract File getBuildCacheDirectory();
+
+  /**
+   * Returns the maximum number of parsed documents kept in memory, to be transformed again by
+   * later executions rendering other types of output. A value lower than one disables the cache.
+   *
+   * @return The capacity of the {@link ParsedSourceCache}.
+   */
+  protected abstract int getParsedSourceCacheSize();
+
+  /**
+   * Tells if XIncludes should be resolved while parsing, writing the resolved documents to the
+   * generatedSourceDirectory in the background, rather than resolving them in memory first.
+   *
+   * @return <code>true</code> to resolve XIncludes while parsing.
+   */
+  protected abstract boolean isStreamingXInclude();
+
+  /**
+   * Tells if the DTDs of the documents should be parsed once and reused by all documents, rather
+   * than being parsed again for every document.
+   *
+   * @return <code>true</code> to cache DTDs.
+   */
+  protected abstract boolean isCacheDTDs();
+
   /**
    * Returns the type of conversion.
    */
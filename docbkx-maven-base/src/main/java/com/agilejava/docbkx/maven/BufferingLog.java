@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A {@link Log} holding on to the messages logged while rendering a single document, in order
+ * to replay them later on in one go. Used when documents are rendered concurrently, so that the
+ * output of one document does not get interleaved with the output of another one.
+ */
+public class BufferingLog implements Log {
+  private static final int DEBUG = 0;
+  private static final int INFO = 1;
+  private static final int WARN = 2;
+  private static final int ERROR = 3;
+
+  /**
+   * The <code>Log</code> deciding which levels are enabled.
+   */
+  private final Log log;
+
+  /**
+   * The messages logged so far. (Instances of {@link Message}.)
+   */
+  private final List messages = new ArrayList();
+
+  /**
+   * The failure reported while rendering the document, if any.
+   */
+  private MojoExecutionException failure;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param log The <code>Log</code> the messages will eventually be written to.
+   */
+  public BufferingLog(Log log) {
+    this.log = log;
+  }
+
+  /**
+   * Writes all messages buffered so far to the given <code>Log</code>, in the order in which
+   * they have been logged.
+   *
+   * @param target The <code>Log</code> receiving the messages.
+   */
+  public synchronized void replay(Log target) {
+    for (Iterator iterator = messages.iterator(); iterator.hasNext();) {
+      Message message = (Message) iterator.next();
+
+      switch (message.level) {
+      case DEBUG:
+        target.debug(message.content, message.error);
+        break;
+
+      case INFO:
+        target.info(message.content, message.error);
+        break;
+
+      case WARN:
+        target.warn(message.content, message.error);
+        break;
+
+      default:
+        target.error(message.content, message.error);
+      }
+    }
+
+    messages.clear();
+  }
+
+  /**
+   * Returns the failure reported while rendering the document.
+   *
+   * @return The failure, or <code>null</code> if the document has been rendered successfully.
+   */
+  public MojoExecutionException getFailure() {
+    return failure;
+  }
+
+  /**
+   * Records the failure that stopped the rendering of the document.
+   *
+   * @param failure The failure.
+   */
+  public void setFailure(MojoExecutionException failure) {
+    this.failure = failure;
+  }
+
+  private synchronized void add(int level, CharSequence content, Throwable error) {
+    messages.add(new Message(level, (content == null) ? "" : content.toString(), error));
+  }
+
+  public boolean isDebugEnabled() {
+    return log.isDebugEnabled();
+  }
+
+  public void debug(CharSequence content) {
+    debug(content, null);
+  }
+
+  public void debug(CharSequence content, Throwable error) {
+    if (isDebugEnabled()) {
+      add(DEBUG, content, error);
+    }
+  }
+
+  public void debug(Throwable error) {
+    debug(null, error);
+  }
+
+  public boolean isInfoEnabled() {
+    return log.isInfoEnabled();
+  }
+
+  public void info(CharSequence content) {
+    info(content, null);
+  }
+
+  public void info(CharSequence content, Throwable error) {
+    if (isInfoEnabled()) {
+      add(INFO, content, error);
+    }
+  }
+
+  public void info(Throwable error) {
+    info(null, error);
+  }
+
+  public boolean isWarnEnabled() {
+    return log.isWarnEnabled();
+  }
+
+  public void warn(CharSequence content) {
+    warn(content, null);
+  }
+
+  public void warn(CharSequence content, Throwable error) {
+    if (isWarnEnabled()) {
+      add(WARN, content, error);
+    }
+  }
+
+  public void warn(Throwable error) {
+    warn(null, error);
+  }
+
+  public boolean isErrorEnabled() {
+    return log.isErrorEnabled();
+  }
+
+  public void error(CharSequence content) {
+    error(content, null);
+  }
+
+  public void error(CharSequence content, Throwable error) {
+    if (isErrorEnabled()) {
+      add(ERROR, content, error);
+    }
+  }
+
+  public void error(Throwable error) {
+    error(null, error);
+  }
+
+  /**
+   * A single buffered message.
+   */
+  private static class Message {
+    private final int level;
+    private final String content;
+    private final Throwable error;
+
+    Message(int level, String content, Throwable error) {
+      this.level = level;
+      this.content = content;
+      this.error = error;
+    }
+  }
+}
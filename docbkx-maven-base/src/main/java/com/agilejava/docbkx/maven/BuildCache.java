@@ -0,0 +1,143 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A local directory holding the output of documents rendered earlier on, possibly from another
+ * checkout of the same project. Entries are looked up by a key derived from the configuration
+ * and the content of the source file. As the other inputs of a document may differ, several
+ * entries may share the same key; each of them holds the {@link BuildManifest} of the rendering,
+ * so that the remaining inputs can be checked before restoring the output.
+ *
+ * <p>
+ * Only documents producing regular files are cached: outputs spread over a directory, as with
+ * chunked HTML, cannot be told apart from the output of other documents.
+ * </p>
+ */
+public class BuildCache {
+  private static final String MANIFEST = "manifest.properties";
+  private static final String OUTPUT = "output-";
+
+  /**
+   * The directory holding the entries.
+   */
+  private final File directory;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param directory The directory holding the entries.
+   */
+  public BuildCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Looks for an entry rendered with the given configuration from inputs with the same content as
+   * the current ones.
+   *
+   * @param key           The key of the entry.
+   * @param configuration The description of the current configuration.
+   * @param baseDirectory The directory relative to which files are recorded.
+   * @param fingerprints  The fingerprints of the inputs.
+   * @return The manifest of the entry, or <code>null</code> if there is no matching entry.
+   */
+  public BuildManifest find(String key, String configuration, File baseDirectory, FingerprintStore fingerprints) {
+    final File[] entries = new File(directory, key).listFiles();
+    if (entries == null) {
+      return null;
+    }
+    for (int i = 0; i < entries.length; i++) {
+      final BuildManifest manifest = BuildManifest.load(new File(entries[i], MANIFEST), baseDirectory, fingerprints);
+      if (manifest != null && manifest.areInputsUpToDate(configuration) && isComplete(entries[i], manifest)) {
+        return manifest;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isComplete(File entry, BuildManifest manifest) {
+    final File[] outputs = manifest.getOutputs();
+    for (int i = 0; i < outputs.length; i++) {
+      if (!new File(entry, OUTPUT + i).isFile()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the output of an entry to its original location.
+   *
+   * @param key      The key of the entry.
+   * @param manifest The manifest of the entry, as returned by
+   *                 {@link #find(String, String, File, FingerprintStore)}.
+   * @throws IOException If the output cannot be copied.
+   */
+  public void restore(String key, BuildManifest manifest) throws IOException {
+    final File entry = getEntry(key, manifest);
+    final File[] outputs = manifest.getOutputs();
+    for (int i = 0; i < outputs.length; i++) {
+      FileUtils.copyFile(new File(entry, OUTPUT + i), outputs[i]);
+    }
+  }
+
+  /**
+   * Stores the output of a document just rendered, unless it is not made of regular files only.
+   *
+   * @param key      The key of the entry.
+   * @param manifest The manifest of the rendering.
+   * @throws IOException If the entry cannot be written.
+   */
+  public void store(String key, BuildManifest manifest) throws IOException {
+    final File[] outputs = manifest.getOutputs();
+    for (int i = 0; i < outputs.length; i++) {
+      if (!outputs[i].isFile()) {
+        return;
+      }
+    }
+
+    // prepare the entry aside, so that a partial entry never gets used
+    final File entry = getEntry(key, manifest);
+    entry.getParentFile().mkdirs();
+    final File temp = File.createTempFile(entry.getName(), ".tmp", entry.getParentFile());
+    temp.delete();
+    temp.mkdirs();
+    for (int i = 0; i < outputs.length; i++) {
+      FileUtils.copyFile(outputs[i], new File(temp, OUTPUT + i));
+    }
+    manifest.store(new File(temp, MANIFEST));
+
+    FileUtils.deleteDirectory(entry);
+    if (!temp.renameTo(entry)) {
+      FileUtils.deleteDirectory(temp);
+      throw new IOException("Failed to create build cache entry " + entry);
+    }
+  }
+
+  private File getEntry(String key, BuildManifest manifest) {
+    return new File(new File(directory, key), manifest.getInputsDigest());
+  }
+}
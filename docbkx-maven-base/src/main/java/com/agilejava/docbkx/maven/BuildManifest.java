@@ -0,0 +1,336 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The record of everything that went into rendering a single document: the configuration of the
+ * Mojo, the files read and the expressions evaluated, together with the files produced. When
+ * none of these has changed, rendering the document again would produce the same output, so it
+ * can be skipped.
+ *
+ * <p>
+ * Files are identified by their path, relative to the base directory of the project if they are
+ * located below it, and stamped with their modification time and size or, when a
+ * {@link FingerprintStore} is given, with the fingerprint of their content. Files that have been
+ * looked for but did not exist are recorded as well, so that creating them later on invalidates
+ * the manifest.
+ * </p>
+ */
+public class BuildManifest {
+  private static final String CONFIGURATION = "configuration";
+  private static final String INPUT = "input:";
+  private static final String OUTPUT = "output:";
+  private static final String EXPRESSION = "expression:";
+  private static final String MISSING = "missing";
+  private static final String DIRECTORY = "directory";
+
+  private final Properties properties = new Properties();
+
+  /**
+   * The directory relative to which files are recorded, or <code>null</code>.
+   */
+  private final File baseDirectory;
+
+  /**
+   * The fingerprints of the content of the files, or <code>null</code> to compare modification
+   * times and sizes instead.
+   */
+  private final FingerprintStore fingerprints;
+
+  /**
+   * Constructs a new instance, recording absolute paths and modification times.
+   */
+  public BuildManifest() {
+    this(null, null);
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param baseDirectory The directory relative to which files are recorded, or <code>null</code>.
+   * @param fingerprints  The fingerprints of the files, or <code>null</code> to compare modification
+   *                      times and sizes instead.
+   */
+  public BuildManifest(File baseDirectory, FingerprintStore fingerprints) {
+    this.baseDirectory = baseDirectory;
+    this.fingerprints = fingerprints;
+  }
+
+  /**
+   * Loads a manifest stored earlier on, recording absolute paths and modification times.
+   *
+   * @param file The file holding the manifest.
+   * @return The manifest, or <code>null</code> if there is none, or if it cannot be read.
+   */
+  public static BuildManifest load(File file) {
+    return load(file, null, null);
+  }
+
+  /**
+   * Loads a manifest stored earlier on.
+   *
+   * @param file          The file holding the manifest.
+   * @param baseDirectory The directory relative to which files are recorded, or <code>null</code>.
+   * @param fingerprints  The fingerprints of the files, or <code>null</code> to compare modification
+   *                      times and sizes instead.
+   * @return The manifest, or <code>null</code> if there is none, or if it cannot be read.
+   */
+  public static BuildManifest load(File file, File baseDirectory, FingerprintStore fingerprints) {
+    if (!file.isFile()) {
+      return null;
+    }
+    BuildManifest manifest = new BuildManifest(baseDirectory, fingerprints);
+    InputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      manifest.properties.load(in);
+      return manifest;
+    } catch (IOException ioe) {
+      return null;
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Stores this manifest.
+   *
+   * @param file The file receiving the manifest.
+   * @throws IOException If the manifest cannot be written.
+   */
+  public void store(File file) throws IOException {
+    file.getParentFile().mkdirs();
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      properties.store(out, "docbkx build manifest");
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Records the configuration the document has been rendered with.
+   *
+   * @param configuration A description of the configuration, compared as is.
+   */
+  public void setConfiguration(String configuration) {
+    properties.setProperty(CONFIGURATION, digest(configuration));
+  }
+
+  /**
+   * Records a file read while rendering the document, in its current state.
+   *
+   * @param file The file read, or looked for.
+   */
+  public void addInput(File file) {
+    properties.setProperty(INPUT + toPath(file), stamp(file));
+  }
+
+  /**
+   * Records a file produced while rendering the document.
+   *
+   * @param file The file produced.
+   */
+  public void addOutput(File file) {
+    properties.setProperty(OUTPUT + toPath(file), "");
+  }
+
+  /**
+   * Records the value an expression found in the document evaluated to.
+   *
+   * @param expression The expression.
+   * @param value      Its value.
+   */
+  public void addExpression(String expression, String value) {
+    properties.setProperty(EXPRESSION + expression, value);
+  }
+
+  /**
+   * Returns the expressions recorded, with the values they evaluated to.
+   *
+   * @return A <code>Map</code> from expressions to their values.
+   */
+  public Map getExpressions() {
+    Map expressions = new TreeMap();
+    for (Iterator iterator = properties.keySet().iterator(); iterator.hasNext();) {
+      String key = (String) iterator.next();
+      if (key.startsWith(EXPRESSION)) {
+        expressions.put(key.substring(EXPRESSION.length()), properties.getProperty(key));
+      }
+    }
+    return expressions;
+  }
+
+  /**
+   * Returns the output files recorded.
+   *
+   * @return The files produced while rendering the document.
+   */
+  public File[] getOutputs() {
+    List outputs = new ArrayList();
+    for (Iterator iterator = new TreeMap(properties).keySet().iterator(); iterator.hasNext();) {
+      String key = (String) iterator.next();
+      if (key.startsWith(OUTPUT)) {
+        outputs.add(toFile(key.substring(OUTPUT.length())));
+      }
+    }
+    return (File[]) outputs.toArray(new File[outputs.size()]);
+  }
+
+  /**
+   * Tells if the document has been rendered with the given configuration, from inputs that did not
+   * change since, and if all of its output files are still around. The expressions are not taken
+   * into account, as only the caller knows how to evaluate them.
+   *
+   * @param configuration A description of the current configuration.
+   * @return <code>true</code> if rendering the document again would produce the same output.
+   */
+  public boolean isUpToDate(String configuration) {
+    if (!areInputsUpToDate(configuration)) {
+      return false;
+    }
+    File[] outputs = getOutputs();
+    for (int i = 0; i < outputs.length; i++) {
+      if (!outputs[i].exists()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tells if the document has been rendered with the given configuration, from inputs that did not
+   * change since, regardless of its output files.
+   *
+   * @param configuration A description of the current configuration.
+   * @return <code>true</code> if rendering the document again would produce the same output.
+   */
+  public boolean areInputsUpToDate(String configuration) {
+    if (!digest(configuration).equals(properties.getProperty(CONFIGURATION))) {
+      return false;
+    }
+    for (Iterator iterator = properties.keySet().iterator(); iterator.hasNext();) {
+      String key = (String) iterator.next();
+      if (key.startsWith(INPUT)) {
+        File input = toFile(key.substring(INPUT.length()));
+        if (!stamp(input).equals(properties.getProperty(key))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a digest of the inputs recorded, and of their state.
+   *
+   * @return The digest of the inputs.
+   */
+  public String getInputsDigest() {
+    StringBuffer inputs = new StringBuffer();
+    for (Iterator iterator = new TreeMap(properties).entrySet().iterator(); iterator.hasNext();) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      if (((String) entry.getKey()).startsWith(INPUT)) {
+        inputs.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+      }
+    }
+    return digest(inputs.toString());
+  }
+
+  private String stamp(File file) {
+    if (!file.exists()) {
+      return MISSING;
+    } else if (file.isDirectory()) {
+      return DIRECTORY;
+    } else if (fingerprints == null) {
+      return file.lastModified() + ":" + file.length();
+    }
+    try {
+      return "sha256:" + fingerprints.getFingerprint(file);
+    } catch (IOException ioe) {
+      // never equal to a fingerprint, nor to itself
+      return "unreadable:" + System.currentTimeMillis();
+    }
+  }
+
+  private String toPath(File file) {
+    String path = file.getAbsolutePath();
+    if (baseDirectory != null) {
+      String base = baseDirectory.getAbsolutePath() + File.separator;
+      if (path.startsWith(base)) {
+        return path.substring(base.length()).replace(File.separatorChar, '/');
+      }
+    }
+    return path;
+  }
+
+  private File toFile(String path) {
+    File file = new File(path);
+    if (file.isAbsolute() || baseDirectory == null) {
+      return file;
+    }
+    return new File(baseDirectory, path.replace('/', File.separatorChar));
+  }
+
+  /**
+   * Computes the SHA-256 digest of a text, in hexadecimal notation.
+   *
+   * @param text The text to digest.
+   * @return The digest of the text.
+   */
+  public static String digest(String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return toHex(digest.digest(text.getBytes("UTF-8")));
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException("SHA-256 is not supported.");
+    } catch (UnsupportedEncodingException uee) {
+      throw new IllegalStateException("UTF-8 is not supported.");
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuffer buffer = new StringBuffer(bytes.length * 2);
+    for (int i = 0; i < bytes.length; i++) {
+      buffer.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16));
+      buffer.append(Character.forDigit(bytes[i] & 0xf, 16));
+    }
+    return buffer.toString();
+  }
+}
@@ -23,9 +23,13 @@ import javax.xml.transform.Transformer;
 
 /**
  * A caching {@link TransformerBuilder}, holding on to the Transformer it created. Note that
- * this class is thread-safe.
+ * although creating the Transformer is synchronized, the same instance is handed out on every
+ * call, so it must never be used by more than one thread at a time; parameters set on it for one
+ * document also remain visible when transforming the next one.
  *
  * @author Wilfred Springer
+ * @deprecated Use {@link TemplatesTransformerBuilder}, compiling the stylesheet once and creating
+ *             a new Transformer for every document.
  */
 public class CachingTransformerBuilder implements TransformerBuilder {
   private Transformer transformer;
@@ -0,0 +1,597 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.WeakHashMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.xerces.jaxp.SAXParserFactoryImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * An immutable index of OASIS XML catalogs, mapping public identifiers, system identifiers and
+ * URIs to the URLs they resolve to. Catalogs are read once, and then shared by all Mojos loaded
+ * by the same <code>ClassLoader</code>, so that looking up a DTD or a stylesheet is a matter of a
+ * few map lookups, rather than having every execution parse all catalogs on the classpath again.
+ *
+ * <p>
+ * The index of a catalog may also be built in advance and shipped as a
+ * {@link #PREBUILT_INDEX} resource, which is then used instead of parsing the catalog. Catalogs
+ * are identified by the name of the archive they are found in, and their path inside of it, so a
+ * prebuilt index remains valid wherever the archives are installed. Run {@link #main(String[])}
+ * to create one.
+ * </p>
+ *
+ * <p>
+ * The index covers the <code>public</code>, <code>system</code>, <code>uri</code>,
+ * <code>rewriteSystem</code>, <code>rewriteURI</code>, <code>group</code> and
+ * <code>nextCatalog</code> entries. Catalogs using other entries, such as the delegating ones, or
+ * that cannot be read, make the index incomplete: anything not found in it should then be looked
+ * up in the catalogs themselves.
+ * </p>
+ */
+public class CatalogIndex {
+  /**
+   * The name of the resources holding prebuilt indexes.
+   */
+  public static final String PREBUILT_INDEX = "META-INF/docbkx/catalog-index.properties";
+
+  private static final String NAMESPACE = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+  private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+  private static final String CATALOG = "catalog";
+  private static final String SYSTEM = "system";
+  private static final String PUBLIC = "public";
+  private static final String PUBLIC_PREFER_SYSTEM = "public-prefer-system";
+  private static final String URI = "uri";
+  private static final String REWRITE_SYSTEM = "rewriteSystem";
+  private static final String REWRITE_URI = "rewriteURI";
+  private static final String NEXT_CATALOG = "nextCatalog";
+  private static final String INCOMPLETE = "incomplete";
+
+  /**
+   * The instances shared by all Mojos. (Maps class loaders to maps of catalog files to instances
+   * of {@link CatalogIndex}.)
+   */
+  private static final Map SHARED = new WeakHashMap();
+
+  /**
+   * The catalogs, in order of precedence. (Instances of {@link Catalog}.)
+   */
+  private final List catalogs = new ArrayList();
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param catalogFiles The URLs of the catalogs, separated by semicolons.
+   * @param prebuilt     The prebuilt indexes of catalogs, as written by {@link #store(Properties)}.
+   */
+  public CatalogIndex(String catalogFiles, Properties prebuilt) {
+    final StringTokenizer tokenizer = new StringTokenizer(catalogFiles, ";");
+    while (tokenizer.hasMoreTokens()) {
+      try {
+        add(new URL(tokenizer.nextToken()), prebuilt, new HashSet());
+      } catch (MalformedURLException mue) {
+        catalogs.add(new Catalog(null, null));
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the given catalogs shared by all Mojos, using the prebuilt indexes found
+   * by the given <code>ClassLoader</code>.
+   *
+   * @param classLoader  The <code>ClassLoader</code> the catalogs have been found by.
+   * @param catalogFiles The URLs of the catalogs, separated by semicolons.
+   * @return The shared index.
+   */
+  public static CatalogIndex getSharedInstance(ClassLoader classLoader, String catalogFiles) {
+    synchronized (SHARED) {
+      Map indexes = (Map) SHARED.get(classLoader);
+      if (indexes == null) {
+        indexes = new HashMap();
+        SHARED.put(classLoader, indexes);
+      }
+      CatalogIndex index = (CatalogIndex) indexes.get(catalogFiles);
+      if (index == null) {
+        index = new CatalogIndex(catalogFiles, loadPrebuiltIndexes(classLoader));
+        indexes.put(catalogFiles, index);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Returns all prebuilt indexes found by the given <code>ClassLoader</code>.
+   */
+  private static Properties loadPrebuiltIndexes(ClassLoader classLoader) {
+    final Properties prebuilt = new Properties();
+    try {
+      for (Enumeration resources = classLoader.getResources(PREBUILT_INDEX); resources.hasMoreElements();) {
+        final InputStream in = ((URL) resources.nextElement()).openStream();
+        try {
+          final Properties properties = new Properties();
+          properties.load(in);
+          // the first index found for a catalog wins
+          properties.putAll(prebuilt);
+          prebuilt.putAll(properties);
+        } finally {
+          IOUtils.closeQuietly(in);
+        }
+      }
+    } catch (IOException ioe) {
+      // the catalogs will be parsed
+    }
+    return prebuilt;
+  }
+
+  /**
+   * Adds a catalog, followed by the catalogs it refers to.
+   */
+  private void add(URL url, Properties prebuilt, Set visited) {
+    if (!visited.add(url.toExternalForm())) {
+      return;
+    }
+    final String name = getName(url);
+    Catalog catalog = Catalog.load(url, name, prebuilt);
+    if (catalog == null) {
+      catalog = Catalog.parse(url, name);
+    }
+    catalogs.add(catalog);
+    for (Iterator iterator = catalog.next.iterator(); iterator.hasNext();) {
+      try {
+        add(new URL(url, (String) iterator.next()), prebuilt, visited);
+      } catch (MalformedURLException mue) {
+        catalog.complete = false;
+      }
+    }
+  }
+
+  /**
+   * Returns the name identifying a catalog in a prebuilt index: the name of the archive holding
+   * it and its path inside of the archive, or its entire URL if it is not part of an archive.
+   */
+  private static String getName(URL url) {
+    final String external = url.toExternalForm();
+    final int separator = external.indexOf("!/");
+    if (separator < 0) {
+      return external;
+    }
+    return external.substring(external.lastIndexOf('/', separator - 1) + 1);
+  }
+
+  /**
+   * Tells if the index holds all entries of the catalogs. If not, anything not found in the index
+   * should be looked up in the catalogs.
+   *
+   * @return <code>true</code> if the catalogs have been indexed entirely.
+   */
+  public boolean isComplete() {
+    for (int i = 0; i < catalogs.size(); i++) {
+      if (!((Catalog) catalogs.get(i)).complete) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Resolves a system identifier.
+   *
+   * @param systemId The system identifier.
+   * @return The URL it resolves to, or <code>null</code> if it is not in the index.
+   */
+  public String resolveSystem(String systemId) {
+    for (int i = 0; i < catalogs.size(); i++) {
+      final Catalog catalog = (Catalog) catalogs.get(i);
+      final String resolved = catalog.resolve(catalog.system, catalog.rewriteSystem, systemId);
+      if (resolved != null) {
+        return resolved;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Resolves a public identifier.
+   *
+   * @param publicId The public identifier.
+   * @param systemId The system identifier coming with it, possibly <code>null</code>.
+   * @return The URL it resolves to, or <code>null</code> if it is not in the index.
+   */
+  public String resolvePublic(String publicId, String systemId) {
+    publicId = normalizePublicId(publicId);
+    if (systemId != null) {
+      final String resolved = resolveSystem(systemId);
+      if (resolved != null) {
+        return resolved;
+      }
+    }
+    for (int i = 0; i < catalogs.size(); i++) {
+      final Catalog catalog = (Catalog) catalogs.get(i);
+      String target = (String) catalog.publicIds.get(publicId);
+      if (target == null && systemId == null) {
+        target = (String) catalog.publicIdsPreferSystem.get(publicId);
+      }
+      if (target != null) {
+        return catalog.absolutize(target);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Resolves a URI.
+   *
+   * @param uri The URI.
+   * @return The URL it resolves to, or <code>null</code> if it is not in the index.
+   */
+  public String resolveURI(String uri) {
+    for (int i = 0; i < catalogs.size(); i++) {
+      final Catalog catalog = (Catalog) catalogs.get(i);
+      final String resolved = catalog.resolve(catalog.uris, catalog.rewriteURI, uri);
+      if (resolved != null) {
+        return resolved;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Writes the index of all catalogs, to be used as a prebuilt index.
+   *
+   * @param properties The properties receiving the index.
+   */
+  public void store(Properties properties) {
+    for (int i = 0; i < catalogs.size(); i++) {
+      ((Catalog) catalogs.get(i)).store(properties);
+    }
+  }
+
+  /**
+   * Writes a prebuilt index of catalogs.
+   *
+   * @param args The file to write to, followed by the URLs of the catalogs.
+   * @throws IOException If the index cannot be written.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CatalogIndex <output file> <catalog URL>...");
+      return;
+    }
+    final StringBuffer catalogFiles = new StringBuffer();
+    for (int i = 1; i < args.length; i++) {
+      catalogFiles.append(args[i]).append(';');
+    }
+    final Properties properties = new Properties();
+    new CatalogIndex(catalogFiles.toString(), new Properties()).store(properties);
+    final OutputStream out = new FileOutputStream(args[0]);
+    try {
+      properties.store(out, "Prebuilt index of XML catalogs");
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  /**
+   * The entries of a single catalog. Targets are kept as written in the catalog, relative to it.
+   */
+  private static class Catalog {
+    private final URL url;
+    private final String name;
+    private final Map system = new HashMap();
+    private final Map publicIds = new HashMap();
+    private final Map publicIdsPreferSystem = new HashMap();
+    private final Map uris = new HashMap();
+    private final List rewriteSystem = new ArrayList();
+    private final List rewriteURI = new ArrayList();
+    private final List next = new ArrayList();
+    private boolean complete = true;
+
+    Catalog(URL url, String name) {
+      this.url = url;
+      this.name = name;
+      complete = url != null;
+    }
+
+    /**
+     * Returns the prebuilt index of a catalog, or <code>null</code> if there is none.
+     */
+    static Catalog load(URL url, String name, Properties prebuilt) {
+      final String prefix = name + '#';
+      if (prebuilt.getProperty(prefix + CATALOG + '#') == null) {
+        return null;
+      }
+      final Catalog catalog = new Catalog(url, name);
+      final Map nextCatalogs = new HashMap();
+      final Map rewrites = new HashMap();
+      for (Iterator iterator = prebuilt.entrySet().iterator(); iterator.hasNext();) {
+        final Map.Entry entry = (Map.Entry) iterator.next();
+        final String key = (String) entry.getKey();
+        if (!key.startsWith(prefix)) {
+          continue;
+        }
+        final int separator = key.indexOf('#', prefix.length());
+        final String kind = key.substring(prefix.length(), separator);
+        final String id = key.substring(separator + 1);
+        if (NEXT_CATALOG.equals(kind)) {
+          nextCatalogs.put(new Integer(id), entry.getValue());
+        } else if (REWRITE_SYSTEM.equals(kind) || REWRITE_URI.equals(kind)) {
+          // rewrite entries are numbered, as the first one matching wins
+          final int position = id.indexOf('#');
+          rewrites.put(kind + '#' + id.substring(0, position), new String[] { id.substring(position + 1),
+              (String) entry.getValue() });
+        } else if (INCOMPLETE.equals(kind)) {
+          catalog.complete = false;
+        } else if (!CATALOG.equals(kind)) {
+          catalog.getEntries(kind).put(id, entry.getValue());
+        }
+      }
+      for (int i = 0; i < nextCatalogs.size(); i++) {
+        catalog.next.add(nextCatalogs.get(new Integer(i)));
+      }
+      for (int i = 0; rewrites.containsKey(REWRITE_SYSTEM + '#' + i); i++) {
+        catalog.rewriteSystem.add(rewrites.get(REWRITE_SYSTEM + '#' + i));
+      }
+      for (int i = 0; rewrites.containsKey(REWRITE_URI + '#' + i); i++) {
+        catalog.rewriteURI.add(rewrites.get(REWRITE_URI + '#' + i));
+      }
+      return catalog;
+    }
+
+    /**
+     * Reads a catalog.
+     */
+    static Catalog parse(URL url, String name) {
+      final Catalog catalog = new Catalog(url, name);
+      final InputSource input = new InputSource(url.toExternalForm());
+      try {
+        final SAXParserFactory factory = new SAXParserFactoryImpl();
+        factory.setNamespaceAware(true);
+        final XMLReader reader = factory.newSAXParser().getXMLReader();
+        final Parser parser = catalog.new Parser();
+        reader.setContentHandler(parser);
+        reader.setEntityResolver(parser);
+        reader.parse(input);
+      } catch (IOException ioe) {
+        catalog.complete = false;
+      } catch (SAXException saxe) {
+        catalog.complete = false;
+      } catch (ParserConfigurationException pce) {
+        catalog.complete = false;
+      }
+      return catalog;
+    }
+
+    private Map getEntries(String kind) {
+      if (SYSTEM.equals(kind)) {
+        return system;
+      } else if (PUBLIC.equals(kind)) {
+        return publicIds;
+      } else if (PUBLIC_PREFER_SYSTEM.equals(kind)) {
+        return publicIdsPreferSystem;
+      } else if (URI.equals(kind)) {
+        return uris;
+      } else {
+        // an entry this version does not know about
+        complete = false;
+        return new HashMap();
+      }
+    }
+
+    /**
+     * Looks up an identifier, first among the entries matching it exactly, then among the
+     * entries rewriting a prefix of it. Like the Apache resolver, the first rewrite entry
+     * matching wins, rather than the one with the longest prefix.
+     */
+    String resolve(Map exact, List rewrite, String id) {
+      final String target = (String) exact.get(id);
+      if (target != null) {
+        return absolutize(target);
+      }
+      for (int i = 0; i < rewrite.size(); i++) {
+        final String[] entry = (String[]) rewrite.get(i);
+        if (id.startsWith(entry[0])) {
+          final String rewritten = absolutize(entry[1]);
+          return (rewritten == null) ? null : rewritten + id.substring(entry[0].length());
+        }
+      }
+      return null;
+    }
+
+    String absolutize(String target) {
+      try {
+        return new URL(url, target).toExternalForm();
+      } catch (MalformedURLException mue) {
+        return null;
+      }
+    }
+
+    void store(Properties properties) {
+      if (name == null) {
+        return;
+      }
+      final String prefix = name + '#';
+      properties.setProperty(prefix + CATALOG + '#', "true");
+      store(properties, prefix + SYSTEM + '#', system);
+      store(properties, prefix + PUBLIC + '#', publicIds);
+      store(properties, prefix + PUBLIC_PREFER_SYSTEM + '#', publicIdsPreferSystem);
+      store(properties, prefix + URI + '#', uris);
+      store(properties, prefix + REWRITE_SYSTEM + '#', rewriteSystem);
+      store(properties, prefix + REWRITE_URI + '#', rewriteURI);
+      for (int i = 0; i < next.size(); i++) {
+        properties.setProperty(prefix + NEXT_CATALOG + '#' + i, (String) next.get(i));
+      }
+      if (!complete) {
+        properties.setProperty(prefix + INCOMPLETE + '#', "true");
+      }
+    }
+
+    private static void store(Properties properties, String prefix, List rewrites) {
+      for (int i = 0; i < rewrites.size(); i++) {
+        final String[] entry = (String[]) rewrites.get(i);
+        properties.setProperty(prefix + i + '#' + entry[0], entry[1]);
+      }
+    }
+
+    private static void store(Properties properties, String prefix, Map entries) {
+      for (Iterator iterator = entries.entrySet().iterator(); iterator.hasNext();) {
+        final Map.Entry entry = (Map.Entry) iterator.next();
+        properties.setProperty(prefix + entry.getKey(), (String) entry.getValue());
+      }
+    }
+
+    /**
+     * Reads the entries of the catalog. Entries appearing first take precedence.
+     */
+    private class Parser extends DefaultHandler {
+      /**
+       * The bases of the enclosing elements, relative to the catalog, or <code>null</code>.
+       */
+      private final List bases = new ArrayList();
+
+      /**
+       * The <code>prefer</code> settings of the enclosing elements.
+       */
+      private final List prefers = new ArrayList();
+
+      public InputSource resolveEntity(String publicId, String systemId) {
+        // the DTD of catalogs is of no use here
+        return new InputSource(new StringReader(""));
+      }
+
+      public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        String base = bases.isEmpty() ? null : (String) bases.get(bases.size() - 1);
+        final String xmlBase = atts.getValue(XML_NAMESPACE, "base");
+        if (xmlBase != null) {
+          try {
+            base = (base == null) ? xmlBase : new URL(new URL(url, base), xmlBase).toExternalForm();
+          } catch (MalformedURLException mue) {
+            complete = false;
+          }
+        }
+        bases.add(base);
+        String prefer = prefers.isEmpty() ? PUBLIC : (String) prefers.get(prefers.size() - 1);
+        if (atts.getValue("prefer") != null) {
+          prefer = atts.getValue("prefer");
+        }
+        prefers.add(prefer);
+
+        if (!NAMESPACE.equals(uri)) {
+          // extensions are to be ignored
+          return;
+        }
+        if ("public".equals(localName)) {
+          final Map entries = SYSTEM.equals(prefer) ? publicIdsPreferSystem : publicIds;
+          add(entries, normalizePublicId(atts.getValue("publicId")), atts.getValue("uri"), base);
+        } else if ("system".equals(localName)) {
+          add(system, atts.getValue("systemId"), atts.getValue("uri"), base);
+        } else if ("uri".equals(localName)) {
+          add(uris, atts.getValue("name"), atts.getValue("uri"), base);
+        } else if ("rewriteSystem".equals(localName)) {
+          add(rewriteSystem, atts.getValue("systemIdStartString"), atts.getValue("rewritePrefix"), base);
+        } else if ("rewriteURI".equals(localName)) {
+          add(rewriteURI, atts.getValue("uriStartString"), atts.getValue("rewritePrefix"), base);
+        } else if ("nextCatalog".equals(localName)) {
+          final String target = target(atts.getValue("catalog"), base);
+          if (target != null) {
+            next.add(target);
+          }
+        } else if (!"catalog".equals(localName) && !"group".equals(localName)) {
+          // delegates and suffix entries are left to the catalog resolver
+          complete = false;
+        }
+      }
+
+      public void endElement(String uri, String localName, String qName) {
+        bases.remove(bases.size() - 1);
+        prefers.remove(prefers.size() - 1);
+      }
+
+      private void add(List rewrites, String prefix, String target, String base) {
+        target = target(target, base);
+        if (prefix != null && target != null) {
+          rewrites.add(new String[] { prefix, target });
+        }
+      }
+
+      private void add(Map entries, String id, String target, String base) {
+        target = target(target, base);
+        if (id != null && target != null && !entries.containsKey(id)) {
+          entries.put(id, target);
+        }
+      }
+
+      private String target(String target, String base) {
+        if (target == null || base == null) {
+          return target;
+        }
+        try {
+          return new URL(new URL(url, base), target).toExternalForm();
+        } catch (MalformedURLException mue) {
+          complete = false;
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Normalizes the white space of a public identifier.
+   */
+  private static String normalizePublicId(String publicId) {
+    if (publicId == null) {
+      return null;
+    }
+    final StringBuffer normalized = new StringBuffer();
+    final StringTokenizer tokenizer = new StringTokenizer(publicId, " \t\r\n");
+    while (tokenizer.hasMoreTokens()) {
+      if (normalized.length() > 0) {
+        normalized.append(' ');
+      }
+      normalized.append(tokenizer.nextToken());
+    }
+    return normalized.toString();
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.dtd.DTDGrammar;
+import org.apache.xerces.impl.dtd.XMLEntityDecl;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * A cache of the DTDs parsed by Xerces, shared by all Mojos loaded by the same
+ * <code>ClassLoader</code>. Without it, the DocBook DTD and all of its modules
+ * are read and compiled again for every single document, which takes most of the time spent
+ * parsing a small document.
+ *
+ * <p>
+ * Only DTDs referred to by a remote system identifier, such as the one of the DocBook DTD, are
+ * kept. These are normally resolved through the catalogs, which is why there is a pool for every
+ * set of catalogs. DTDs found on the local file system are parsed again every time, so that
+ * changing them is picked up, and so that they remain inputs of the documents using them.
+ * </p>
+ */
+public class DTDGrammarCache {
+  private static final String GRAMMAR_POOL = "http://apache.org/xml/properties/internal/grammar-pool";
+
+  private static final String ENTITY_MANAGER = "http://apache.org/xml/properties/internal/entity-manager";
+
+  /**
+   * The instances shared by all Mojos. (Maps keys to instances of {@link DTDGrammarCache}.)
+   */
+  private static final Map SHARED = new HashMap();
+
+  /**
+   * The grammars cached.
+   */
+  private final XMLGrammarPoolImpl pool = new XMLGrammarPoolImpl();
+
+  private int hits;
+  private int misses;
+
+  /**
+   * Returns the cache shared by all Mojos resolving DTDs the same way.
+   *
+   * @param key The key identifying the catalogs used to resolve DTDs.
+   * @return The shared cache.
+   */
+  public static DTDGrammarCache getSharedInstance(String key) {
+    synchronized (SHARED) {
+      DTDGrammarCache cache = (DTDGrammarCache) SHARED.get(key);
+      if (cache == null) {
+        cache = new DTDGrammarCache();
+        SHARED.put(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * Returns the number of times a DTD has been found in the cache.
+   *
+   * @return The number of hits.
+   */
+  public synchronized int getHits() {
+    return hits;
+  }
+
+  /**
+   * Returns the number of times a DTD that could have been cached had to be parsed.
+   *
+   * @return The number of misses.
+   */
+  public synchronized int getMisses() {
+    return misses;
+  }
+
+  /**
+   * Tells if the grammar with the given description may be cached.
+   *
+   * @param description The description of a grammar.
+   * @return <code>true</code> for DTDs with a remote system identifier.
+   */
+  private static boolean isCacheable(XMLGrammarDescription description) {
+    if (!XMLGrammarDescription.XML_DTD.equals(description.getGrammarType())) {
+      return false;
+    }
+    final String systemId = description.getExpandedSystemId();
+    return systemId != null && !systemId.startsWith("file:");
+  }
+
+  /**
+   * Makes a parser use this cache, by setting its <code>XMLGrammarPool</code>.
+   *
+   * @param reader The parser. (A Xerces parser.)
+   * @throws SAXException If the parser does not support grammar pools.
+   */
+  public void install(XMLReader reader) throws SAXException {
+    final XMLEntityManager entityManager = (XMLEntityManager) reader.getProperty(ENTITY_MANAGER);
+    reader.setProperty(GRAMMAR_POOL, new ReaderPool(entityManager));
+  }
+
+  private void store(Grammar[] grammars) {
+    for (int i = 0; i < grammars.length; i++) {
+      if (isCacheable(grammars[i].getGrammarDescription())) {
+        pool.putGrammar(grammars[i]);
+      }
+    }
+  }
+
+  private Grammar retrieve(XMLGrammarDescription description) {
+    if (!isCacheable(description)) {
+      return null;
+    }
+    final Grammar grammar = pool.retrieveGrammar(description);
+    synchronized (this) {
+      if (grammar == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+    }
+    return grammar;
+  }
+
+  /**
+   * The pool of a single parser. The general entities of a DTD are declared by the parser while
+   * reading it, so a DTD found in the cache has them declared again before being handed out.
+   * Documents declaring an internal subset add their own declarations to the grammar of the DTD,
+   * which is why their DTD is neither taken from the cache nor stored in it.
+   */
+  private class ReaderPool implements XMLGrammarPool {
+    private final XMLEntityManager entityManager;
+
+    /**
+     * Tells if the document being parsed has an internal subset.
+     */
+    private boolean internalSubset;
+
+    ReaderPool(XMLEntityManager entityManager) {
+      this.entityManager = entityManager;
+    }
+
+    public Grammar retrieveGrammar(XMLGrammarDescription description) {
+      // the grammar is looked up once the external identifier of the doctype has been read
+      try {
+        internalSubset = entityManager.getEntityScanner().peekChar() == '[';
+      } catch (IOException ioe) {
+        internalSubset = true;
+      }
+      if (internalSubset) {
+        return null;
+      }
+      final Grammar grammar = retrieve(description);
+      if (grammar instanceof DTDGrammar) {
+        final XMLEntityDecl entity = new XMLEntityDecl();
+        for (int i = 0; ((DTDGrammar) grammar).getEntityDecl(i, entity); i++) {
+          if (!entity.isPE && !entityManager.isDeclaredEntity(entity.name)) {
+            declare(entity);
+          }
+        }
+      }
+      return grammar;
+    }
+
+    private void declare(XMLEntityDecl entity) {
+      if (entity.value != null) {
+        entityManager.addInternalEntity(entity.name, entity.value);
+      } else if (entity.notation != null) {
+        entityManager.addUnparsedEntity(entity.name, entity.publicId, entity.systemId, entity.baseSystemId,
+            entity.notation);
+      } else {
+        try {
+          entityManager.addExternalEntity(entity.name, entity.publicId, entity.systemId, entity.baseSystemId);
+        } catch (IOException ioe) {
+          throw new XNIException(ioe);
+        }
+      }
+    }
+
+    public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+      // grammars are only handed out when asked for
+      return new Grammar[0];
+    }
+
+    public void cacheGrammars(String grammarType, Grammar[] grammars) {
+      if (!internalSubset) {
+        store(grammars);
+      }
+    }
+
+    public void lockPool() {
+      pool.lockPool();
+    }
+
+    public void unlockPool() {
+      pool.unlockPool();
+    }
+
+    public void clear() {
+      pool.clear();
+    }
+  }
+}
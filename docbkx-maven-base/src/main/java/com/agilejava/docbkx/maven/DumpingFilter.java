@@ -0,0 +1,363 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.io.IOUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+/**
+ * An <code>XMLFilter</code> writing a copy of the document passing through to a file, as a
+ * side effect of transforming it. The events are handed over in chunks to a background thread
+ * serializing them, so that the transformation does not wait for the file to be written, and
+ * never more than a few chunks are held in memory.
+ *
+ * <p>
+ * An instance filters a single document. Whatever happens to the transformation, {@link #close()}
+ * must be called in the end, and {@link #await()} tells whether the file has been written.
+ * </p>
+ */
+public class DumpingFilter extends XMLFilterImpl implements LexicalHandler {
+  private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * The number of events handed over at once.
+   */
+  private static final int CHUNK_SIZE = 1024;
+
+  /**
+   * Marks the end of the events.
+   */
+  private static final Object END = new Object();
+
+  /**
+   * The file receiving the copy of the document.
+   */
+  private final File file;
+
+  /**
+   * The chunks of events waiting to be written. (Instances of {@link SAXEventBuffer}.)
+   */
+  private final BlockingQueue chunks = new ArrayBlockingQueue(16);
+
+  /**
+   * The events not handed over yet.
+   */
+  private SAXEventBuffer chunk = new SAXEventBuffer();
+
+  /**
+   * The <code>LexicalHandler</code> downstream.
+   */
+  private LexicalHandler lexicalHandler;
+
+  private Thread writer;
+  private boolean closed;
+  private boolean complete;
+  private boolean inDTD;
+  private volatile Exception failure;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param parent The <code>XMLReader</code> producing the document.
+   * @param file   The file receiving the copy of the document.
+   */
+  public DumpingFilter(XMLReader parent, File file) {
+    super(parent);
+    this.file = file;
+    // parsing replaces the resolver of the parent with this filter
+    setEntityResolver(parent.getEntityResolver());
+    setErrorHandler(parent.getErrorHandler());
+  }
+
+  /**
+   * Returns the file receiving the copy of the document.
+   *
+   * @return The dump file.
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Hands over the remaining events, if any, and tells the background thread the document is
+   * over. A document that has not been parsed completely is not written.
+   */
+  public synchronized void close() {
+    if (!closed && writer != null) {
+      closed = true;
+      hand(chunk);
+      hand(END);
+    }
+  }
+
+  /**
+   * Waits for the background thread to write the copy of the document.
+   *
+   * @throws IOException If the copy could not be written.
+   */
+  public void await() throws IOException {
+    final Thread thread;
+    synchronized (this) {
+      thread = writer;
+    }
+    if (thread == null) {
+      return;
+    }
+    try {
+      thread.join();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while writing " + file);
+    }
+    if (failure != null) {
+      IOException ioe = new IOException("Failed to write " + file + ": " + failure.getMessage());
+      ioe.initCause(failure);
+      throw ioe;
+    }
+  }
+
+  private void hand(Object item) {
+    try {
+      chunks.put(item);
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      failure = ie;
+    }
+  }
+
+  private void flush() {
+    if (chunk.size() >= CHUNK_SIZE) {
+      hand(chunk);
+      chunk = new SAXEventBuffer();
+    }
+  }
+
+  // JavaDoc inherited
+  public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (LEXICAL_HANDLER.equals(name)) {
+      super.setProperty(name, this);
+      lexicalHandler = (LexicalHandler) value;
+    } else {
+      super.setProperty(name, value);
+    }
+  }
+
+  // JavaDoc inherited
+  public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+    if (LEXICAL_HANDLER.equals(name)) {
+      return lexicalHandler;
+    }
+    return super.getProperty(name);
+  }
+
+  // JavaDoc inherited
+  public void startDocument() throws SAXException {
+    synchronized (this) {
+      writer = new Thread(new Writer(), "docbkx-dump-" + file.getName());
+      writer.setDaemon(true);
+      writer.start();
+    }
+    chunk.startDocument();
+    super.startDocument();
+  }
+
+  // JavaDoc inherited
+  public void endDocument() throws SAXException {
+    chunk.endDocument();
+    super.endDocument();
+  }
+
+  // JavaDoc inherited
+  public void parse(InputSource input) throws SAXException, IOException {
+    super.parse(input);
+    // some parsers report the end of the document even after a fatal error
+    synchronized (this) {
+      complete = true;
+    }
+    close();
+  }
+
+  // JavaDoc inherited
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    chunk.startPrefixMapping(prefix, uri);
+    super.startPrefixMapping(prefix, uri);
+  }
+
+  // JavaDoc inherited
+  public void endPrefixMapping(String prefix) throws SAXException {
+    chunk.endPrefixMapping(prefix);
+    super.endPrefixMapping(prefix);
+  }
+
+  // JavaDoc inherited
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    chunk.startElement(uri, localName, qName, atts);
+    flush();
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  // JavaDoc inherited
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    chunk.endElement(uri, localName, qName);
+    flush();
+    super.endElement(uri, localName, qName);
+  }
+
+  // JavaDoc inherited
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    chunk.characters(ch, start, length);
+    flush();
+    super.characters(ch, start, length);
+  }
+
+  // JavaDoc inherited
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    chunk.ignorableWhitespace(ch, start, length);
+    flush();
+    super.ignorableWhitespace(ch, start, length);
+  }
+
+  // JavaDoc inherited
+  public void processingInstruction(String target, String data) throws SAXException {
+    chunk.processingInstruction(target, data);
+    flush();
+    super.processingInstruction(target, data);
+  }
+
+  // JavaDoc inherited
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    if (!inDTD) {
+      chunk.comment(ch, start, length);
+      flush();
+    }
+    if (lexicalHandler != null) {
+      lexicalHandler.comment(ch, start, length);
+    }
+  }
+
+  // JavaDoc inherited
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {
+    inDTD = true;
+    if (lexicalHandler != null) {
+      lexicalHandler.startDTD(name, publicId, systemId);
+    }
+  }
+
+  // JavaDoc inherited
+  public void endDTD() throws SAXException {
+    inDTD = false;
+    if (lexicalHandler != null) {
+      lexicalHandler.endDTD();
+    }
+  }
+
+  // JavaDoc inherited
+  public void startEntity(String name) throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.startEntity(name);
+    }
+  }
+
+  // JavaDoc inherited
+  public void endEntity(String name) throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.endEntity(name);
+    }
+  }
+
+  // JavaDoc inherited
+  public void startCDATA() throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.startCDATA();
+    }
+  }
+
+  // JavaDoc inherited
+  public void endCDATA() throws SAXException {
+    if (lexicalHandler != null) {
+      lexicalHandler.endCDATA();
+    }
+  }
+
+  /**
+   * Serializes the chunks of events, until the end of the document.
+   */
+  private class Writer implements Runnable {
+    public void run() {
+      OutputStream out = null;
+      TransformerHandler handler = null;
+      try {
+        file.getParentFile().mkdirs();
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        handler = ((SAXTransformerFactory) new TransformerFactoryImpl()).newTransformerHandler();
+        handler.setResult(new StreamResult(out));
+      } catch (IOException ioe) {
+        failure = ioe;
+      } catch (TransformerConfigurationException tce) {
+        failure = tce;
+      }
+
+      try {
+        // keep on taking chunks even after a failure, not to block the transformation
+        for (Object item = chunks.take(); item != END; item = chunks.take()) {
+          if (failure == null) {
+            try {
+              ((SAXEventBuffer) item).replayEvents(handler, handler);
+            } catch (SAXException saxe) {
+              failure = saxe;
+            }
+          }
+        }
+      } catch (InterruptedException ie) {
+        failure = ie;
+      } finally {
+        IOUtils.closeQuietly(out);
+      }
+
+      synchronized (DumpingFilter.this) {
+        if (!complete || failure != null) {
+          file.delete();
+        }
+      }
+    }
+  }
+}
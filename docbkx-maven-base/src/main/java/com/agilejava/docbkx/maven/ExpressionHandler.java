@@ -86,11 +86,10 @@ public class ExpressionHandler implements ProcessingInstructionHandler {
    * @param handler DOCUMENT ME!
    */
   public void handle(String data, ContentHandler handler) {
-    ExpressionEvaluator evaluator = new ExpressionEvaluatorImpl();
     Object value;
 
     try {
-      value = evaluator.evaluate(data, Object.class, resolver, mapper);
+      value = evaluate(data);
 
       if (value != null) {
         char[] result = value.toString().toCharArray();
@@ -105,6 +104,21 @@ public class ExpressionHandler implements ProcessingInstructionHandler {
     }
   }
 
+  /**
+   * Evaluates an expression, the way it would be when found in a document.
+   *
+   * @param data The expression.
+   *
+   * @return The value of the expression, possibly <code>null</code>.
+   *
+   * @throws ELException If the expression cannot be evaluated.
+   */
+  public Object evaluate(String data) throws ELException {
+    ExpressionEvaluator evaluator = new ExpressionEvaluatorImpl();
+
+    return evaluator.evaluate(data, Object.class, resolver, mapper);
+  }
+
   // JavaDoc inherited
   /**
    * DOCUMENT ME!
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The SHA-256 fingerprints of the files read while rendering documents, kept across builds.
+ * The fingerprint of a file is only computed again once its modification time or size
+ * changed, so that checking a large number of unchanged inputs remains cheap, while files
+ * touched without being modified (as with a fresh checkout) are still recognized.
+ *
+ * <p>
+ * Instances may be shared by several threads.
+ * </p>
+ */
+public class FingerprintStore {
+
+  /**
+   * Files at least this large are read through a memory-mapped buffer.
+   */
+  private static final long MAPPING_THRESHOLD = 1024 * 1024;
+
+  /**
+   * The largest region of a file mapped at once.
+   */
+  private static final long MAPPING_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The file holding the fingerprints.
+   */
+  private final File file;
+
+  /**
+   * Maps absolute paths to the modification time, size and fingerprint of the files.
+   */
+  private final Properties fingerprints = new Properties();
+
+  /**
+   * Whether fingerprints have been added since the store has been loaded.
+   */
+  private boolean modified;
+
+  /**
+   * Constructs a new instance, loading the fingerprints stored by an earlier build, if any.
+   *
+   * @param file The file holding the fingerprints.
+   */
+  public FingerprintStore(File file) {
+    this.file = file;
+    if (file.isFile()) {
+      InputStream in = null;
+      try {
+        in = new FileInputStream(file);
+        fingerprints.load(in);
+      } catch (IOException ioe) {
+        // Start all over again.
+        fingerprints.clear();
+      } finally {
+        IOUtils.closeQuietly(in);
+      }
+    }
+  }
+
+  /**
+   * Returns the fingerprint of an existing file.
+   *
+   * @param file The file.
+   * @return The SHA-256 digest of its content, in hexadecimal notation.
+   * @throws IOException If the file cannot be read.
+   */
+  public String getFingerprint(File file) throws IOException {
+    final String path = file.getAbsolutePath();
+    final String stamp = file.lastModified() + ":" + file.length() + ":";
+    synchronized (this) {
+      String entry = fingerprints.getProperty(path);
+      if (entry != null && entry.startsWith(stamp)) {
+        return entry.substring(stamp.length());
+      }
+    }
+
+    // computed outside of the lock, as this may take a while
+    final String fingerprint = computeFingerprint(file);
+    synchronized (this) {
+      fingerprints.setProperty(path, stamp + fingerprint);
+      modified = true;
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Saves the fingerprints computed so far, for the next build.
+   *
+   * @throws IOException If the fingerprints cannot be written.
+   */
+  public synchronized void store() throws IOException {
+    if (!modified) {
+      return;
+    }
+    file.getParentFile().mkdirs();
+    OutputStream out = null;
+    try {
+      out = new FileOutputStream(file);
+      fingerprints.store(out, "docbkx fingerprints");
+      modified = false;
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+
+  /**
+   * Computes the SHA-256 digest of the content of a file.
+   *
+   * @param file The file.
+   * @return The digest, in hexadecimal notation.
+   * @throws IOException If the file cannot be read.
+   */
+  public static String computeFingerprint(File file) throws IOException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new IllegalStateException("SHA-256 is not supported.");
+    }
+
+    FileInputStream in = null;
+    try {
+      in = new FileInputStream(file);
+      final FileChannel channel = in.getChannel();
+      final long size = channel.size();
+      if (size >= MAPPING_THRESHOLD) {
+        for (long position = 0; position < size; position += MAPPING_SIZE) {
+          MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+              Math.min(MAPPING_SIZE, size - position));
+          digest.update(buffer);
+        }
+      } else {
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          digest.update(buffer, 0, read);
+        }
+      }
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+    return BuildManifest.toHex(digest.digest());
+  }
+}
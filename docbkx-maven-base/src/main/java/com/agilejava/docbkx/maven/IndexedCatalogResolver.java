@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.sax.SAXSource;
+
+import org.apache.xml.resolver.CatalogManager;
+import org.apache.xml.resolver.tools.CatalogResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+/**
+ * A resolver looking up entities and URIs in a {@link CatalogIndex}, behaving like the
+ * <code>CatalogResolver</code> of the Apache XML Commons Resolver, without reading the catalogs.
+ * Whenever the index is incomplete, or when asked about identifiers it does not cover, the
+ * <code>CatalogResolver</code> is created after all, and takes over.
+ */
+public class IndexedCatalogResolver implements EntityResolver, URIResolver {
+  private static final String URN_PUBLICID = "urn:publicid:";
+
+  private final CatalogIndex index;
+  private final CatalogManager catalogManager;
+  private CatalogResolver fallback;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param index          The index of the catalogs.
+   * @param catalogManager The <code>CatalogManager</code> reading the catalogs, if needed.
+   */
+  public IndexedCatalogResolver(CatalogIndex index, CatalogManager catalogManager) {
+    this.index = index;
+    this.catalogManager = catalogManager;
+  }
+
+  private CatalogResolver getFallback() {
+    if (fallback == null) {
+      fallback = new CatalogResolver(catalogManager);
+    }
+    return fallback;
+  }
+
+  private boolean isIndexed(String id) {
+    return index.isComplete() && (id == null || !id.startsWith(URN_PUBLICID));
+  }
+
+  /**
+   * Returns the URL an entity resolves to.
+   *
+   * @param publicId The public identifier of the entity, possibly <code>null</code>.
+   * @param systemId The system identifier of the entity, possibly <code>null</code>.
+   * @return The URL, or <code>null</code> if the catalogs do not cover the entity.
+   */
+  public String getResolvedEntity(String publicId, String systemId) {
+    if (!isIndexed(publicId) || !isIndexed(systemId)) {
+      return getFallback().getResolvedEntity(publicId, systemId);
+    }
+    String resolved = null;
+    if (systemId != null) {
+      resolved = index.resolveSystem(systemId);
+    }
+    if (resolved == null && publicId != null) {
+      resolved = index.resolvePublic(publicId, systemId);
+    }
+    return resolved;
+  }
+
+  // JavaDoc inherited
+  public InputSource resolveEntity(String publicId, String systemId) {
+    final String resolved = getResolvedEntity(publicId, systemId);
+    if (resolved == null) {
+      return null;
+    }
+    try {
+      final InputSource input = new InputSource(resolved);
+      input.setPublicId(publicId);
+      input.setByteStream(new URL(resolved).openStream());
+      return input;
+    } catch (IOException ioe) {
+      // leave it to the parser
+      return null;
+    }
+  }
+
+  // JavaDoc inherited
+  public Source resolve(String href, String base) throws TransformerException {
+    if (!isIndexed(href)) {
+      return getFallback().resolve(href, base);
+    }
+    String result = index.resolveURI(href);
+    if (result == null) {
+      try {
+        if (base == null) {
+          result = new URL(href).toString();
+        } else {
+          final URL baseURL = new URL(base);
+          result = (href.length() == 0) ? baseURL.toString() : new URL(baseURL, href).toString();
+        }
+      } catch (MalformedURLException mue) {
+        return getFallback().resolve(href, base);
+      }
+    }
+    return new SAXSource(new InputSource(result));
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * An <code>XMLFilter</code> keeping track of the local files a document is made of: the external
+ * entities it resolves, the documents it includes (as reported by the <code>xml:base</code>
+ * attributes added when resolving XIncludes) and the files referenced by <code>fileref</code>
+ * attributes, such as images. It also records the <code>&lt;?eval?&gt;</code> expressions
+ * found in the document, the value of which is part of the output as well.
+ *
+ * <p>
+ * The filter is meant to sit right on top of the <code>XMLReader</code>, below the
+ * {@link PreprocessingFilter} handling the <code>&lt;?eval?&gt;</code> instructions. An instance
+ * should only be used by one thread at a time, and must be {@link #reset(File) reset} before
+ * parsing a new document.
+ * </p>
+ */
+public class InputTrackingFilter extends XMLFilterImpl {
+  private static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+
+  private static final String EVAL_TARGET = "eval";
+
+  /**
+   * The files read or referenced so far. (Instances of <code>File</code>.)
+   */
+  private final Set inputs = new LinkedHashSet();
+
+  /**
+   * The <code>&lt;?eval?&gt;</code> expressions found so far. (Instances of <code>String</code>.)
+   */
+  private final Set expressions = new LinkedHashSet();
+
+  /**
+   * The base URIs of the elements currently open. (Instances of <code>URL</code>.)
+   */
+  private final List bases = new ArrayList();
+
+  /**
+   * The base URI of the document itself.
+   */
+  private URL documentBase;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param parent The <code>XMLReader</code> actually parsing the document.
+   */
+  public InputTrackingFilter(XMLReader parent) {
+    super(parent);
+  }
+
+  /**
+   * Forgets everything recorded so far, in order to start tracking a new document.
+   *
+   * @param sourceFile The source document, against which relative references are resolved.
+   */
+  public void reset(File sourceFile) {
+    inputs.clear();
+    expressions.clear();
+    bases.clear();
+    try {
+      documentBase = sourceFile.toURL();
+    } catch (MalformedURLException mue) {
+      documentBase = null;
+    }
+    record(sourceFile);
+  }
+
+  /**
+   * Records the files and expressions of a document parsed earlier on, as if it had been parsed
+   * again.
+   *
+   * @param files          The files the document has been made of.
+   * @param evalExpressions The <code>&lt;?eval?&gt;</code> expressions found in the document.
+   */
+  public void record(File[] files, String[] evalExpressions) {
+    for (int i = 0; i < files.length; i++) {
+      record(files[i]);
+    }
+    for (int i = 0; i < evalExpressions.length; i++) {
+      expressions.add(evalExpressions[i]);
+    }
+  }
+
+  /**
+   * Returns the local files the last document parsed has been made of, including files that
+   * have been looked for but did not exist.
+   *
+   * @return The files read or referenced while parsing.
+   */
+  public File[] getInputs() {
+    return (File[]) inputs.toArray(new File[inputs.size()]);
+  }
+
+  /**
+   * Returns the <code>&lt;?eval?&gt;</code> expressions found in the last document parsed.
+   *
+   * @return The expressions, in document order.
+   */
+  public String[] getExpressions() {
+    return (String[]) expressions.toArray(new String[expressions.size()]);
+  }
+
+  // JavaDoc inherited
+  public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+    if (systemId != null) {
+      record(resolve(documentBase, systemId));
+    }
+    return super.resolveEntity(publicId, systemId);
+  }
+
+  // JavaDoc inherited
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    URL base = bases.isEmpty() ? documentBase : (URL) bases.get(bases.size() - 1);
+    String xmlBase = atts.getValue(XML_NAMESPACE, "base");
+    if (xmlBase == null) {
+      xmlBase = atts.getValue("xml:base");
+    }
+    if (xmlBase != null) {
+      base = resolve(base, xmlBase);
+      record(base);
+    }
+    bases.add(base);
+
+    String fileref = atts.getValue("fileref");
+    if (fileref != null) {
+      record(resolve(base, fileref));
+    }
+
+    super.startElement(uri, localName, qName, atts);
+  }
+
+  // JavaDoc inherited
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (!bases.isEmpty()) {
+      bases.remove(bases.size() - 1);
+    }
+    super.endElement(uri, localName, qName);
+  }
+
+  // JavaDoc inherited
+  public void processingInstruction(String target, String data) throws SAXException {
+    if (EVAL_TARGET.equals(target)) {
+      expressions.add(data);
+    }
+    super.processingInstruction(target, data);
+  }
+
+  private void record(URL url) {
+    File file = toFile(url);
+    if (file != null) {
+      record(file);
+    }
+  }
+
+  private void record(File file) {
+    inputs.add(file.getAbsoluteFile());
+  }
+
+  /**
+   * Converts a <code>file:</code> URL into a <code>File</code>.
+   *
+   * @param url The URL to convert.
+   * @return The file, or <code>null</code> if the URL does not point to a local file.
+   */
+  static File toFile(URL url) {
+    if (url == null || !"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(new URI(url.toExternalForm()).getPath());
+    } catch (URISyntaxException use) {
+      // Not escaped properly, as with file.toURL().
+      return new File(url.getPath());
+    }
+  }
+
+  private static URL resolve(URL base, String reference) {
+    try {
+      return (base == null) ? new URL(reference) : new URL(base, reference);
+    } catch (MalformedURLException mue) {
+      return null;
+    }
+  }
+}
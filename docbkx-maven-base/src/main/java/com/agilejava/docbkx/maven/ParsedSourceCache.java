@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A size-bounded cache of parsed and preprocessed source documents, shared by all Mojos loaded
+ * by the same <code>ClassLoader</code>. When a build renders the same documents to several
+ * output formats, each execution of the plugin would otherwise parse the documents, resolve
+ * their XIncludes and evaluate their <code>&lt;?eval?&gt;</code> instructions all over again.
+ *
+ * <p>
+ * Every entry holds the {@link SAXEventBuffer} of a document, together with a
+ * {@link BuildManifest} of the files it has been parsed from; checking whether these files
+ * changed is left to the caller. Entries are softly referenced, so that they are dropped rather
+ * than running out of memory, and the least recently used entry is evicted when the cache is
+ * full.
+ * </p>
+ */
+public class ParsedSourceCache {
+
+  /**
+   * The instance shared by all Mojos.
+   */
+  private static final ParsedSourceCache SHARED = new ParsedSourceCache(0);
+
+  /**
+   * The cached entries, in access order. (Maps keys to soft references to {@link Entry}.)
+   */
+  private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+  /**
+   * The maximum number of documents kept in memory.
+   */
+  private int capacity;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param capacity The maximum number of documents kept in memory.
+   */
+  public ParsedSourceCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the cache shared by all Mojos.
+   *
+   * @return The shared cache.
+   */
+  public static ParsedSourceCache getSharedInstance() {
+    return SHARED;
+  }
+
+  /**
+   * Returns the document stored under the given key.
+   *
+   * @param key The key identifying the document and the way it has been parsed.
+   * @return The entry, or <code>null</code> if there is none.
+   */
+  public synchronized Entry get(String key) {
+    SoftReference reference = (SoftReference) entries.get(key);
+    Entry entry = (reference == null) ? null : (Entry) reference.get();
+    if (entry == null) {
+      entries.remove(key);
+    }
+    return entry;
+  }
+
+  /**
+   * Stores a parsed document, evicting the least recently used ones if the cache is full.
+   *
+   * @param key   The key identifying the document and the way it has been parsed.
+   * @param entry The parsed document.
+   */
+  public synchronized void put(String key, Entry entry) {
+    if (capacity < 1) {
+      return;
+    }
+    entries.put(key, new SoftReference(entry));
+    evict();
+  }
+
+  /**
+   * Changes the maximum number of documents kept in memory. A value lower than one empties the
+   * cache and disables it.
+   *
+   * @param capacity The new capacity.
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    evict();
+  }
+
+  /**
+   * Raises the maximum number of documents kept in memory to at least the given capacity, leaving
+   * larger capacities alone, so that executions sharing the cache do not shrink it for each other.
+   *
+   * @param capacity The capacity needed.
+   */
+  public synchronized void ensureCapacity(int capacity) {
+    this.capacity = Math.max(this.capacity, capacity);
+  }
+
+  /**
+   * Tells if documents are kept at all.
+   *
+   * @return <code>true</code> if the capacity is at least one.
+   */
+  public synchronized boolean isEnabled() {
+    return capacity > 0;
+  }
+
+  private void evict() {
+    Iterator iterator = entries.keySet().iterator();
+    while (entries.size() > Math.max(capacity, 0)) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * A parsed document, and what it has been parsed from.
+   */
+  public static class Entry {
+    private final SAXEventBuffer buffer;
+    private final BuildManifest manifest;
+    private final File[] inputs;
+    private final String[] expressions;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param buffer      The events of the document.
+     * @param manifest    The manifest of the files the document has been parsed from, and of the
+     *                    expressions it contained.
+     * @param inputs      The files the document has been parsed from.
+     * @param expressions The <code>&lt;?eval?&gt;</code> expressions the document contained.
+     */
+    public Entry(SAXEventBuffer buffer, BuildManifest manifest, File[] inputs, String[] expressions) {
+      this.buffer = buffer;
+      this.manifest = manifest;
+      this.inputs = inputs;
+      this.expressions = expressions;
+    }
+
+    public SAXEventBuffer getBuffer() {
+      return buffer;
+    }
+
+    public BuildManifest getManifest() {
+      return manifest;
+    }
+
+    public File[] getInputs() {
+      return inputs;
+    }
+
+    public String[] getExpressions() {
+      return expressions;
+    }
+  }
+}
@@ -0,0 +1,452 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * The SAX events of a parsed document, kept in memory in order to feed them to several
+ * <code>Transformer</code>s without parsing the document again. The events are recorded with
+ * namespace processing turned on, and the <code>namespace-prefixes</code> feature turned off.
+ *
+ * <p>
+ * Once recorded, a buffer can be replayed by several threads at the same time.
+ * </p>
+ */
+public class SAXEventBuffer extends DefaultHandler implements LexicalHandler {
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+  private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * The events recorded. (Instances of {@link Event}.)
+   */
+  private final List events = new ArrayList();
+
+  /**
+   * The system identifier of the document.
+   */
+  private String systemId;
+
+  /**
+   * Tells if the events reported are part of the DTD.
+   */
+  private boolean inDTD;
+
+  /**
+   * Parses a document, recording its events.
+   *
+   * @param reader The <code>XMLReader</code> parsing the document.
+   * @param input  The document.
+   * @throws SAXException If the document cannot be parsed.
+   * @throws IOException  If the document cannot be read.
+   */
+  public void record(XMLReader reader, InputSource input) throws SAXException, IOException {
+    systemId = input.getSystemId();
+    reader.setFeature(NAMESPACES, true);
+    reader.setFeature(NAMESPACE_PREFIXES, false);
+    reader.setContentHandler(this);
+    reader.setDTDHandler(this);
+    try {
+      reader.setProperty(LEXICAL_HANDLER, this);
+    } catch (SAXNotRecognizedException snre) {
+      // Comments will not be recorded.
+    }
+    reader.parse(input);
+  }
+
+  /**
+   * Returns a <code>Source</code> replaying the events recorded.
+   *
+   * @return A new <code>Source</code>.
+   */
+  public Source createSource() {
+    return new SAXSource(new Replayer(), new InputSource(systemId));
+  }
+
+  /**
+   * Returns the number of events recorded.
+   *
+   * @return The size of the buffer.
+   */
+  public int size() {
+    return events.size();
+  }
+
+  /**
+   * Sends the events recorded to the given handlers.
+   *
+   * @param handler        The <code>ContentHandler</code> receiving the events.
+   * @param lexicalHandler The <code>LexicalHandler</code> receiving the comments, or <code>null</code>.
+   * @throws SAXException If one of the handlers fails.
+   */
+  public void replay(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+    replay(handler, null, lexicalHandler);
+  }
+
+  /**
+   * Sends the events recorded to the given handlers, including the notations and unparsed
+   * entities declared by the DTD.
+   *
+   * @param handler        The <code>ContentHandler</code> receiving the events.
+   * @param dtdHandler     The <code>DTDHandler</code> receiving the declarations, or <code>null</code>.
+   * @param lexicalHandler The <code>LexicalHandler</code> receiving the comments, or <code>null</code>.
+   * @throws SAXException If one of the handlers fails.
+   */
+  public void replay(ContentHandler handler, DTDHandler dtdHandler, LexicalHandler lexicalHandler)
+      throws SAXException {
+    LocatorImpl locator = new LocatorImpl();
+    locator.setSystemId(systemId);
+    handler.setDocumentLocator(locator);
+    replayEvents(handler, dtdHandler, lexicalHandler);
+  }
+
+  /**
+   * Sends the events recorded to the given handlers, without announcing a locator first. Used to
+   * pass on a part of a document.
+   *
+   * @param handler        The <code>ContentHandler</code> receiving the events.
+   * @param lexicalHandler The <code>LexicalHandler</code> receiving the comments, or <code>null</code>.
+   * @throws SAXException If one of the handlers fails.
+   */
+  public void replayEvents(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException {
+    replayEvents(handler, null, lexicalHandler);
+  }
+
+  private void replayEvents(ContentHandler handler, DTDHandler dtdHandler, LexicalHandler lexicalHandler)
+      throws SAXException {
+    for (int i = 0; i < events.size(); i++) {
+      ((Event) events.get(i)).replay(handler, dtdHandler, lexicalHandler);
+    }
+  }
+
+  // JavaDoc inherited
+  public void setDocumentLocator(Locator locator) {
+    // A fixed locator is used when replaying.
+  }
+
+  // JavaDoc inherited
+  public void startDocument() {
+    events.add(new Event(Event.START_DOCUMENT));
+  }
+
+  // JavaDoc inherited
+  public void endDocument() {
+    events.add(new Event(Event.END_DOCUMENT));
+  }
+
+  // JavaDoc inherited
+  public void startPrefixMapping(String prefix, String uri) {
+    events.add(new Event(Event.START_PREFIX_MAPPING, prefix, uri));
+  }
+
+  // JavaDoc inherited
+  public void endPrefixMapping(String prefix) {
+    events.add(new Event(Event.END_PREFIX_MAPPING, prefix));
+  }
+
+  // JavaDoc inherited
+  public void startElement(String uri, String localName, String qName, Attributes atts) {
+    Event event = new Event(Event.START_ELEMENT, uri, localName, qName);
+    event.attributes = new AttributesImpl(atts);
+    events.add(event);
+  }
+
+  // JavaDoc inherited
+  public void endElement(String uri, String localName, String qName) {
+    events.add(new Event(Event.END_ELEMENT, uri, localName, qName));
+  }
+
+  // JavaDoc inherited
+  public void characters(char[] ch, int start, int length) {
+    events.add(new Event(Event.CHARACTERS, new String(ch, start, length)));
+  }
+
+  // JavaDoc inherited
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    events.add(new Event(Event.IGNORABLE_WHITESPACE, new String(ch, start, length)));
+  }
+
+  // JavaDoc inherited
+  public void processingInstruction(String target, String data) {
+    events.add(new Event(Event.PROCESSING_INSTRUCTION, target, data));
+  }
+
+  // JavaDoc inherited
+  public void skippedEntity(String name) {
+    events.add(new Event(Event.SKIPPED_ENTITY, name));
+  }
+
+  // JavaDoc inherited
+  public void notationDecl(String name, String publicId, String systemId) {
+    events.add(new Event(Event.NOTATION_DECL, name, publicId, systemId));
+  }
+
+  // JavaDoc inherited
+  public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) {
+    Event event = new Event(Event.UNPARSED_ENTITY_DECL, name, publicId, systemId);
+    event.notationName = notationName;
+    events.add(event);
+  }
+
+  // JavaDoc inherited
+  public void comment(char[] ch, int start, int length) {
+    // comments of the DTD are not part of the document
+    if (!inDTD) {
+      events.add(new Event(Event.COMMENT, new String(ch, start, length)));
+    }
+  }
+
+  // JavaDoc inherited
+  public void startDTD(String name, String publicId, String systemId) {
+    inDTD = true;
+  }
+
+  // JavaDoc inherited
+  public void endDTD() {
+    inDTD = false;
+  }
+
+  // JavaDoc inherited
+  public void startEntity(String name) {
+  }
+
+  // JavaDoc inherited
+  public void endEntity(String name) {
+  }
+
+  // JavaDoc inherited
+  public void startCDATA() {
+  }
+
+  // JavaDoc inherited
+  public void endCDATA() {
+  }
+
+  /**
+   * A single SAX event.
+   */
+  private static class Event {
+    static final int START_DOCUMENT = 0;
+    static final int END_DOCUMENT = 1;
+    static final int START_PREFIX_MAPPING = 2;
+    static final int END_PREFIX_MAPPING = 3;
+    static final int START_ELEMENT = 4;
+    static final int END_ELEMENT = 5;
+    static final int CHARACTERS = 6;
+    static final int IGNORABLE_WHITESPACE = 7;
+    static final int PROCESSING_INSTRUCTION = 8;
+    static final int SKIPPED_ENTITY = 9;
+    static final int COMMENT = 10;
+    static final int NOTATION_DECL = 11;
+    static final int UNPARSED_ENTITY_DECL = 12;
+
+    final int type;
+    final String first;
+    final String second;
+    final String third;
+    Attributes attributes;
+    String notationName;
+
+    Event(int type) {
+      this(type, null, null, null);
+    }
+
+    Event(int type, String first) {
+      this(type, first, null, null);
+    }
+
+    Event(int type, String first, String second) {
+      this(type, first, second, null);
+    }
+
+    Event(int type, String first, String second, String third) {
+      this.type = type;
+      this.first = first;
+      this.second = second;
+      this.third = third;
+    }
+
+    void replay(ContentHandler handler, DTDHandler dtdHandler, LexicalHandler lexicalHandler)
+        throws SAXException {
+      switch (type) {
+      case START_DOCUMENT:
+        handler.startDocument();
+        break;
+
+      case END_DOCUMENT:
+        handler.endDocument();
+        break;
+
+      case START_PREFIX_MAPPING:
+        handler.startPrefixMapping(first, second);
+        break;
+
+      case END_PREFIX_MAPPING:
+        handler.endPrefixMapping(first);
+        break;
+
+      case START_ELEMENT:
+        handler.startElement(first, second, third, attributes);
+        break;
+
+      case END_ELEMENT:
+        handler.endElement(first, second, third);
+        break;
+
+      case CHARACTERS:
+        handler.characters(first.toCharArray(), 0, first.length());
+        break;
+
+      case IGNORABLE_WHITESPACE:
+        handler.ignorableWhitespace(first.toCharArray(), 0, first.length());
+        break;
+
+      case PROCESSING_INSTRUCTION:
+        handler.processingInstruction(first, second);
+        break;
+
+      case SKIPPED_ENTITY:
+        handler.skippedEntity(first);
+        break;
+
+      case NOTATION_DECL:
+        if (dtdHandler != null) {
+          dtdHandler.notationDecl(first, second, third);
+        }
+        break;
+
+      case UNPARSED_ENTITY_DECL:
+        if (dtdHandler != null) {
+          dtdHandler.unparsedEntityDecl(first, second, third, notationName);
+        }
+        break;
+
+      default:
+        if (lexicalHandler != null) {
+          lexicalHandler.comment(first.toCharArray(), 0, first.length());
+        }
+      }
+    }
+  }
+
+  /**
+   * An <code>XMLReader</code> "parsing" the document by replaying the events recorded.
+   */
+  private class Replayer implements XMLReader {
+    private ContentHandler contentHandler;
+    private LexicalHandler lexicalHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+
+    public boolean getFeature(String name) throws SAXNotRecognizedException {
+      if (NAMESPACES.equals(name)) {
+        return true;
+      } else if (NAMESPACE_PREFIXES.equals(name)) {
+        return false;
+      }
+      throw new SAXNotRecognizedException(name);
+    }
+
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException,
+        SAXNotSupportedException {
+      if (getFeature(name) != value) {
+        throw new SAXNotSupportedException(name);
+      }
+    }
+
+    public Object getProperty(String name) throws SAXNotRecognizedException {
+      if (LEXICAL_HANDLER.equals(name)) {
+        return lexicalHandler;
+      }
+      throw new SAXNotRecognizedException(name);
+    }
+
+    public void setProperty(String name, Object value) throws SAXNotRecognizedException {
+      if (LEXICAL_HANDLER.equals(name)) {
+        lexicalHandler = (LexicalHandler) value;
+      } else {
+        throw new SAXNotRecognizedException(name);
+      }
+    }
+
+    public void setEntityResolver(EntityResolver resolver) {
+      this.entityResolver = resolver;
+    }
+
+    public EntityResolver getEntityResolver() {
+      return entityResolver;
+    }
+
+    public void setDTDHandler(DTDHandler handler) {
+      this.dtdHandler = handler;
+    }
+
+    public DTDHandler getDTDHandler() {
+      return dtdHandler;
+    }
+
+    public void setContentHandler(ContentHandler handler) {
+      this.contentHandler = handler;
+    }
+
+    public ContentHandler getContentHandler() {
+      return contentHandler;
+    }
+
+    public void setErrorHandler(ErrorHandler handler) {
+      this.errorHandler = handler;
+    }
+
+    public ErrorHandler getErrorHandler() {
+      return errorHandler;
+    }
+
+    public void parse(InputSource input) throws SAXException {
+      replay(contentHandler, dtdHandler, lexicalHandler);
+    }
+
+    public void parse(String systemId) throws SAXException {
+      replay(contentHandler, dtdHandler, lexicalHandler);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+
+/**
+ * A size-bounded cache of compiled stylesheets, shared by all Mojos loaded by the same
+ * <code>ClassLoader</code>. Compiling the DocBook stylesheets takes several seconds, and
+ * Maven typically runs several executions of the plugin in the same JVM, all of them
+ * compiling the same stylesheets over and over again.
+ *
+ * <p>
+ * Every entry remembers the local files read while compiling the stylesheet, together with
+ * their modification time and size. An entry is discarded as soon as one of these files has
+ * changed, so that editing a customization layer (or one of the stylesheets it imports) is
+ * picked up by the next execution. When the cache is full, the least recently used stylesheet
+ * is evicted.
+ * </p>
+ */
+public class StylesheetCache {
+
+  /**
+   * The instance shared by all Mojos.
+   */
+  private static final StylesheetCache SHARED = new StylesheetCache(4);
+
+  /**
+   * The cached entries, in access order. (Maps keys to instances of {@link Entry}.)
+   */
+  private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+  /**
+   * The maximum number of compiled stylesheets kept in memory.
+   */
+  private int capacity;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param capacity The maximum number of compiled stylesheets kept in memory.
+   */
+  public StylesheetCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the cache shared by all Mojos.
+   *
+   * @return The shared cache.
+   */
+  public static StylesheetCache getSharedInstance() {
+    return SHARED;
+  }
+
+  /**
+   * Returns the compiled stylesheet stored under the given key, provided none of the files it has
+   * been compiled from has changed since.
+   *
+   * @param key The key identifying the stylesheet and the resolvers used to compile it.
+   * @return The compiled stylesheet, or <code>null</code> if there is none, or if it is out of date.
+   */
+  public synchronized Templates get(String key) {
+    Entry entry = (Entry) entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (!entry.isUpToDate()) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.templates;
+  }
+
+  /**
+   * Returns the local files the stylesheet stored under the given key has been compiled from.
+   *
+   * @param key The key identifying the stylesheet and the resolvers used to compile it.
+   * @return The dependencies of the stylesheet, or <code>null</code> if it is not in the cache.
+   */
+  public synchronized File[] getDependencies(String key) {
+    Entry entry = (Entry) entries.get(key);
+    return (entry == null) ? null : entry.dependencies;
+  }
+
+  /**
+   * Stores a compiled stylesheet, evicting the least recently used ones if the cache is full.
+   *
+   * @param key          The key identifying the stylesheet and the resolvers used to compile it.
+   * @param templates    The compiled stylesheet.
+   * @param dependencies The local files read while compiling the stylesheet.
+   */
+  public synchronized void put(String key, Templates templates, File[] dependencies) {
+    if (capacity < 1) {
+      return;
+    }
+    entries.put(key, new Entry(templates, dependencies));
+    evict();
+  }
+
+  /**
+   * Changes the maximum number of compiled stylesheets kept in memory. A value lower than one
+   * empties the cache and disables it.
+   *
+   * @param capacity The new capacity.
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    evict();
+  }
+
+  /**
+   * Returns the number of compiled stylesheets currently held.
+   *
+   * @return The number of entries.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Removes all compiled stylesheets.
+   */
+  public synchronized void clear() {
+    entries.clear();
+  }
+
+  private void evict() {
+    Iterator iterator = entries.keySet().iterator();
+    while (entries.size() > Math.max(capacity, 0)) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * A {@link URIResolver} keeping track of the local files read while compiling a stylesheet,
+   * for instance the files of a customization layer imported by another one.
+   */
+  public static class DependencyRecorder implements URIResolver {
+    private final URIResolver resolver;
+
+    /**
+     * The files resolved so far. (Instances of <code>File</code>.)
+     */
+    private final List dependencies = new ArrayList();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param resolver The <code>URIResolver</code> actually resolving the URIs.
+     */
+    public DependencyRecorder(URIResolver resolver) {
+      this.resolver = resolver;
+    }
+
+    public Source resolve(String href, String base) throws TransformerException {
+      Source source = resolver.resolve(href, base);
+      String systemId = (source == null) ? null : source.getSystemId();
+      try {
+        if (systemId == null) {
+          systemId = (base == null) ? href : new URL(new URL(base), href).toExternalForm();
+        }
+        record(new URL(systemId));
+      } catch (MalformedURLException mue) {
+        // Not a URL, hence nothing we could check later on.
+      }
+      return source;
+    }
+
+    /**
+     * Records the given stylesheet as a dependency, if it is a local file.
+     *
+     * @param url The URL of the stylesheet.
+     */
+    public synchronized void record(URL url) {
+      File file = InputTrackingFilter.toFile(url);
+      if (file != null && !dependencies.contains(file)) {
+        dependencies.add(file);
+      }
+    }
+
+    /**
+     * Returns the local files resolved so far.
+     *
+     * @return The dependencies of the stylesheet.
+     */
+    public synchronized File[] getDependencies() {
+      return (File[]) dependencies.toArray(new File[dependencies.size()]);
+    }
+  }
+
+  /**
+   * A compiled stylesheet, and the state of the files it has been compiled from.
+   */
+  private static class Entry {
+    private final Templates templates;
+    private final File[] dependencies;
+
+    /**
+     * Maps files to the stamps they had when the stylesheet got compiled.
+     */
+    private final Map stamps = new HashMap();
+
+    Entry(Templates templates, File[] dependencies) {
+      this.templates = templates;
+      this.dependencies = dependencies;
+      for (int i = 0; i < dependencies.length; i++) {
+        stamps.put(dependencies[i], stamp(dependencies[i]));
+      }
+    }
+
+    boolean isUpToDate() {
+      for (Iterator iterator = stamps.entrySet().iterator(); iterator.hasNext();) {
+        Map.Entry stamp = (Map.Entry) iterator.next();
+        if (!stamp.getValue().equals(stamp((File) stamp.getKey()))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static String stamp(File file) {
+      return file.lastModified() + ":" + file.length();
+    }
+  }
+}
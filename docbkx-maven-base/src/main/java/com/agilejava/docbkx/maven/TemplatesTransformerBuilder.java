@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+/**
+ * A {@link TransformerBuilder} compiling the stylesheet only once into {@link Templates}, and
+ * handing out a new {@link Transformer} on every call to {@link #build()}. Since no
+ * <code>Transformer</code> is ever shared, parameters set for one document do not leak into the
+ * next one, and different threads may render documents at the same time. Note that this class
+ * is thread-safe.
+ */
+public abstract class TemplatesTransformerBuilder implements TransformerBuilder {
+  /**
+   * The compiled stylesheet, created on first use.
+   */
+  private Templates templates;
+
+  /**
+   * Builds a new {@link Transformer} from the compiled stylesheet, and prepares it by calling
+   * {@link #prepare(Transformer)}.
+   *
+   * @return A new <code>Transformer</code>.
+   *
+   * @throws TransformerBuilderException If the stylesheet cannot be compiled or the
+   *         <code>Transformer</code> cannot be created.
+   */
+  public Transformer build() throws TransformerBuilderException {
+    final Templates compiled = getTemplates();
+
+    try {
+      final Transformer transformer = compiled.newTransformer();
+      prepare(transformer);
+
+      return transformer;
+    } catch (TransformerConfigurationException tce) {
+      throw new TransformerBuilderException("Failed to create Transformer.", tce);
+    }
+  }
+
+  /**
+   * Returns the compiled stylesheet, compiling it if needed.
+   *
+   * @return The compiled stylesheet.
+   *
+   * @throws TransformerBuilderException If the stylesheet cannot be compiled.
+   */
+  public synchronized Templates getTemplates() throws TransformerBuilderException {
+    if (templates == null) {
+      templates = createTemplates();
+    }
+
+    return templates;
+  }
+
+  /**
+   * Compiles the stylesheet. Called only once.
+   *
+   * @return The compiled stylesheet.
+   *
+   * @throws TransformerBuilderException If the stylesheet cannot be compiled.
+   */
+  protected abstract Templates createTemplates() throws TransformerBuilderException;
+
+  /**
+   * Applies the settings shared by all documents to a freshly created {@link Transformer}.
+   *
+   * @param transformer The <code>Transformer</code> to prepare.
+   *
+   * @throws TransformerBuilderException If the <code>Transformer</code> cannot be prepared.
+   */
+  protected abstract void prepare(Transformer transformer) throws TransformerBuilderException;
+}
@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.xerces.jaxp.SAXParserFactoryImpl;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * A pool of Xerces <code>XMLReader</code>s, shared by all Mojos loaded by the same
+ * <code>ClassLoader</code>. Readers are handed out to a single user at a time, and reset to their
+ * initial configuration when given back, so that the next user finds them as if they had just
+ * been created: without handlers, entity resolver or grammar pool, and with the namespace
+ * features they had initially. There are separate readers for every XInclude mode.
+ */
+public class XMLReaderPool {
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+  private static final String NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+  private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+  private static final String GRAMMAR_POOL = "http://apache.org/xml/properties/internal/grammar-pool";
+
+  /**
+   * The instance shared by all Mojos.
+   */
+  private static final XMLReaderPool SHARED = new XMLReaderPool(16);
+
+  /**
+   * The maximum number of idle readers kept, for every XInclude mode.
+   */
+  private final int capacity;
+
+  /**
+   * The factories creating readers, with and without XInclude support.
+   */
+  private final SAXParserFactory[] factories = new SAXParserFactory[2];
+
+  /**
+   * The idle readers, with and without XInclude support. (Instances of {@link Entry}.)
+   */
+  private final List[] idle = new List[] { new ArrayList(), new ArrayList() };
+
+  /**
+   * The readers handed out. (Maps readers to instances of {@link Entry}.)
+   */
+  private final Map borrowed = new IdentityHashMap();
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param capacity The maximum number of idle readers kept, for every XInclude mode.
+   */
+  public XMLReaderPool(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Returns the pool shared by all Mojos.
+   *
+   * @return The shared pool.
+   */
+  public static XMLReaderPool getSharedInstance() {
+    return SHARED;
+  }
+
+  /**
+   * Hands out a reader, creating a new one if there is no idle reader left.
+   *
+   * @param xincludeAware <code>true</code> for a reader resolving XIncludes.
+   * @return The reader, to be given back by {@link #release(XMLReader)}.
+   * @throws SAXException                 If the reader cannot be created.
+   * @throws ParserConfigurationException If the reader cannot be created.
+   */
+  public synchronized XMLReader borrow(boolean xincludeAware) throws SAXException, ParserConfigurationException {
+    final int mode = xincludeAware ? 1 : 0;
+    final Entry entry;
+    if (idle[mode].isEmpty()) {
+      if (factories[mode] == null) {
+        factories[mode] = new SAXParserFactoryImpl();
+        factories[mode].setXIncludeAware(xincludeAware);
+      }
+      final XMLReader reader = factories[mode].newSAXParser().getXMLReader();
+      entry = new Entry(reader, mode, reader.getFeature(NAMESPACES), reader.getFeature(NAMESPACE_PREFIXES));
+    } else {
+      entry = (Entry) idle[mode].remove(idle[mode].size() - 1);
+    }
+    borrowed.put(entry.reader, entry);
+    return entry.reader;
+  }
+
+  /**
+   * Gives back a reader handed out by {@link #borrow(boolean)}, to be reused later on. Readers
+   * that cannot be reset are dropped, as are readers given back while the pool is full.
+   *
+   * @param reader The reader.
+   */
+  public void release(XMLReader reader) {
+    final Entry entry;
+    synchronized (this) {
+      entry = (Entry) borrowed.remove(reader);
+    }
+    if (entry == null) {
+      return;
+    }
+    try {
+      reader.setContentHandler(null);
+      reader.setDTDHandler(null);
+      reader.setErrorHandler(null);
+      reader.setEntityResolver(null);
+      reader.setProperty(LEXICAL_HANDLER, null);
+      reader.setProperty(GRAMMAR_POOL, null);
+      reader.setFeature(NAMESPACES, entry.namespaces);
+      reader.setFeature(NAMESPACE_PREFIXES, entry.namespacePrefixes);
+    } catch (SAXException saxe) {
+      return;
+    } catch (RuntimeException re) {
+      return;
+    }
+    synchronized (this) {
+      if (idle[entry.mode].size() < capacity) {
+        idle[entry.mode].add(entry);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of idle readers.
+   *
+   * @return The number of readers waiting to be handed out again.
+   */
+  public synchronized int size() {
+    return idle[0].size() + idle[1].size();
+  }
+
+  /**
+   * A reader, with its initial configuration.
+   */
+  private static class Entry {
+    private final XMLReader reader;
+    private final int mode;
+    private final boolean namespaces;
+    private final boolean namespacePrefixes;
+
+    Entry(XMLReader reader, int mode, boolean namespaces, boolean namespacePrefixes) {
+      this.reader = reader;
+      this.mode = mode;
+      this.namespaces = namespaces;
+      this.namespacePrefixes = namespacePrefixes;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BuildManifest}.
+ */
+public class BuildManifestTest extends TestCase {
+  private File directory;
+  private File input;
+  private File output;
+  private File manifestFile;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("manifest", "");
+    directory.delete();
+    directory.mkdirs();
+    input = new File(directory, "input.xml");
+    output = new File(directory, "output.html");
+    manifestFile = new File(directory, "manifests/input.xml.properties");
+    FileUtils.writeStringToFile(input, "<article/>", "UTF-8");
+    FileUtils.writeStringToFile(output, "<html/>", "UTF-8");
+
+    BuildManifest manifest = new BuildManifest();
+    manifest.setConfiguration("configuration");
+    manifest.addInput(input);
+    manifest.addInput(new File(directory, "docbkx.html.ent"));
+    manifest.addOutput(output);
+    manifest.addExpression("${project.version}", "1.0");
+    manifest.store(manifestFile);
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testUpToDate() {
+    BuildManifest manifest = BuildManifest.load(manifestFile);
+    assertTrue(manifest.isUpToDate("configuration"));
+    assertEquals("1.0", manifest.getExpressions().get("${project.version}"));
+  }
+
+  public void testMissingManifest() {
+    assertNull(BuildManifest.load(new File(directory, "none.properties")));
+  }
+
+  public void testConfigurationChanged() {
+    assertFalse(BuildManifest.load(manifestFile).isUpToDate("other configuration"));
+  }
+
+  public void testInputChanged() throws Exception {
+    FileUtils.writeStringToFile(input, "<article><para/></article>", "UTF-8");
+    assertFalse(BuildManifest.load(manifestFile).isUpToDate("configuration"));
+  }
+
+  public void testMissingInputCreated() throws Exception {
+    FileUtils.writeStringToFile(new File(directory, "docbkx.html.ent"), "", "UTF-8");
+    assertFalse(BuildManifest.load(manifestFile).isUpToDate("configuration"));
+  }
+
+  public void testOutputRemoved() {
+    output.delete();
+    assertFalse(BuildManifest.load(manifestFile).isUpToDate("configuration"));
+  }
+
+  public void testContentFingerprints() throws Exception {
+    FingerprintStore fingerprints = new FingerprintStore(new File(directory, "fingerprints.properties"));
+    BuildManifest manifest = new BuildManifest(directory, fingerprints);
+    manifest.setConfiguration("configuration");
+    manifest.addInput(input);
+    manifest.addOutput(output);
+    manifest.store(manifestFile);
+
+    input.setLastModified(input.lastModified() - 60000);
+    assertTrue(BuildManifest.load(manifestFile, directory, fingerprints).isUpToDate("configuration"));
+
+    FileUtils.writeStringToFile(input, "<book/>", "UTF-8");
+    assertFalse(BuildManifest.load(manifestFile, directory, fingerprints).isUpToDate("configuration"));
+  }
+
+  public void testRelativePaths() throws Exception {
+    BuildManifest manifest = new BuildManifest(directory, null);
+    manifest.addOutput(output);
+    manifest.store(manifestFile);
+
+    File moved = new File(directory.getParentFile(), directory.getName() + "-moved");
+    assertTrue(directory.renameTo(moved));
+    directory = moved;
+    File[] outputs = BuildManifest.load(new File(moved, "manifests/input.xml.properties"), moved, null).getOutputs();
+    assertEquals(1, outputs.length);
+    assertEquals(new File(moved, "output.html"), outputs[0]);
+  }
+}
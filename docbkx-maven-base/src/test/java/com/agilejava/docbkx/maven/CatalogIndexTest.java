@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.xml.resolver.CatalogManager;
+import org.apache.xml.resolver.tools.CatalogResolver;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link CatalogIndex}.
+ */
+public class CatalogIndexTest extends TestCase {
+  private static final String HEADER = "<?xml version='1.0'?>"
+      + "<catalog xmlns='urn:oasis:names:tc:entity:xmlns:xml:catalog' prefer='public'>";
+
+  private static final String[][] ENTITIES = {
+      { "-//OASIS//DTD DocBook XML V4.4//EN", "http://www.oasis-open.org/docbook/xml/4.4/docbookx.dtd" },
+      { null, "http://www.oasis-open.org/docbook/xml/4.4/docbookx.dtd" },
+      { "-//OASIS//DTD DocBook XML V4.4//EN", "docbookx.dtd" },
+      { "-//Test//ENTITIES Modules//EN", null },
+      { "-//Test//ENTITIES Modules//EN", "modules.ent" },
+      { null, "http://docbook.sourceforge.net/release/xsl/current/html/docbook.xsl" },
+      { null, "unknown.dtd" } };
+
+  private static final String[] URIS = { "http://docbook.sourceforge.net/release/xsl/current/html/docbook.xsl",
+      "http://docbook.sourceforge.net/release/xsl/current/fo/docbook.xsl",
+      "http://docbook.org/xml/5.0/rng/docbook.rng", "http://example.com/unknown.xsl" };
+
+  private File directory;
+  private String catalogFiles;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("catalogs", "");
+    directory.delete();
+    new File(directory, "xsl").mkdirs();
+    FileUtils.writeStringToFile(new File(directory, "catalog.xml"), HEADER
+        + "<public publicId='-//OASIS//DTD DocBook XML V4.4//EN' uri='docbookx.dtd'/>"
+        + "<system systemId='http://www.oasis-open.org/docbook/xml/4.4/docbookx.dtd' uri='docbookx.dtd'/>"
+        + "<group prefer='system' xml:base='modules/'>"
+        + "<public publicId='-//Test//ENTITIES Modules//EN' uri='modules.ent'/>"
+        + "</group>"
+        + "<nextCatalog catalog='xsl/catalog.xml'/>"
+        + "</catalog>", "UTF-8");
+    FileUtils.writeStringToFile(new File(directory, "xsl/catalog.xml"), HEADER
+        + "<rewriteURI uriStartString='http://docbook.sourceforge.net/release/xsl/current/' rewritePrefix='./'/>"
+        + "<rewriteURI uriStartString='http://docbook.sourceforge.net/release/xsl/current/html/' rewritePrefix='xhtml/'/>"
+        + "<rewriteSystem systemIdStartString='http://docbook.sourceforge.net/release/xsl/current/' rewritePrefix='./'/>"
+        + "<uri name='http://docbook.org/xml/5.0/rng/docbook.rng' uri='rng/docbook.rng'/>"
+        + "<system systemId='http://www.oasis-open.org/docbook/xml/4.4/docbookx.dtd' uri='ignored.dtd'/>"
+        + "</catalog>", "UTF-8");
+    catalogFiles = new File(directory, "catalog.xml").toURI().toURL().toExternalForm();
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testResolvesLikeCatalogResolver() throws Exception {
+    CatalogIndex index = new CatalogIndex(catalogFiles, new Properties());
+    assertTrue(index.isComplete());
+    assertEquals(resolveWithCatalogResolver(), resolve(new IndexedCatalogResolver(index, null)));
+  }
+
+  public void testUsesPrebuiltIndex() throws Exception {
+    List expected = resolveWithCatalogResolver();
+    Properties prebuilt = new Properties();
+    new CatalogIndex(catalogFiles, new Properties()).store(prebuilt);
+    // the catalogs are no longer read
+    FileUtils.deleteDirectory(directory);
+    CatalogIndex index = new CatalogIndex(catalogFiles, prebuilt);
+    assertTrue(index.isComplete());
+    assertEquals(expected, resolve(new IndexedCatalogResolver(index, null)));
+  }
+
+  public void testIsIncompleteWithDelegates() throws Exception {
+    FileUtils.writeStringToFile(new File(directory, "xsl/catalog.xml"), HEADER
+        + "<delegateSystem systemIdStartString='http://example.com/' catalog='other.xml'/>"
+        + "</catalog>", "UTF-8");
+    assertFalse(new CatalogIndex(catalogFiles, new Properties()).isComplete());
+    assertFalse(new CatalogIndex(catalogFiles + ";file:/does/not/exist.xml", new Properties()).isComplete());
+  }
+
+  private List resolveWithCatalogResolver() throws Exception {
+    CatalogManager manager = new CatalogManager();
+    manager.setIgnoreMissingProperties(true);
+    manager.setUseStaticCatalog(false);
+    manager.setCatalogFiles(catalogFiles);
+    CatalogResolver resolver = new CatalogResolver(manager);
+    List resolved = new ArrayList();
+    for (int i = 0; i < ENTITIES.length; i++) {
+      resolved.add(resolver.getResolvedEntity(ENTITIES[i][0], ENTITIES[i][1]));
+    }
+    for (int i = 0; i < URIS.length; i++) {
+      resolved.add(resolver.resolve(URIS[i], null).getSystemId());
+    }
+    return resolved;
+  }
+
+  private List resolve(IndexedCatalogResolver resolver) throws Exception {
+    List resolved = new ArrayList();
+    for (int i = 0; i < ENTITIES.length; i++) {
+      resolved.add(resolver.getResolvedEntity(ENTITIES[i][0], ENTITIES[i][1]));
+    }
+    for (int i = 0; i < URIS.length; i++) {
+      resolved.add(resolver.resolve(URIS[i], null).getSystemId());
+    }
+    return resolved;
+  }
+}
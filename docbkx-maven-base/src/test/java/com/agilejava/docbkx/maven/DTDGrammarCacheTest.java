@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.StringReader;
+
+import org.apache.xerces.jaxp.SAXParserFactoryImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DTDGrammarCache}.
+ */
+public class DTDGrammarCacheTest extends TestCase {
+  private static final String DTD_ID = "http://example.com/test.dtd";
+
+  private static final String DTD = "<!ELEMENT doc (#PCDATA)>"
+      + "<!ATTLIST doc role CDATA 'default'>"
+      + "<!ENTITY mdash '&#x2014;'>";
+
+  private int resolved;
+
+  public void testReusesDTD() throws Exception {
+    DTDGrammarCache cache = new DTDGrammarCache();
+    assertEquals("\u2014 default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "'><doc>&mdash;</doc>"));
+    assertEquals("\u2014 default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "'><doc>&mdash;</doc>"));
+    assertEquals(1, resolved);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  public void testKeepsInternalSubsetToDocument() throws Exception {
+    DTDGrammarCache cache = new DTDGrammarCache();
+    assertEquals("x default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "' [<!ENTITY local 'x'>]><doc>&local;</doc>"));
+    assertEquals("\u2014 default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "'><doc>&mdash;</doc>"));
+    // undeclared entities are skipped
+    assertEquals(" default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "'><doc>&local;</doc>"));
+    assertEquals("y default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "' [<!ENTITY local 'y'>]><doc>&local;</doc>"));
+    assertEquals(" default", parse(cache, "<!DOCTYPE doc SYSTEM '" + DTD_ID + "'><doc>&local;</doc>"));
+    assertEquals(2, cache.getHits());
+  }
+
+  private String parse(DTDGrammarCache cache, String document) throws Exception {
+    XMLReader reader = new SAXParserFactoryImpl().newSAXParser().getXMLReader();
+    cache.install(reader);
+    reader.setEntityResolver(new EntityResolver() {
+      public InputSource resolveEntity(String publicId, String systemId) {
+        resolved++;
+        InputSource input = new InputSource(new StringReader(DTD));
+        input.setSystemId(systemId);
+        return input;
+      }
+    });
+    final StringBuffer result = new StringBuffer();
+    reader.setContentHandler(new DefaultHandler() {
+      public void startElement(String uri, String localName, String qName, Attributes atts) {
+        result.append(' ').append(atts.getValue("role"));
+      }
+
+      public void characters(char[] ch, int start, int length) {
+        result.insert(0, new String(ch, start, length));
+      }
+    });
+    reader.parse(new InputSource(new StringReader(document)));
+    return result.toString();
+  }
+}
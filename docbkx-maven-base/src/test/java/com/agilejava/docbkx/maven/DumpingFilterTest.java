@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.FileUtils;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link DumpingFilter}.
+ */
+public class DumpingFilterTest extends TestCase {
+  private File file;
+
+  protected void setUp() throws Exception {
+    file = File.createTempFile("dump", ".xml");
+    file.delete();
+  }
+
+  protected void tearDown() throws Exception {
+    file.delete();
+  }
+
+  public void testDumpsDocumentWhileTransforming() throws Exception {
+    StringBuffer document = new StringBuffer("<?xml version='1.0'?><article><!-- a comment -->");
+    // enough events to be handed over in several chunks
+    for (int i = 0; i < 2000; i++) {
+      document.append("<para role='p").append(i).append("'>Some <emphasis>text</emphasis>.</para>");
+    }
+    document.append("</article>");
+
+    DumpingFilter filter = new DumpingFilter(createReader(), file);
+    String transformed = serialize(new SAXSource(filter, new InputSource(new StringReader(document.toString()))));
+    filter.close();
+    filter.await();
+
+    assertEquals(serialize(new StreamSource(new StringReader(document.toString()))), transformed);
+    assertEquals(transformed, FileUtils.readFileToString(file, "UTF-8"));
+  }
+
+  public void testDiscardsIncompleteDocument() throws Exception {
+    DumpingFilter filter = new DumpingFilter(createReader(), file);
+    try {
+      serialize(new SAXSource(filter, new InputSource(new StringReader("<article><para></article>"))));
+      fail("Malformed document transformed.");
+    } catch (Exception e) {
+      // expected
+    }
+    filter.close();
+    filter.await();
+
+    assertFalse(file.exists());
+  }
+
+  private static XMLReader createReader() throws Exception {
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    return factory.newSAXParser().getXMLReader();
+  }
+
+  private static String serialize(Source source) throws Exception {
+    Transformer transformer = new TransformerFactoryImpl().newTransformer();
+    StringWriter writer = new StringWriter();
+    transformer.transform(source, new StreamResult(writer));
+    return writer.toString();
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ParsedSourceCache}.
+ */
+public class ParsedSourceCacheTest extends TestCase {
+  public void testCapacityOnlyGrows() {
+    ParsedSourceCache cache = new ParsedSourceCache(0);
+    cache.ensureCapacity(2);
+    cache.put("a", createEntry());
+    cache.put("b", createEntry());
+    // executions asking for less leave the documents of the others alone
+    cache.ensureCapacity(1);
+    cache.ensureCapacity(0);
+    assertNotNull(cache.get("a"));
+    assertNotNull(cache.get("b"));
+    cache.put("c", createEntry());
+    assertNull(cache.get("a"));
+    assertNotNull(cache.get("c"));
+  }
+
+  private static ParsedSourceCache.Entry createEntry() {
+    return new ParsedSourceCache.Entry(new SAXEventBuffer(), new BuildManifest(), new File[0], new String[0]);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.xml.sax.InputSource;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link SAXEventBuffer}.
+ */
+public class SAXEventBufferTest extends TestCase {
+  private static final String DOCUMENT = "<?xml version='1.0'?>"
+      + "<article xmlns='http://docbook.org/ns/docbook' xmlns:xl='http://www.w3.org/1999/xlink'>"
+      + "<!-- a comment --><?dbfo keep-together='always'?>"
+      + "<para xl:href='#here' role='x'>Some <emphasis>text</emphasis> &amp; more.</para></article>";
+
+  public void testReplaysDocument() throws Exception {
+    SAXEventBuffer buffer = new SAXEventBuffer();
+    SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    InputSource input = new InputSource(new StringReader(DOCUMENT));
+    input.setSystemId("file:/tmp/article.xml");
+    buffer.record(factory.newSAXParser().getXMLReader(), input);
+
+    String expected = serialize(new StreamSource(new StringReader(DOCUMENT)));
+    assertEquals(expected, serialize(buffer.createSource()));
+    // once more, as buffers are meant to be replayed several times
+    assertEquals(expected, serialize(buffer.createSource()));
+    assertEquals("file:/tmp/article.xml", buffer.createSource().getSystemId());
+  }
+
+  public void testReplaysUnparsedEntities() throws Exception {
+    String document = "<?xml version='1.0'?><!DOCTYPE article ["
+        + "<!NOTATION png SYSTEM 'image/png'><!ENTITY logo SYSTEM 'logo.png' NDATA png>"
+        + "<!ELEMENT article (imagedata)><!ELEMENT imagedata EMPTY>"
+        + "<!ATTLIST imagedata entityref ENTITY #IMPLIED>]>"
+        + "<article><imagedata entityref='logo'/></article>";
+    SAXEventBuffer buffer = new SAXEventBuffer();
+    InputSource input = new InputSource(new StringReader(document));
+    input.setSystemId("file:/tmp/article.xml");
+    buffer.record(SAXParserFactory.newInstance().newSAXParser().getXMLReader(), input);
+
+    String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:output method='text'/><xsl:template match='/'>"
+        + "<xsl:value-of select=\"unparsed-entity-uri(//imagedata/@entityref)\"/>"
+        + "</xsl:template></xsl:stylesheet>";
+    Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet)));
+    StringWriter writer = new StringWriter();
+    transformer.transform(buffer.createSource(), new StreamResult(writer));
+    assertEquals("file:/tmp/logo.png", writer.toString());
+  }
+
+  private static String serialize(Source source) throws Exception {
+    Transformer transformer = new TransformerFactoryImpl().newTransformer();
+    StringWriter writer = new StringWriter();
+    transformer.transform(source, new StreamResult(writer));
+    return writer.toString();
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.StringReader;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.FileUtils;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link StylesheetCache}.
+ */
+public class StylesheetCacheTest extends TestCase {
+  private static final String STYLESHEET = "<xsl:stylesheet version='1.0' "
+      + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'/>";
+
+  private Templates templates;
+
+  protected void setUp() throws Exception {
+    templates = new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+  }
+
+  public void testEvictsLeastRecentlyUsed() {
+    StylesheetCache cache = new StylesheetCache(2);
+    cache.put("a", templates, new File[0]);
+    cache.put("b", templates, new File[0]);
+    assertSame(templates, cache.get("a"));
+    cache.put("c", templates, new File[0]);
+    assertSame(templates, cache.get("a"));
+    assertNull(cache.get("b"));
+    assertSame(templates, cache.get("c"));
+  }
+
+  public void testDisabled() {
+    StylesheetCache cache = new StylesheetCache(1);
+    cache.put("a", templates, new File[0]);
+    cache.setCapacity(0);
+    assertEquals(0, cache.size());
+    cache.put("a", templates, new File[0]);
+    assertNull(cache.get("a"));
+  }
+
+  public void testDiscardsChangedStylesheets() throws Exception {
+    File customization = File.createTempFile("customization", ".xsl");
+    try {
+      FileUtils.writeStringToFile(customization, STYLESHEET, "UTF-8");
+      StylesheetCache cache = new StylesheetCache(1);
+      cache.put("a", templates, new File[] { customization });
+      assertSame(templates, cache.get("a"));
+      FileUtils.writeStringToFile(customization, STYLESHEET + "\n", "UTF-8");
+      assertNull(cache.get("a"));
+    } finally {
+      customization.delete();
+    }
+  }
+}
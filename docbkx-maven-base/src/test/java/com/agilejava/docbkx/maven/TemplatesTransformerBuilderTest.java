@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link TemplatesTransformerBuilder}.
+ */
+public class TemplatesTransformerBuilderTest extends TestCase {
+  private static final String STYLESHEET = "<xsl:stylesheet version='1.0' "
+      + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+      + "<xsl:output method='text'/><xsl:param name='greeting'>hello</xsl:param>"
+      + "<xsl:template match='/'><xsl:value-of select='$greeting'/></xsl:template>"
+      + "</xsl:stylesheet>";
+
+  public void testCompilesOnce() throws Exception {
+    CountingBuilder builder = new CountingBuilder();
+    builder.build();
+    builder.build();
+    assertEquals(1, builder.compiled);
+    assertEquals(2, builder.prepared);
+  }
+
+  public void testCreatesNewTransformers() throws Exception {
+    TemplatesTransformerBuilder builder = new CountingBuilder();
+    assertNotSame(builder.build(), builder.build());
+  }
+
+  public void testParametersDoNotLeak() throws Exception {
+    TemplatesTransformerBuilder builder = new CountingBuilder();
+    Transformer first = builder.build();
+    first.setParameter("greeting", "bye");
+    assertEquals("bye", transform(first));
+    assertEquals("hello", transform(builder.build()));
+  }
+
+  private static String transform(Transformer transformer) throws Exception {
+    StringWriter writer = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader("<doc/>")), new StreamResult(writer));
+
+    return writer.toString();
+  }
+
+  private static class CountingBuilder extends TemplatesTransformerBuilder {
+    private int compiled;
+    private int prepared;
+
+    protected Templates createTemplates() {
+      compiled++;
+      try {
+        return new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+      } catch (TransformerConfigurationException tce) {
+        throw new TransformerBuilderException("Failed to compile stylesheet.", tce);
+      }
+    }
+
+    protected void prepare(Transformer transformer) {
+      prepared++;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * #%L
+ * Docbkx Maven Base
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.StringReader;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link XMLReaderPool}.
+ */
+public class XMLReaderPoolTest extends TestCase {
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+  public void testResetsReleasedReaders() throws Exception {
+    XMLReaderPool pool = new XMLReaderPool(1);
+    XMLReader reader = pool.borrow(true);
+    boolean namespaces = reader.getFeature(NAMESPACES);
+    reader.setFeature(NAMESPACES, !namespaces);
+    reader.setContentHandler(new DefaultHandler());
+    reader.parse(new InputSource(new StringReader("<doc/>")));
+    pool.release(reader);
+    assertEquals(1, pool.size());
+
+    assertSame(reader, pool.borrow(true));
+    assertEquals(namespaces, reader.getFeature(NAMESPACES));
+    assertNull(reader.getContentHandler());
+    assertEquals(0, pool.size());
+  }
+
+  public void testKeepsXIncludeModesApart() throws Exception {
+    XMLReaderPool pool = new XMLReaderPool(1);
+    XMLReader reader = pool.borrow(true);
+    pool.release(reader);
+    assertNotSame(reader, pool.borrow(false));
+    assertSame(reader, pool.borrow(true));
+  }
+
+  public void testDropsReadersWhenFull() throws Exception {
+    XMLReaderPool pool = new XMLReaderPool(1);
+    XMLReader first = pool.borrow(false);
+    XMLReader second = pool.borrow(false);
+    pool.release(first);
+    pool.release(second);
+    // released twice
+    pool.release(first);
+    assertEquals(1, pool.size());
+  }
+}
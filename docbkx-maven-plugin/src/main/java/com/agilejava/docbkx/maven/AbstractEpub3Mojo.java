@@ -65,6 +65,14 @@ public abstract class AbstractEpub3Mojo extends AbstractMojoBase {
       return "application/epub+zip".getBytes ("UTF-8");
   }
   
+  /**
+   * {@inheritDoc} The whole target directory ends up in the archive, so documents are always
+   * rendered one by one.
+   */
+  protected boolean isConcurrentRenderingSupported() {
+    return false;
+  }
+
   public void postProcessResult(File result) throws MojoExecutionException {
     super.postProcessResult(result);
 
@@ -57,6 +57,14 @@ public abstract class AbstractEpubMojo extends AbstractMojoBase {
     transformer.setParameter("epub.metainf.dir", targetFile.getParent() + File.separator + "META-INF" + File.separator);
   }
 
+  /**
+   * {@inheritDoc} The whole target directory ends up in the archive, so documents are always
+   * rendered one by one.
+   */
+  protected boolean isConcurrentRenderingSupported() {
+    return false;
+  }
+
   public void postProcessResult(File result) throws MojoExecutionException {
     super.postProcessResult(result);
 
@@ -32,6 +32,20 @@ import java.io.Reader;
 
 import java.net.MalformedURLException;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
@@ -55,7 +69,13 @@ import org.apache.fop.apps.FOPException;
 import org.apache.fop.apps.FOUserAgent;
 import org.apache.fop.apps.Fop;
 import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FormattingResults;
 import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.apps.PageSequenceResults;
+import org.apache.fop.events.Event;
+import org.apache.fop.events.EventListener;
+import org.apache.fop.events.LoggingEventListener;
+import org.apache.fop.render.RendererEventProducer;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -66,6 +86,7 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.codehaus.plexus.util.FileUtils;
 
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 /**
  * A replacement base class, to be inherited by the FO building plugin. This base class will
@@ -74,7 +95,61 @@ import org.xml.sax.SAXException;
  * @author Wilfred Springer
  */
 public abstract class AbstractFoMojo extends AbstractMojoBase {
-  private String baseUrl;
+  /**
+   * The maximum number of FOP configurations kept in memory.
+   */
+  private static final int FOP_CONFIGURATION_CACHE_SIZE = 4;
+
+  /**
+   * The FOP configurations loaded most recently, by description of the settings they have been
+   * loaded from. (See {@link #describeFOPConfig()}.) The least recently used configuration is
+   * dropped once the cache is full, so that a long-lived JVM does not keep the configurations of
+   * every version of the settings.
+   */
+  private static final Map FOP_CONFIGURATIONS = Collections.synchronizedMap(new LinkedHashMap(16, 0.75f, true) {
+    protected boolean removeEldestEntry(Map.Entry eldest) {
+      return size() > FOP_CONFIGURATION_CACHE_SIZE;
+    }
+  });
+
+  /**
+   * The MIME types of the formats FOP renders, by file extension.
+   */
+  private static final Map MIME_TYPES = new HashMap();
+
+  static {
+    MIME_TYPES.put("pdf", MimeConstants.MIME_PDF);
+    MIME_TYPES.put("rtf", MimeConstants.MIME_RTF);
+    MIME_TYPES.put("ps", MimeConstants.MIME_POSTSCRIPT);
+    MIME_TYPES.put("png", MimeConstants.MIME_PNG);
+  }
+
+  private static final long MEGABYTE = 1024 * 1024;
+
+  /**
+   * The heap FOP is assumed to need per page of a document.
+   */
+  private static final long PAGE_FOOTPRINT = MEGABYTE / 2;
+
+  /**
+   * The heap FOP is assumed to need per byte of an FO file.
+   */
+  private static final long FO_FOOTPRINT_RATIO = 8;
+
+  /**
+   * The heap FOP is assumed to need for a document of which nothing is known yet.
+   */
+  private static final long DEFAULT_FOOTPRINT = 64 * MEGABYTE;
+
+  /**
+   * The ID of the event FOP emits for every page it rendered.
+   */
+  private static final String END_PAGE_EVENT = RendererEventProducer.class.getName() + ".endPage";
+
+  /**
+   * The base URL of the document rendered by the current thread.
+   */
+  private final ThreadLocal baseUrl = new ThreadLocal();
 
   /**
    * The fonts that should be taken into account. (Without this parameter, the PDF document
@@ -117,8 +192,171 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
    */
   String fopLogLevel = null;
 
+  /**
+   * Whether the messages FOP logs for a document should be aggregated, rather than all logged as
+   * they come. Messages are grouped by template, such as the event they report (a missing glyph,
+   * an overflowing table, ...); only the first messages of every template are logged, and a table
+   * counting the messages of every template is logged once the document has been rendered.
+   * Messages logged while laying out page sequences concurrently are not aggregated.
+   *
+   * @parameter default-value="false" expression="\${docbkx.aggregateFopLog}"
+   * @since 2.0.17
+   */
+  boolean aggregateFopLog;
+
+  /**
+   * The number of messages of the same template logged for every document, when aggregating the
+   * messages FOP logs.
+   *
+   * @parameter default-value="3" expression="\${docbkx.fopLogSamples}"
+   * @since 2.0.17
+   */
+  int fopLogSamples = 3;
+
+  /**
+   * Whether the FO output of the stylesheets should be written to a file, to be read back by
+   * FOP afterwards. If not, the output of the stylesheets is streamed straight into FOP, saving
+   * the cost of writing and parsing the FO document. Keep the FO file when debugging the
+   * stylesheet customization.
+   *
+   * @parameter default-value="true" expression="\${docbkx.keepFoFile}"
+   * @since 2.0.17
+   */
+  boolean keepFoFile = true;
+
+  /**
+   * The file in which FOP keeps the metrics of the fonts it found, so that fonts only need to be
+   * parsed again when they changed. Not used if the FOP configuration disables the font cache.
+   *
+   * @parameter default-value="\${project.build.directory}/docbkx-fop-fonts.cache" expression="\${docbkx.fontCacheFile}"
+   * @since 2.0.17
+   */
+  File fontCacheFile;
+
+  /**
+   * The share of the heap, in megabytes, that documents rendered concurrently by FOP may use
+   * together. Documents are only rendered while their estimated footprints fit in this budget;
+   * the footprint of a document is estimated from the number of pages it had the previous time
+   * it has been rendered, or else from the size of its FO file. Defaults to three quarters of the
+   * maximum heap size.
+   *
+   * @parameter default-value="0" expression="\${docbkx.fopHeapBudget}"
+   * @since 2.0.17
+   */
+  int fopHeapBudget;
+
+  /**
+   * Whether PDF documents should be laid out by page sequence, splitting the page sequences of
+   * every document (its chapters, appendices, ...) in as many ranges as there are threads, laying
+   * out these ranges concurrently and merging them into a single document. Page numbers and
+   * cross references are carried over from one range to the next, laying out ranges again until
+   * they settle. Documents using features that cannot be carried over, such as indexes built by
+   * FOP, are rendered as a whole. Requires the FO file, which is still deleted afterwards unless
+   * it should be kept.
+   *
+   * @parameter default-value="false" expression="\${docbkx.splitPageSequences}"
+   * @since 2.0.17
+   */
+  boolean splitPageSequences;
+
+  /**
+   * Whether documents should be rendered with as little memory as possible, for very large
+   * documents. The FO output of the stylesheets is written to a file first, so that the source
+   * documents are released before FOP reads it back; FOP drops the FO tree of every page sequence
+   * once it has been laid out, and applies its conserve-memory policy, keeping pages waiting for
+   * forward references on disk rather than in memory; the word spacing of these pages may differ
+   * by fractions of a point. (FOP does not support this policy for PostScript.) Page sequences are
+   * never laid out concurrently in this mode. The peak heap usage is reported for every document.
+   *
+   * @parameter default-value="false" expression="\${docbkx.lowMemory}"
+   * @since 2.0.17
+   */
+  boolean lowMemory;
+
+  /**
+   * Whether PNG and JPEG images with a higher resolution than the target resolution should be
+   * scaled down to the target resolution before FOP renders them, keeping their size. Scaled
+   * images are kept in the image cache directory by the content of the original image and the
+   * target resolution, so that an image is only scaled again once it changed. Requires the target
+   * resolution to be set.
+   *
+   * @parameter default-value="false" expression="\${docbkx.preprocessImages}"
+   * @since 2.0.17
+   */
+  boolean preprocessImages;
+
+  /**
+   * The directory holding the images scaled down to the target resolution.
+   *
+   * @parameter default-value="\${project.build.directory}/docbkx-image-cache" expression="\${docbkx.imageCacheDirectory}"
+   * @since 2.0.17
+   */
+  File imageCacheDirectory;
+
+  /**
+   * Other formats FOP should render from the same FO document, besides the format of this goal,
+   * given by their file extension: <code>pdf</code>, <code>rtf</code>, <code>ps</code> or
+   * <code>png</code>. The stylesheets then produce the FO document only once, and all formats are
+   * rendered concurrently, as far as the heap budget allows. Unless it is written to a file, the
+   * FO document is kept in memory meanwhile. PNG output has a file for every page.
+   *
+   * @parameter expression="\${docbkx.additionalFormats}"
+   * @since 2.0.17
+   */
+  String[] additionalFormats;
+
+  /**
+   * The CSV report receiving the metrics of every document rendered by FOP: the number of pages,
+   * the pages rendered per second, the time spent building the FO tree, setting up fonts, laying
+   * out and rendering pages, the number of fonts used and the number of images loaded. Every build
+   * appends its documents to the report. The metrics are summarized in the log as well.
+   *
+   * @parameter default-value="\${project.build.directory}/docbkx-fop-metrics.csv" expression="\${docbkx.fopMetricsReport}"
+   * @since 2.0.17
+   */
+  File fopMetricsReport;
+
   private String currentFileExtension;
 
+  /**
+   * The <code>FopFactory</code> shared by all documents rendered by this execution, holding on to
+   * the fonts registered by the FOP configuration.
+   */
+  private FopFactory fopFactory;
+
+  /**
+   * The document rendered by FOP for the current thread, when streaming the FO output straight
+   * into FOP. (An instance of {@link FopRendering}.)
+   */
+  private final ThreadLocal fopRendering = new ThreadLocal();
+
+  /**
+   * The FO document produced for the current thread, when kept in memory in order to render it
+   * in several formats. (An instance of {@link SAXEventBuffer}.)
+   */
+  private final ThreadLocal foBuffer = new ThreadLocal();
+
+  /**
+   * The share of the heap handed out to the documents rendered by FOP.
+   */
+  private HeapBudget heapBudget;
+
+  /**
+   * The number of pages of the documents rendered by FOP, by output file, as recorded the last
+   * time they have been rendered.
+   */
+  private Properties pageCounts;
+
+  /**
+   * The images prepared for the target resolution, if images are preprocessed.
+   */
+  private ImageCache imageCache;
+
+  /**
+   * The metrics of the documents rendered by this execution. (Instances of {@link FopMetrics}.)
+   */
+  private List fopMetrics;
+
   /**
    * DOCUMENT ME!
    *
@@ -131,10 +369,86 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
     // expected targetFileExtension later.
     currentFileExtension = getTargetFileExtension();
     setTargetFileExtension(getType());
+    if (additionalFormats != null) {
+      for (int i = 0; i < additionalFormats.length; i++) {
+        if (!MIME_TYPES.containsKey(additionalFormats[i])) {
+          throw new MojoExecutionException("Unsupported format: " + additionalFormats[i] + ". Supported formats are "
+              + MIME_TYPES.keySet() + ".");
+        }
+      }
+    }
+    fopFactory = null;
+    fopMetrics = Collections.synchronizedList(new ArrayList());
+
+    final long budget = (fopHeapBudget > 0) ? fopHeapBudget * MEGABYTE : Runtime.getRuntime().maxMemory() / 4 * 3;
+    heapBudget = new HeapBudget(budget);
+    pageCounts = new Properties();
+    InputStream in = null;
+    try {
+      in = new FileInputStream(getPageCountsFile());
+      pageCounts.load(in);
+    } catch (FileNotFoundException fnfe) {
+      // nothing has been rendered before
+    } catch (IOException ioe) {
+      getLog().debug("Failed to load the page counts of the documents.", ioe);
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+
+    imageCache = null;
+    if (preprocessImages) {
+      if (targetResolution > 0) {
+        imageCache = new ImageCache(imageCacheDirectory, targetResolution, sourceResolution, getLog());
+      } else {
+        getLog().warn("Images are only preprocessed for a target resolution.");
+      }
+    }
 
     configureLog();
   }
 
+  /**
+   * {@inheritDoc} Saves the fonts FOP found while rendering to the font cache.
+   */
+  public void postProcess() throws MojoExecutionException {
+    super.postProcess();
+
+    OutputStream out = null;
+    try {
+      getPageCountsFile().getParentFile().mkdirs();
+      out = new FileOutputStream(getPageCountsFile());
+      pageCounts.store(out, null);
+    } catch (IOException ioe) {
+      getLog().warn("Failed to save the page counts of the documents.", ioe);
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+
+    if (fopMetricsReport != null && !fopMetrics.isEmpty()) {
+      try {
+        FopMetrics.appendToReport(fopMetricsReport, fopMetrics);
+      } catch (IOException ioe) {
+        getLog().warn("Failed to write the FOP metrics report.", ioe);
+      }
+    }
+
+    if (imageCache != null) {
+      try {
+        imageCache.store();
+      } catch (IOException ioe) {
+        getLog().warn("Failed to save the fingerprints of the images.", ioe);
+      }
+    }
+
+    if (fopFactory != null && fopFactory.useCache()) {
+      try {
+        fopFactory.getFontManager().saveCache();
+      } catch (FOPException e) {
+        getLog().warn("Failed to save the FOP font cache.", e);
+      }
+    }
+  }
+
   protected void configureLog() {
     Logger rootLogger = Logger.getRootLogger();
     if (!rootLogger.getAllAppenders().hasMoreElements()) {
@@ -147,8 +461,10 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
     // then configure loggers for fop and xmlgraphics
     Logger fopLogger = rootLogger.getLoggerRepository().getLogger("org.apache.fop");
     fopLogger.setLevel(Level.toLevel(fopLogLevel));
+    FopLogAggregator.configure(fopLogger, aggregateFopLog);
     Logger xmlgraphicsLogger = rootLogger.getLoggerRepository().getLogger("org.apache.xmlgraphics");
     xmlgraphicsLogger.setLevel(Level.toLevel(fopLogLevel));
+    FopLogAggregator.configure(xmlgraphicsLogger, aggregateFopLog);
   }
 
   /**
@@ -158,50 +474,484 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
    *
    * @throws MojoExecutionException DOCUMENT ME!
    */
-  public void postProcessResult(File result) throws MojoExecutionException {
+  public void postProcessResult(final File result) throws MojoExecutionException {
     super.postProcessResult(result);
 
-    final FopFactory fopFactory = FopFactory.newInstance();
-    final FOUserAgent userAgent = fopFactory.newFOUserAgent();
-    userAgent.setBaseURL(baseUrl);
-
-    // FOUserAgent can be used to set PDF metadata
-    Configuration configuration = loadFOPConfig();
-    InputStream in = null;
-    OutputStream out = null;
-
+    final SAXEventBuffer buffer = (SAXEventBuffer) foBuffer.get();
+    foBuffer.set(null);
+    final String[] formats = getAdditionalFormats();
+    final ExecutorService executor = (formats.length == 0) ? null : Executors.newFixedThreadPool(formats.length);
+    final String base = (String) baseUrl.get();
     try {
-      in = openFileForInput(result);
+      // the other formats are rendered by the workers, while this thread renders the main format
+      final List renderings = new ArrayList(formats.length);
+      for (int i = 0; i < formats.length; i++) {
+        final File outputFile = getOutputFile(result, formats[i]);
+        final String mimeType = (String) MIME_TYPES.get(formats[i]);
+        renderings.add(executor.submit(new Callable() {
+          public Object call() throws MojoExecutionException {
+            baseUrl.set(base);
+            try {
+              if (buffer != null) {
+                render(buffer.createSource(), outputFile, mimeType, estimateFootprint(outputFile, null));
+              } else {
+                renderFoFile(result, outputFile, mimeType);
+              }
+            } finally {
+              baseUrl.set(null);
+            }
+            return outputFile;
+          }
+        }));
+      }
 
       final File outputFile = getOutputFile(result);
-      out = openFileForOutput(outputFile);
-      fopFactory.setUserConfig(configuration);
+      if (buffer != null) {
+        render(buffer.createSource(), outputFile, getMimeType(), estimateFootprint(outputFile, null));
+      } else if (isRenderingFromFoFile()) {
+        if (!isSplittingPageSequences() || !renderPageSequences(result, outputFile)) {
+          renderFoFile(result, outputFile, getMimeType());
+        }
+      } // else FOP already rendered the document while the stylesheets produced it
+      getLog().info(outputFile.getAbsolutePath() + " has been generated.");
+
+      for (int i = 0; i < renderings.size(); i++) {
+        try {
+          getLog().info(((File) ((Future) renderings.get(i)).get()).getAbsolutePath() + " has been generated.");
+        } catch (InterruptedException ie) {
+          throw new MojoExecutionException("Interrupted while rendering " + result + ".", ie);
+        } catch (ExecutionException ee) {
+          if (ee.getCause() instanceof MojoExecutionException) {
+            throw (MojoExecutionException) ee.getCause();
+          }
+          throw new MojoExecutionException("Failed to render " + result + ".", ee.getCause());
+        }
+      }
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+        try {
+          // the FO file is only deleted once all formats are done with it
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (!keepFoFile) {
+        result.delete();
+      }
+    }
+  }
+
+  /**
+   * Renders a document from its FO file.
+   *
+   * @param foFile     The FO file.
+   * @param outputFile The file rendered by FOP.
+   * @param mimeType   The format of the rendered file.
+   * @throws MojoExecutionException If the document fails to render.
+   */
+  private void renderFoFile(File foFile, File outputFile, String mimeType) throws MojoExecutionException {
+    final InputStream in = openFileForInput(foFile);
+    try {
+      render(new StreamSource(in), outputFile, mimeType, estimateFootprint(outputFile, foFile));
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
 
-      Fop fop = fopFactory.newFop(getMimeType(), userAgent, out);
+  /**
+   * Renders an FO document, once its estimated footprint fits in the heap budget.
+   *
+   * @param source     The FO document.
+   * @param outputFile The file rendered by FOP.
+   * @param mimeType   The format of the rendered file.
+   * @param footprint  The estimated footprint of the document, in bytes.
+   * @throws MojoExecutionException If the document fails to render.
+   */
+  private void render(Source source, File outputFile, String mimeType, long footprint)
+      throws MojoExecutionException {
+    FopRendering rendering = null;
+    try {
+      rendering = startRendering(outputFile, mimeType, footprint);
 
       // Setup JAXP using identity transformer
       TransformerFactory factory = TransformerFactory.newInstance();
       Transformer transformer = factory.newTransformer(); // identity transformer
 
-      // Setup input stream
-      Source src = new StreamSource(in);
-
       // Resulting SAX events (the generated FO) must be piped through to FOP
-      Result res = new SAXResult(fop.getDefaultHandler());
+      Result res = new SAXResult(rendering.getHandler());
 
       // Start XSLT transformation and FOP processing
-      transformer.transform(src, res);
-      getLog().info(outputFile.getAbsolutePath() + " has been generated.");
-    } catch (FOPException e) {
-      throw new MojoExecutionException("Failed to convert to " + getTargetFileExtension(), e);
+      transformer.transform(source, res);
     } catch (TransformerConfigurationException e) {
       throw new MojoExecutionException("Failed to load JAXP configuration", e);
     } catch (TransformerException e) {
-      throw new MojoExecutionException("Failed to transform to " + getTargetFileExtension(), e);
+      throw new MojoExecutionException("Failed to transform to " + FileUtils.extension(outputFile.getName()), e);
+    } finally {
+      if (rendering != null) {
+        finishRendering(rendering);
+      }
+    }
+  }
+
+  /**
+   * Tells if the documents are laid out by page sequence, which is only supported for PDF, and
+   * not when saving memory.
+   *
+   * @return <code>true</code> if page sequences are laid out concurrently.
+   */
+  private boolean isSplittingPageSequences() {
+    return splitPageSequences && !lowMemory && MimeConstants.MIME_PDF.equals(getMimeType());
+  }
+
+  /**
+   * Tells if FOP reads the FO file back, rather than receiving the output of the stylesheets
+   * straight away.
+   *
+   * @return <code>true</code> if the FO output of the stylesheets is written to a file.
+   */
+  private boolean isRenderingFromFoFile() {
+    return keepFoFile || lowMemory || isSplittingPageSequences();
+  }
+
+  /**
+   * Renders a document by laying out ranges of its page sequences concurrently.
+   *
+   * @param foFile     The FO file.
+   * @param outputFile The file rendered by FOP.
+   * @return <code>true</code> if the document has been rendered, <code>false</code> if it needs
+   *         to be rendered as a whole.
+   * @throws MojoExecutionException If the document fails to render.
+   */
+  private boolean renderPageSequences(File foFile, File outputFile) throws MojoExecutionException {
+    int threads = getThreads();
+    if (threads < 1) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (threads < 2) {
+      return false;
+    }
+
+    final String key = outputFile.getAbsolutePath();
+    final List expected = new ArrayList();
+    for (String count = pageCounts.getProperty(key + "#0"); count != null;
+        count = pageCounts.getProperty(key + "#" + expected.size())) {
+      expected.add(count);
+    }
+    int[] expectedPageCounts = new int[expected.size()];
+    try {
+      for (int i = 0; i < expectedPageCounts.length; i++) {
+        expectedPageCounts[i] = Integer.parseInt((String) expected.get(i));
+      }
+    } catch (NumberFormatException nfe) {
+      expectedPageCounts = null;
+    }
+
+    final long footprint = estimateFootprint(outputFile, foFile);
+    try {
+      heapBudget.acquire(footprint);
+    } catch (InterruptedException ie) {
+      throw new MojoExecutionException("Interrupted while waiting to render " + outputFile + ".", ie);
+    }
+    final PeakHeapUsage heapUsage = new PeakHeapUsage();
+    final FopMetrics metrics = new FopMetrics(outputFile, FileUtils.extension(outputFile.getName()));
+    OutputStream out = null;
+    try {
+      final PageSequenceRenderer renderer = new PageSequenceRenderer(getFopFactory(), MimeConstants.MIME_PDF,
+          (String) baseUrl.get(), threads, getLog());
+      renderer.setURIResolver(imageCache);
+      out = openFileForOutput(outputFile);
+      if (!renderer.render(foFile, out, expectedPageCounts)) {
+        return false;
+      }
+      final int[] counts = renderer.getPageCounts();
+      recordPageCounts(outputFile, counts);
+      reportPeakHeapUsage(outputFile, heapUsage);
+      // the page sequences are laid out on other threads, only the pages and the time are known
+      metrics.finish();
+      metrics.pages = 0;
+      for (int i = 0; i < counts.length; i++) {
+        metrics.pages += counts[i];
+      }
+      reportMetrics(metrics);
+      return true;
     } finally {
+      heapUsage.stop();
       IOUtils.closeQuietly(out);
-      IOUtils.closeQuietly(in);
+      heapBudget.release(footprint);
+    }
+  }
+
+  /**
+   * Records the number of pages of a document, and of each of its page sequences.
+   *
+   * @param outputFile The file rendered by FOP.
+   * @param counts     The number of pages of each page sequence.
+   */
+  private void recordPageCounts(File outputFile, int[] counts) {
+    final String key = outputFile.getAbsolutePath();
+    int total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      pageCounts.setProperty(key + "#" + i, String.valueOf(counts[i]));
+      total += counts[i];
+    }
+    pageCounts.setProperty(key, String.valueOf(total));
+    pageCounts.remove(key + "#" + counts.length);
+  }
+
+  /**
+   * Reports the peak heap usage while rendering a document; only logged at debug level unless
+   * saving memory.
+   *
+   * @param outputFile The file rendered by FOP.
+   * @param heapUsage  The heap usage since the document started rendering.
+   */
+  private void reportPeakHeapUsage(File outputFile, PeakHeapUsage heapUsage) {
+    final String message = "Peak heap usage rendering " + outputFile.getName() + ": "
+        + (heapUsage.getPeak() / MEGABYTE) + " MB.";
+    if (lowMemory) {
+      getLog().info(message);
+    } else {
+      getLog().debug(message);
+    }
+  }
+
+  /**
+   * Summarizes the metrics of a document in the log, and keeps them for the report.
+   *
+   * @param metrics The metrics of the document.
+   */
+  private void reportMetrics(FopMetrics metrics) {
+    getLog().info(metrics.getSummary());
+    fopMetrics.add(metrics);
+  }
+
+  /**
+   * {@inheritDoc} Unless the FO file should be kept, the output of the stylesheets is piped
+   * through to FOP right away.
+   */
+  protected Result createResult(File targetFile) throws MojoExecutionException {
+    if (isRenderingFromFoFile()) {
+      return super.createResult(targetFile);
+    }
+    if (getAdditionalFormats().length > 0) {
+      // the FO document is kept in memory, to be rendered in every format
+      final SAXEventBuffer buffer = new SAXEventBuffer();
+      foBuffer.set(buffer);
+      return new SAXResult(buffer);
+    }
+
+    final File outputFile = getOutputFile(targetFile);
+    final FopRendering rendering = startRendering(outputFile, getMimeType(), estimateFootprint(outputFile, null));
+    fopRendering.set(rendering);
+    return new SAXResult(rendering.getHandler());
+  }
+
+  /**
+   * {@inheritDoc} Closes the document rendered by FOP, if streaming the FO output into FOP.
+   */
+  protected void releaseResult(Result result) {
+    super.releaseResult(result);
+
+    final FopRendering rendering = (FopRendering) fopRendering.get();
+    if (rendering != null) {
+      fopRendering.set(null);
+      finishRendering(rendering);
+    }
+  }
+
+  /**
+   * Estimates the heap FOP needs for rendering a document, from the number of pages it had the
+   * last time, or else from the size of its FO file.
+   *
+   * @param outputFile The file rendered by FOP.
+   * @param foFile     The FO file, or <code>null</code> if the FO output is streamed into FOP.
+   * @return The estimated footprint, in bytes.
+   */
+  private long estimateFootprint(File outputFile, File foFile) {
+    final String pages = pageCounts.getProperty(outputFile.getAbsolutePath());
+    if (pages != null) {
+      try {
+        return Long.parseLong(pages) * PAGE_FOOTPRINT;
+      } catch (NumberFormatException nfe) {
+        // estimated from the FO file below
+      }
+    }
+    if (foFile != null && foFile.length() > 0) {
+      return foFile.length() * FO_FOOTPRINT_RATIO;
+    }
+    return DEFAULT_FOOTPRINT;
+  }
+
+  /**
+   * Starts rendering a document, once its estimated footprint fits in the heap budget.
+   *
+   * @param outputFile The file rendered by FOP.
+   * @param mimeType   The format of the rendered file.
+   * @param footprint  The estimated footprint of the document, in bytes.
+   * @return The document being rendered.
+   * @throws MojoExecutionException If FOP fails to initialize.
+   */
+  private FopRendering startRendering(File outputFile, String mimeType, long footprint)
+      throws MojoExecutionException {
+    try {
+      if (heapBudget.getUsed() + footprint > heapBudget.getCapacity()) {
+        getLog().debug("Waiting for " + (footprint / MEGABYTE) + " MB of heap to render " + outputFile + ".");
+      }
+      heapBudget.acquire(footprint);
+    } catch (InterruptedException ie) {
+      throw new MojoExecutionException("Interrupted while waiting to render " + outputFile + ".", ie);
+    }
+
+    final FopRendering rendering = new FopRendering(outputFile, footprint);
+    rendering.heapUsage = new PeakHeapUsage();
+    rendering.metrics = new FopMetrics(outputFile, FileUtils.extension(outputFile.getName()));
+    rendering.metrics.startCountingImages();
+    if (aggregateFopLog) {
+      rendering.logAggregator = new FopLogAggregator(getLog(), outputFile.getName(), fopLogSamples);
+      rendering.logAggregator.start();
+    }
+    boolean started = false;
+    try {
+      rendering.out = openFileForOutput(outputFile);
+      rendering.fop = newFop(rendering, mimeType);
+      started = true;
+    } finally {
+      if (!started) {
+        finishRendering(rendering);
+      }
+    }
+    return rendering;
+  }
+
+  /**
+   * Closes the document rendered by FOP and returns its share of the heap budget. The number of
+   * pages of the document is recorded if it has been rendered completely.
+   *
+   * @param rendering The document being rendered.
+   */
+  private void finishRendering(FopRendering rendering) {
+    IOUtils.closeQuietly(rendering.out);
+    heapBudget.release(rendering.footprint);
+    rendering.heapUsage.stop();
+    rendering.metrics.stopCountingImages();
+    rendering.metrics.finish();
+    if (rendering.logAggregator != null) {
+      rendering.logAggregator.stop();
+      rendering.logAggregator.summarize();
+    }
+
+    final FormattingResults results = (rendering.fop == null) ? null : rendering.fop.getResults();
+    if (results != null) {
+      final List pageSequences = results.getPageSequences();
+      final int[] counts = new int[pageSequences.size()];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = ((PageSequenceResults) pageSequences.get(i)).getPageCount();
+      }
+      recordPageCounts(rendering.outputFile, counts);
+      reportPeakHeapUsage(rendering.outputFile, rendering.heapUsage);
+
+      final FopMetrics metrics = rendering.metrics;
+      // not every renderer reports the pages it rendered
+      metrics.pages = Math.max(rendering.pagesRendered, results.getPageCount());
+      if (rendering.handler != null) {
+        metrics.layoutTime = rendering.handler.getLayoutTime() / 1000000;
+        metrics.renderingTime = rendering.handler.getRenderingTime() / 1000000;
+        metrics.fontsUsed = rendering.handler.getFontInfo().getUsedFonts().size();
+      }
+      reportMetrics(metrics);
+    }
+  }
+
+  /**
+   * Returns the file recording the number of pages of the documents rendered by FOP.
+   *
+   * @return The file holding the page counts.
+   */
+  private File getPageCountsFile() {
+    return new File(getManifestDirectory(), currentFileExtension + "-pages.properties");
+  }
+
+  /**
+   * Creates the {@link Fop} instance rendering a document to its output stream. Unless the
+   * document is not rendered from the area tree, like RTF, its layout and rendering are measured,
+   * as well as the time spent setting up the fonts; its rendered pages are counted.
+   *
+   * @param rendering The document being rendered. The output file is the one of which FOP derives
+   *                  the names of the files holding the other pages when rendering bitmaps.
+   * @param mimeType  The format of the rendered document.
+   * @return The <code>Fop</code> instance.
+   * @throws MojoExecutionException If FOP fails to initialize.
+   */
+  private Fop newFop(final FopRendering rendering, String mimeType) throws MojoExecutionException {
+    final OutputStream out = rendering.out;
+    final File outputFile = rendering.outputFile;
+    final FopFactory fopFactory = getFopFactory();
+    // FOUserAgent can be used to set PDF metadata
+    final FOUserAgent userAgent = fopFactory.newFOUserAgent();
+    userAgent.setBaseURL((String) baseUrl.get());
+    userAgent.setOutputFile(outputFile);
+    if (imageCache != null) {
+      userAgent.setURIResolver(imageCache);
+    }
+
+    // FOP only logs its events by itself as long as nobody else listens
+    if (rendering.logAggregator != null) {
+      userAgent.getEventBroadcaster().addEventListener(rendering.logAggregator);
+    } else {
+      userAgent.getEventBroadcaster().addEventListener(new LoggingEventListener(LogFactory.getLog(FOUserAgent.class)));
+    }
+    userAgent.getEventBroadcaster().addEventListener(new EventListener() {
+      public void processEvent(Event event) {
+        if (END_PAGE_EVENT.equals(event.getEventID())) {
+          rendering.pagesRendered++;
+        }
+      }
+    });
+
+    try {
+      if (lowMemory) {
+        // the PostScript renderer of FOP 1.1 fails on pages it saved to disk
+        userAgent.setConserveMemoryPolicy(!MimeConstants.MIME_POSTSCRIPT.equals(mimeType));
+      }
+      if (fopFactory.getRendererFactory().getFOEventHandlerMaker(mimeType) == null) {
+        // rendered from the area tree, unlike RTF for instance; the renderer sets up the fonts
+        final long start = System.currentTimeMillis();
+        rendering.handler = lowMemory ? new ReleasingAreaTreeHandler(userAgent, mimeType, out)
+            : new MeasuringAreaTreeHandler(userAgent, mimeType, out);
+        rendering.metrics.fontSetupTime = System.currentTimeMillis() - start;
+        userAgent.setFOEventHandlerOverride(rendering.handler);
+      }
+      return fopFactory.newFop(mimeType, userAgent, out);
+    } catch (FOPException e) {
+      throw new MojoExecutionException("Failed to convert to " + FileUtils.extension(outputFile.getName()), e);
+    }
+  }
+
+  /**
+   * Returns the <code>FopFactory</code> of this execution, configuring it the first time. Fonts
+   * are registered and their metrics are loaded once, rather than for every document.
+   *
+   * @return The configured <code>FopFactory</code>.
+   * @throws MojoExecutionException If the FOP configuration cannot be loaded.
+   */
+  private synchronized FopFactory getFopFactory() throws MojoExecutionException {
+    if (fopFactory == null) {
+      final FopFactory factory = FopFactory.newInstance();
+      try {
+        factory.setUserConfig(getFOPConfig());
+      } catch (FOPException e) {
+        throw new MojoExecutionException("Failed to convert to " + getTargetFileExtension(), e);
+      }
+      if (factory.useCache() && fontCacheFile != null) {
+        fontCacheFile.getParentFile().mkdirs();
+        factory.getFontManager().setCacheFile(fontCacheFile);
+      }
+      factory.getImageManager().getCache().setCacheListener(FopMetrics.getImageCacheListener());
+      fopFactory = factory;
     }
+    return fopFactory;
   }
 
   private InputStream openFileForInput(File file) throws MojoExecutionException {
@@ -212,10 +962,94 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
     }
   }
 
+  /**
+   * {@inheritDoc} The FOP configuration affects the output as well.
+   */
+  protected void appendConfiguration(StringBuffer configuration) {
+    super.appendConfiguration(configuration);
+    configuration.append("targetResolution=").append(targetResolution).append('\n');
+    configuration.append("sourceResolution=").append(sourceResolution).append('\n');
+    configuration.append("keepFoFile=").append(keepFoFile).append('\n');
+    configuration.append("splitPageSequences=").append(splitPageSequences).append('\n');
+    configuration.append("preprocessImages=").append(preprocessImages).append('\n');
+    final String[] formats = getAdditionalFormats();
+    for (int i = 0; i < formats.length; i++) {
+      configuration.append("additionalFormat=").append(formats[i]).append('\n');
+    }
+    if (externalFOPConfiguration != null) {
+      configuration.append("fopConfiguration=").append(externalFOPConfiguration.getAbsolutePath()).append('\n');
+    } else if (fonts != null) {
+      for (int i = 0; i < fonts.length; i++) {
+        Font font = fonts[i];
+        configuration.append("font=").append(font.getName()).append(',').append(font.getStyle()).append(',')
+            .append(font.getWeight()).append(',').append(font.isKerning()).append(',')
+            .append(font.getMetricsFile()).append(',').append(font.getEmbedFile()).append('\n');
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc} These are the FOP configuration file, or the files of the fonts.
+   */
+  protected File[] getConfigurationFiles() {
+    final List files = new ArrayList();
+    if (externalFOPConfiguration != null) {
+      files.add(externalFOPConfiguration);
+    } else if (fonts != null) {
+      for (int i = 0; i < fonts.length; i++) {
+        if (fonts[i].getMetricsFile() != null) {
+          files.add(fonts[i].getMetricsFile());
+        }
+        if (fonts[i].getEmbedFile() != null) {
+          files.add(fonts[i].getEmbedFile());
+        }
+      }
+    }
+    return (File[]) files.toArray(new File[files.size()]);
+  }
+
+  /**
+   * {@inheritDoc} Besides the FO file, if kept, these are the files rendered by FOP. (Only the
+   * first page of PNG output is taken into account.)
+   */
+  protected File[] getOutputFiles(File targetFile) {
+    final List files = new ArrayList();
+    if (keepFoFile) {
+      files.add(targetFile);
+    }
+    files.add(getOutputFile(targetFile));
+    final String[] formats = getAdditionalFormats();
+    for (int i = 0; i < formats.length; i++) {
+      files.add(getOutputFile(targetFile, formats[i]));
+    }
+    return (File[]) files.toArray(new File[files.size()]);
+  }
+
   private File getOutputFile(File inputFile) {
+    return getOutputFile(inputFile, currentFileExtension);
+  }
+
+  private File getOutputFile(File inputFile, String extension) {
     String basename = FileUtils.basename(inputFile.getAbsolutePath());
 
-    return new File(getTargetDirectory(), basename + currentFileExtension);
+    return new File(getTargetDirectory(), basename + extension);
+  }
+
+  /**
+   * Returns the other formats rendered from the FO document, leaving out the format of this goal.
+   *
+   * @return The file extensions of the formats.
+   */
+  private String[] getAdditionalFormats() {
+    final List formats = new ArrayList();
+    if (additionalFormats != null) {
+      for (int i = 0; i < additionalFormats.length; i++) {
+        if (!additionalFormats[i].equals(currentFileExtension) && !formats.contains(additionalFormats[i])) {
+          formats.add(additionalFormats[i]);
+        }
+      }
+    }
+    return (String[]) formats.toArray(new String[formats.size()]);
   }
 
   private OutputStream openFileForOutput(File file) throws MojoExecutionException {
@@ -243,6 +1077,55 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
     return MimeConstants.MIME_PDF;
   }
 
+  /**
+   * Returns the FOP configuration, loading it only if it has not been loaded before from the same
+   * settings, by this execution or by a previous one.
+   *
+   * @return The FOP configuration.
+   * @throws MojoExecutionException If the configuration cannot be loaded.
+   */
+  private Configuration getFOPConfig() throws MojoExecutionException {
+    final long start = System.currentTimeMillis();
+    final String key = describeFOPConfig();
+    Configuration configuration = (Configuration) FOP_CONFIGURATIONS.get(key);
+    if (configuration == null) {
+      configuration = loadFOPConfig();
+      FOP_CONFIGURATIONS.put(key, configuration);
+      getLog().debug("Loaded the FOP configuration in " + (System.currentTimeMillis() - start) + " ms.");
+    } else {
+      getLog().debug("Reused the FOP configuration, looked up in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+    return configuration;
+  }
+
+  /**
+   * Describes the settings the FOP configuration is loaded from: the content of the external
+   * configuration file, or the fonts and resolutions passed to the configuration template.
+   *
+   * @return The description of the settings.
+   * @throws MojoExecutionException If the external configuration file cannot be read.
+   */
+  private String describeFOPConfig() throws MojoExecutionException {
+    final StringBuffer description = new StringBuffer(getClass().getName()).append('\n');
+    if (externalFOPConfiguration != null) {
+      try {
+        description.append(externalFOPConfiguration.getAbsolutePath()).append('=')
+            .append(FingerprintStore.computeFingerprint(externalFOPConfiguration));
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Failed to load external FOP config.", ioe);
+      }
+    } else {
+      description.append(targetResolution).append(',').append(sourceResolution).append('\n');
+      for (int i = 0; fonts != null && i < fonts.length; i++) {
+        Font font = fonts[i];
+        description.append(font.getName()).append(',').append(font.getStyle()).append(',')
+            .append(font.getWeight()).append(',').append(font.isKerning()).append(',')
+            .append(font.getMetricsFile()).append(',').append(font.getEmbedFile()).append('\n');
+      }
+    }
+    return description.toString();
+  }
+
   /**
    * DOCUMENT ME!
    *
@@ -318,9 +1201,40 @@ public abstract class AbstractFoMojo extends AbstractMojoBase {
 
     try {
       final String str = (new File(sourceFilename)).getParentFile().toURL().toExternalForm();
-      baseUrl = str.replace("file:/", "file:///");
+      baseUrl.set(str.replace("file:/", "file:///"));
     } catch (MalformedURLException e) {
       getLog().warn("Failed to get FO basedir", e);
     }
   }
+
+  /**
+   * A document being rendered by FOP.
+   */
+  private static class FopRendering {
+    private final File outputFile;
+    private final long footprint;
+    private OutputStream out;
+    private Fop fop;
+    private PeakHeapUsage heapUsage;
+    private FopMetrics metrics;
+    private MeasuringAreaTreeHandler handler;
+    private FopLogAggregator logAggregator;
+    private int pagesRendered;
+
+    FopRendering(File outputFile, long footprint) {
+      this.outputFile = outputFile;
+      this.footprint = footprint;
+    }
+
+    /**
+     * Returns the handler receiving the FO document.
+     */
+    DefaultHandler getHandler() throws MojoExecutionException {
+      try {
+        return fop.getDefaultHandler();
+      } catch (FOPException e) {
+        throw new MojoExecutionException("Failed to render " + outputFile + ".", e);
+      }
+    }
+  }
 }
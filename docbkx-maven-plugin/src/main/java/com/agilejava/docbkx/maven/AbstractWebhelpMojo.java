@@ -41,9 +41,9 @@ import java.util.*;
 
 import javax.xml.transform.Transformer;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 
-import com.nexwave.nquindexer.SaxHTMLIndex;
 import com.nexwave.nquindexer.WriteJSFiles;
 
 import com.nexwave.nsidita.DirList;
@@ -60,7 +60,6 @@ public abstract class AbstractWebhelpMojo extends AbstractMojoBase {
   // Init the lists which will contain the words and chars to remove
   ArrayList cleanUpStrings = null;
   ArrayList cleanUpChars = null;
-  Map tempDico = null;
   File targetBaseDir = null;
   File searchBaseDir = null;
 
@@ -79,6 +78,52 @@ public abstract class AbstractWebhelpMojo extends AbstractMojoBase {
      */
     private boolean stemming;
 
+  /**
+   * The number of threads parsing the HTML files for the search index. A value lower than 1 uses
+   * one thread per available processor. The index is the same whatever the number of threads.
+   *
+   * @parameter default-value="1" expression="\${docbkx.indexerThreads}"
+   * @since 2.0.17
+   */
+  private int indexerThreads = 1;
+
+  /**
+   * The memory the words of the search index may take while it is built, in megabytes. Beyond, the
+   * words are written to disk in sorted runs, which are merged into the index once all HTML files
+   * are parsed.
+   *
+   * @parameter default-value="64" expression="\${docbkx.indexerMemory}"
+   * @since 2.0.17
+   */
+  private int indexerMemory = 64;
+
+  /**
+   * Whether to write the search index in shards of words sharing a prefix, loaded by the browser
+   * when a search needs them, instead of in files loaded by every page before the first search.
+   *
+   * @parameter default-value="false" expression="\${docbkx.shardedIndex}"
+   * @since 2.0.17
+   */
+  private boolean shardedIndex;
+
+  /**
+   * The maximum size of a shard of the search index, in characters, unless it holds the words of
+   * a single prefix.
+   *
+   * @parameter default-value="65536" expression="\${docbkx.indexShardSize}"
+   * @since 2.0.17
+   */
+  private int indexShardSize = 65536;
+
+  /**
+   * Whether to write a gzipped copy of every shard of the search index next to it, for web
+   * servers serving precompressed files.
+   *
+   * @parameter default-value="false" expression="\${docbkx.compressIndex}"
+   * @since 2.0.17
+   */
+  private boolean compressIndex;
+
   /**
    * DOCUMENT ME!
    *
@@ -97,7 +142,6 @@ public abstract class AbstractWebhelpMojo extends AbstractMojoBase {
     searchBaseDir = new File(targetBaseDir, "search");
     cleanUpStrings = new ArrayList();
     cleanUpChars = new ArrayList();
-    tempDico = new HashMap();
   }
 
   /**
@@ -193,77 +237,128 @@ public abstract class AbstractWebhelpMojo extends AbstractMojoBase {
     // Retrieve the clean-up properties for indexing
     retrieveCleanUpProps();
 
-    SaxHTMLIndex spe = new SaxHTMLIndex(cleanUpStrings, cleanUpChars); // use clean-up props files
-
-    System.setProperty("org.xml.sax.driver", "org.ccil.cowan.tagsoup.Parser");
-    System.setProperty("javax.xml.parsers.SAXParserFactory", "org.ccil.cowan.tagsoup.jaxp.SAXFactoryImpl");
+    //create a html file description list
+    ArrayList filesDescription = new ArrayList();
 
-    if (spe.init(tempDico) == 0) {
-      //create a html file description list
-      ArrayList filesDescription = new ArrayList();
+    String indexerLanguage = getProperty("webhelpIndexerLanguage");
+    indexerLanguage = ((indexerLanguage == null) ? "en" : indexerLanguage);
+    //TODO: change this when updating webhelpindexer in order to use the new WriteJSFiles.WriteIndex method
+      if (getLog().isDebugEnabled())
+        getLog().debug("Indexer language is: " + indexerLanguage);
 
-      String indexerLanguage = getProperty("webhelpIndexerLanguage");
-      indexerLanguage = ((indexerLanguage == null) ? "en" : indexerLanguage);
-      //TODO: change this when updating webhelpindexer in order to use the new WriteJSFiles.WriteIndex method
-        if (getLog().isDebugEnabled())
-          getLog().debug("Indexer language is: " + indexerLanguage);
+    int threads = indexerThreads;
+    if (threads < 1) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    if (getLog().isDebugEnabled())
+      getLog().debug("Parsing " + htmlFiles.size() + " html files with " + threads + " threads");
+
+    // parse each html files, using the clean-up props files
+    WebhelpIndexer indexer = new WebhelpIndexer(cleanUpStrings, cleanUpChars, indexerLanguage, stemming, threads);
+    indexer.setCache(new WebhelpIndexCache(getIndexCacheDirectory()));
+    indexer.setLog(getLog());
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(getIndexCacheDirectory(), "work"),
+        indexerMemory * 1024L * 1024L);
+    List infos;
+    try {
+      infos = indexer.index(htmlFiles, builder);
+      if (getLog().isDebugEnabled())
+        getLog().debug("Parsed " + indexer.getFilesParsed() + " html files, the others did not change");
 
-      // parse each html files
-      for (int f = 0; f < htmlFiles.size(); f++) {
-        File ftemp = (File) htmlFiles.get(f);
+      // write the index files, empty words left out
+      File indexFile = new File(searchBaseDir, indexName);
+      int words = builder.build();
+      if (getLog().isDebugEnabled())
+        getLog().debug("Merged " + words + " words from " + builder.getRunCount() + " runs");
+      if (words == 0) {
+        throw new MojoExecutionException("No words have been indexed in: " + targetBaseDir);
+      }
 
+      if (shardedIndex) {
+        int shards = new ShardedIndexWriter(indexShardSize, compressIndex).write(indexFile, builder, words,
+            indexerLanguage);
         if (getLog().isDebugEnabled())
-          getLog().debug("Parsing html file: " + ftemp.getAbsolutePath());
+          getLog().debug("Wrote " + words + " words in " + shards + " shards");
+        appendShardLoader();
+      } else {
+        builder.writeIndex(indexFile, words, indexerLanguage);
+      }
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to write the search index", ioe);
+    } finally {
+      builder.close();
+    }
 
-        //tempMap.put(key, value);
-        //The HTML file information are added in the list of FileInfoObject
-        DocFileInfo docFileInfoTemp = new DocFileInfo(spe.runExtractData(ftemp, indexerLanguage, stemming));
+    for (int f = 0; f < infos.size(); f++) {
+      //The HTML file information are added in the list of FileInfoObject
+      DocFileInfo docFileInfoTemp = (DocFileInfo) infos.get(f);
 
-        ftemp = docFileInfoTemp.getFullpath();
+      File ftemp = docFileInfoTemp.getFullpath();
 
-        String stemp = ftemp.toString();
-        int i = stemp.indexOf(targetBaseDir.getAbsolutePath());
+      String stemp = ftemp.toString();
+      int i = stemp.indexOf(targetBaseDir.getAbsolutePath());
 
-        if (i != 0) {
-          System.out.println("the documentation root does not match with the documentation input!");
+      if (i != 0) {
+        System.out.println("the documentation root does not match with the documentation input!");
 
-          return;
-        }
+        return;
+      }
 
-        int ad = 1;
+      int ad = 1;
 
-        if (stemp.equals(targetBaseDir.getAbsolutePath()))
-          ad = 0;
+      if (stemp.equals(targetBaseDir.getAbsolutePath()))
+        ad = 0;
 
-        stemp = stemp.substring(i + targetBaseDir.getAbsolutePath().length() + ad); //i is redundant (i==0 always)
-        ftemp = new File(stemp);
-        docFileInfoTemp.setFullpath(ftemp);
+      stemp = stemp.substring(i + targetBaseDir.getAbsolutePath().length() + ad); //i is redundant (i==0 always)
+      ftemp = new File(stemp);
+      docFileInfoTemp.setFullpath(ftemp);
 
-        filesDescription.add(docFileInfoTemp);
-      }
+      filesDescription.add(docFileInfoTemp);
+    }
 
-      /*remove empty strings from the map*/
-      if (tempDico.containsKey("")) {
-        tempDico.remove("");
-      }
+    // write the html list file with title and shortdesc
+    //create the list of the existing html files (index starts at 0)
+    File htmlInfoList = new File(searchBaseDir, HTML_INFO_LIST);
+    WriteJSFiles.WriteHTMLInfoList(htmlInfoList.getAbsolutePath(), filesDescription);
+  }
 
-      // write the index files
-      if (tempDico.isEmpty()) {
-        throw new MojoExecutionException("No words have been indexed in: " + targetBaseDir);
+  /**
+   * Appends the loader of the shards of the search index to the search script.
+   *
+   * @throws MojoExecutionException If the search script cannot be written.
+   */
+  private void appendShardLoader() throws MojoExecutionException {
+    File script = new File(searchBaseDir, "nwSearchFnt.js");
+    try {
+      String loader = IOUtils.toString(getClass().getResourceAsStream("/webhelp/nwSearchShards.js"), "UTF-8");
+      String content = org.apache.commons.io.FileUtils.readFileToString(script, "UTF-8");
+      if (content.indexOf(loader) < 0) {
+        org.apache.commons.io.FileUtils.writeStringToFile(script, content + loader, "UTF-8");
       }
-
-      File indexFile = new File(searchBaseDir, indexName);
-      WriteJSFiles.WriteIndex(indexFile.getAbsolutePath(), tempDico, indexerLanguage);
-
-      // write the html list file with title and shortdesc
-      //create the list of the existing html files (index starts at 0)
-      File htmlInfoList = new File(searchBaseDir, HTML_INFO_LIST);
-      WriteJSFiles.WriteHTMLInfoList(htmlInfoList.getAbsolutePath(), filesDescription);
-    } else {
-      throw new MojoExecutionException("Parser initialization failed, wrong base dir");
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Unable to add the shard loader to " + script, ioe);
     }
   }
 
+  /**
+   * Returns the directory holding the postings of the HTML files indexed by previous builds, kept
+   * apart per output directory like the build manifests.
+   *
+   * @return The directory of the {@link WebhelpIndexCache}.
+   */
+  private File getIndexCacheDirectory() {
+    return new File(getManifestDirectory(), "webhelp-index/"
+        + BuildManifest.digest(targetBaseDir.getAbsolutePath()).substring(0, 8));
+  }
+
+  /**
+   * {@inheritDoc} The search index is built from state shared by all documents, so documents
+   * are always rendered one by one.
+   */
+  protected boolean isConcurrentRenderingSupported() {
+    return false;
+  }
+
   /**
    * DOCUMENT ME!
    *
@@ -0,0 +1,387 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * The outline of an FO document: its page sequences, the identifiers they define and refer to,
+ * and its bookmarks. The outline is read in a single pass over the document, without laying it
+ * out, and tells how to render the page sequences of the document separately.
+ */
+public class FoOutline {
+  /**
+   * The namespace of XSL-FO.
+   */
+  public static final String FO_NAMESPACE = "http://www.w3.org/1999/XSL/Format";
+
+  /**
+   * The namespace of the FOP extensions.
+   */
+  public static final String FOX_NAMESPACE = "http://xmlgraphics.apache.org/fop/extensions";
+
+  /**
+   * The page sequences of the document, in document order. (Instances of {@link PageSequence}.)
+   */
+  private final List pageSequences = new ArrayList();
+
+  /**
+   * The index of the page sequence defining each identifier. (Integers, by identifier.)
+   */
+  private final Map owners = new HashMap();
+
+  /**
+   * The top-level bookmarks of the document. (Instances of {@link Bookmark}.)
+   */
+  private final List bookmarks = new ArrayList();
+
+  /**
+   * The identifiers the bookmarks point to.
+   */
+  private final Set bookmarkTargets = new HashSet();
+
+  /**
+   * The construct preventing the page sequences from being rendered separately, if any.
+   */
+  private String unsupportedFeature;
+
+  /**
+   * Reads the outline of an FO document.
+   *
+   * @param reader The namespace aware reader parsing the document.
+   * @param input  The document.
+   * @return The outline of the document.
+   * @throws IOException  If the document cannot be read.
+   * @throws SAXException If the document cannot be parsed.
+   */
+  public static FoOutline read(XMLReader reader, InputSource input) throws IOException, SAXException {
+    final FoOutline outline = new FoOutline();
+    reader.setContentHandler(outline.new Reader());
+    reader.parse(input);
+    return outline;
+  }
+
+  /**
+   * Returns the number of page sequences of the document.
+   *
+   * @return The number of page sequences.
+   */
+  public int getPageSequenceCount() {
+    return pageSequences.size();
+  }
+
+  /**
+   * Returns a page sequence of the document.
+   *
+   * @param index The index of the page sequence, in document order.
+   * @return The page sequence.
+   */
+  public PageSequence getPageSequence(int index) {
+    return (PageSequence) pageSequences.get(index);
+  }
+
+  /**
+   * Returns the page sequence defining an identifier.
+   *
+   * @param id The identifier.
+   * @return The index of the page sequence, or <code>-1</code> if no page sequence defines it.
+   */
+  public int getOwner(String id) {
+    final Integer owner = (Integer) owners.get(id);
+    return (owner == null) ? -1 : owner.intValue();
+  }
+
+  /**
+   * Returns the top-level bookmarks of the document.
+   *
+   * @return The bookmarks. (Instances of {@link Bookmark}.)
+   */
+  public List getBookmarks() {
+    return Collections.unmodifiableList(bookmarks);
+  }
+
+  /**
+   * Returns the identifiers the bookmarks of the document point to.
+   *
+   * @return The targets of the bookmarks.
+   */
+  public Set getBookmarkTargets() {
+    return Collections.unmodifiableSet(bookmarkTargets);
+  }
+
+  /**
+   * Tells which construct of the document, if any, prevents its page sequences from being
+   * rendered separately.
+   *
+   * @return The name of the construct, or <code>null</code> if there is none.
+   */
+  public String getUnsupportedFeature() {
+    return unsupportedFeature;
+  }
+
+  /**
+   * A page sequence of the document.
+   */
+  public static class PageSequence {
+    private final int index;
+    private final String initialPageNumber;
+    private final String forcePageCount;
+    private final Set ids = new HashSet();
+    private final Set citations = new LinkedHashSet();
+    private final Set lastCitations = new LinkedHashSet();
+    private final Set links = new LinkedHashSet();
+    private long weight;
+
+    PageSequence(int index, String initialPageNumber, String forcePageCount) {
+      this.index = index;
+      this.initialPageNumber = (initialPageNumber == null) ? "auto" : initialPageNumber.trim();
+      this.forcePageCount = (forcePageCount == null) ? "auto" : forcePageCount.trim();
+    }
+
+    /**
+     * Returns the index of the page sequence, in document order.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Returns the value of the <code>initial-page-number</code> property.
+     */
+    public String getInitialPageNumber() {
+      return initialPageNumber;
+    }
+
+    /**
+     * Returns the value of the <code>force-page-count</code> property.
+     */
+    public String getForcePageCount() {
+      return forcePageCount;
+    }
+
+    /**
+     * Returns the identifiers defined in the page sequence.
+     */
+    public Set getIds() {
+      return ids;
+    }
+
+    /**
+     * Returns the identifiers whose first page is cited in the page sequence.
+     */
+    public Set getCitations() {
+      return citations;
+    }
+
+    /**
+     * Returns the identifiers whose last page is cited in the page sequence.
+     */
+    public Set getLastCitations() {
+      return lastCitations;
+    }
+
+    /**
+     * Returns the identifiers the links of the page sequence point to.
+     */
+    public Set getLinks() {
+      return links;
+    }
+
+    /**
+     * Returns a measure of the size of the page sequence: the number of elements and characters
+     * it holds.
+     */
+    public long getWeight() {
+      return weight;
+    }
+  }
+
+  /**
+   * A bookmark of the document.
+   */
+  public static class Bookmark {
+    private final StringBuffer title = new StringBuffer();
+    private final boolean shown;
+    private final String internalDestination;
+    private final String externalDestination;
+    private final boolean newWindow;
+    private final List children = new ArrayList();
+
+    Bookmark(Attributes atts) {
+      this.shown = !"hide".equals(atts.getValue("starting-state"));
+      this.internalDestination = atts.getValue("internal-destination");
+      this.externalDestination = atts.getValue("external-destination");
+      this.newWindow = "new".equals(atts.getValue("show-destination"));
+    }
+
+    /**
+     * Returns the title of the bookmark.
+     */
+    public String getTitle() {
+      return title.toString();
+    }
+
+    /**
+     * Tells if the children of the bookmark are initially shown.
+     */
+    public boolean isShown() {
+      return shown;
+    }
+
+    /**
+     * Returns the identifier the bookmark points to, or <code>null</code>.
+     */
+    public String getInternalDestination() {
+      return internalDestination;
+    }
+
+    /**
+     * Returns the URI the bookmark points to, or <code>null</code>.
+     */
+    public String getExternalDestination() {
+      return externalDestination;
+    }
+
+    /**
+     * Tells if the URI the bookmark points to should be opened in a new window.
+     */
+    public boolean isNewWindow() {
+      return newWindow;
+    }
+
+    /**
+     * Returns the children of the bookmark. (Instances of {@link Bookmark}.)
+     */
+    public List getChildren() {
+      return children;
+    }
+  }
+
+  /**
+   * The handler reading the outline from the events of the document.
+   */
+  private class Reader extends DefaultHandler {
+    /**
+     * The depth of the current element, <code>1</code> being the root element.
+     */
+    private int depth;
+
+    /**
+     * The page sequence being read, if any.
+     */
+    private PageSequence current;
+
+    /**
+     * The bookmarks being read, innermost last.
+     */
+    private final List openBookmarks = new ArrayList();
+
+    /**
+     * Whether the characters belong to the title of the innermost bookmark.
+     */
+    private boolean inTitle;
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+      depth++;
+      final boolean fo = FO_NAMESPACE.equals(uri);
+
+      if (depth == 2 && fo && "page-sequence".equals(localName)) {
+        current = new PageSequence(pageSequences.size(), atts.getValue("initial-page-number"),
+            atts.getValue("force-page-count"));
+        pageSequences.add(current);
+      } else if (depth == 2 && ((fo && "page-sequence-wrapper".equals(localName))
+          || (FOX_NAMESPACE.equals(uri) && "external-document".equals(localName)))) {
+        unsupported(qName);
+      } else if (fo && "bookmark".equals(localName)) {
+        final Bookmark bookmark = new Bookmark(atts);
+        if (openBookmarks.isEmpty()) {
+          bookmarks.add(bookmark);
+        } else {
+          ((Bookmark) openBookmarks.get(openBookmarks.size() - 1)).children.add(bookmark);
+        }
+        openBookmarks.add(bookmark);
+        if (bookmark.internalDestination != null) {
+          bookmarkTargets.add(bookmark.internalDestination);
+        }
+      } else if (fo && "bookmark-title".equals(localName)) {
+        inTitle = true;
+      }
+
+      if (current != null) {
+        current.weight++;
+        final String id = atts.getValue("id");
+        if (id != null && fo) {
+          current.ids.add(id);
+          owners.put(id, new Integer(current.index));
+        }
+        if (fo && "page-number-citation".equals(localName)) {
+          current.citations.add(atts.getValue("ref-id"));
+        } else if (fo && "page-number-citation-last".equals(localName)) {
+          current.lastCitations.add(atts.getValue("ref-id"));
+        } else if (fo && "basic-link".equals(localName) && atts.getValue("internal-destination") != null) {
+          current.links.add(atts.getValue("internal-destination"));
+        } else if (fo && ("index-page-citation-list".equals(localName) || "index-key-reference".equals(localName))) {
+          unsupported(qName);
+        }
+      }
+    }
+
+    public void endElement(String uri, String localName, String qName) {
+      if (depth == 2) {
+        current = null;
+      }
+      if (FO_NAMESPACE.equals(uri) && "bookmark".equals(localName)) {
+        openBookmarks.remove(openBookmarks.size() - 1);
+      } else if (FO_NAMESPACE.equals(uri) && "bookmark-title".equals(localName)) {
+        inTitle = false;
+      }
+      depth--;
+    }
+
+    public void characters(char[] ch, int start, int length) {
+      if (current != null) {
+        current.weight += length;
+      } else if (inTitle) {
+        ((Bookmark) openBookmarks.get(openBookmarks.size() - 1)).title.append(ch, start, length);
+      }
+    }
+
+    private void unsupported(String qName) {
+      if (unsupportedFeature == null) {
+        unsupportedFeature = qName;
+      }
+    }
+  }
+}
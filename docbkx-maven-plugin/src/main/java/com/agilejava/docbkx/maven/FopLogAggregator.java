@@ -0,0 +1,279 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.fop.events.Event;
+import org.apache.fop.events.EventFormatter;
+import org.apache.fop.events.EventListener;
+import org.apache.fop.events.model.EventSeverity;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Aggregates the messages FOP logs for a document. Messages are grouped by template: the event
+ * they report, or else the message with its numbers and quoted text left out. Only the first few
+ * messages of every template are logged; all of them are counted, and summarized in a table once
+ * the document has been rendered. Messages are attributed to the document rendered by the thread
+ * logging them; the messages of other threads are logged as usual.
+ */
+public class FopLogAggregator implements EventListener {
+  /**
+   * The name of the log4j appender handing messages over to the aggregators.
+   */
+  private static final String APPENDER_NAME = "docbkx-aggregator";
+
+  /**
+   * The maximum number of templates listed by the summary.
+   */
+  private static final int MAX_SUMMARY_ROWS = 25;
+
+  /**
+   * The aggregator of the document rendered by the current thread. (An instance of this class.)
+   */
+  private static final ThreadLocal CURRENT = new ThreadLocal();
+
+  /**
+   * The logger checked for the level of FOP events, the one they are logged to otherwise.
+   */
+  private static final Logger EVENT_LOGGER = Logger.getLogger("org.apache.fop.apps.FOUserAgent");
+
+  private final Log log;
+  private final String document;
+  private final int samples;
+
+  /**
+   * The messages logged, by template. (Maps keys to instances of {@link Template}.)
+   */
+  private final Map templates = new HashMap();
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param log      The Maven log.
+   * @param document The name of the document rendered.
+   * @param samples  The number of messages of the same template logged.
+   */
+  public FopLogAggregator(Log log, String document, int samples) {
+    this.log = log;
+    this.document = document;
+    this.samples = samples;
+  }
+
+  /**
+   * Attaches the appender handing messages over to the aggregators to a log4j logger, which then
+   * no longer passes messages on to the appenders of its parents itself; or detaches it again.
+   *
+   * @param logger    The logger.
+   * @param aggregate <code>true</code> to attach the appender, <code>false</code> to detach it.
+   */
+  public static void configure(Logger logger, boolean aggregate) {
+    if (aggregate && logger.getAppender(APPENDER_NAME) == null) {
+      final Appender appender = new Appender();
+      appender.setName(APPENDER_NAME);
+      logger.addAppender(appender);
+      logger.setAdditivity(false);
+    } else if (!aggregate && logger.getAppender(APPENDER_NAME) != null) {
+      logger.removeAppender(APPENDER_NAME);
+      logger.setAdditivity(true);
+    }
+  }
+
+  /**
+   * Starts aggregating the messages logged by the current thread.
+   */
+  public void start() {
+    CURRENT.set(this);
+  }
+
+  /**
+   * Stops aggregating the messages logged by the current thread.
+   */
+  public void stop() {
+    CURRENT.set(null);
+  }
+
+  /**
+   * {@inheritDoc} Aggregates the FOP events of the document, by event.
+   */
+  public void processEvent(Event event) {
+    final Level level;
+    if (event.getSeverity() == EventSeverity.INFO) {
+      level = Level.INFO;
+    } else if (event.getSeverity() == EventSeverity.WARN) {
+      level = Level.WARN;
+    } else if (event.getSeverity() == EventSeverity.ERROR) {
+      level = Level.ERROR;
+    } else {
+      level = Level.FATAL;
+    }
+    if (EVENT_LOGGER.isEnabledFor(level)) {
+      final Object e = event.getParam("e");
+      aggregate(event.getEventID(), level, EventFormatter.format(event), (e instanceof Throwable) ? (Throwable) e : null);
+    }
+  }
+
+  /**
+   * Counts a message, logging it if it is one of the first of its template.
+   *
+   * @param key       The key of the template of the message.
+   * @param level     The level of the message.
+   * @param message   The message.
+   * @param throwable The exception logged with the message, or <code>null</code>.
+   */
+  void aggregate(String key, Level level, String message, Throwable throwable) {
+    final int count;
+    synchronized (templates) {
+      Template template = (Template) templates.get(key);
+      if (template == null) {
+        template = new Template(toTemplate(message), level);
+        templates.put(key, template);
+      }
+      count = ++template.count;
+    }
+    if (count <= samples) {
+      log(level, message, throwable);
+    }
+  }
+
+  /**
+   * Summarizes the messages logged for the document, if some have not been logged.
+   */
+  public void summarize() {
+    final List rows;
+    int total = 0;
+    synchronized (templates) {
+      rows = new ArrayList(templates.values());
+    }
+    for (Iterator i = rows.iterator(); i.hasNext();) {
+      total += ((Template) i.next()).count;
+    }
+    if (total == 0) {
+      return;
+    }
+    Collections.sort(rows, new Comparator() {
+      public int compare(Object o1, Object o2) {
+        return ((Template) o2).count - ((Template) o1).count;
+      }
+    });
+
+    log.info("FOP logged " + total + " messages of " + rows.size() + " kinds for " + document + ", "
+        + (total - countLogged(rows)) + " of which have not been shown:");
+    for (int i = 0; i < rows.size() && i < MAX_SUMMARY_ROWS; i++) {
+      final Template template = (Template) rows.get(i);
+      final String count = String.valueOf(template.count);
+      final StringBuffer row = new StringBuffer("        ".substring(Math.min(8, count.length())));
+      row.append(count).append(" x ").append(template.text);
+      log(template.level, row.toString(), null);
+    }
+    if (rows.size() > MAX_SUMMARY_ROWS) {
+      log.info("    ... and " + (rows.size() - MAX_SUMMARY_ROWS) + " more kinds of messages.");
+    }
+  }
+
+  /**
+   * Returns the number of messages that have been logged.
+   *
+   * @param templates The templates. (Instances of {@link Template}.)
+   * @return The number of messages logged.
+   */
+  private int countLogged(List templates) {
+    int logged = 0;
+    for (Iterator i = templates.iterator(); i.hasNext();) {
+      logged += Math.min(samples, ((Template) i.next()).count);
+    }
+    return logged;
+  }
+
+  private void log(Level level, String message, Throwable throwable) {
+    if (level.isGreaterOrEqual(Level.ERROR)) {
+      log.error(message, throwable);
+    } else if (level.isGreaterOrEqual(Level.WARN)) {
+      log.warn(message, throwable);
+    } else if (level.isGreaterOrEqual(Level.INFO)) {
+      log.info(message, throwable);
+    } else {
+      log.debug(message, throwable);
+    }
+  }
+
+  /**
+   * Returns the template of a message, leaving out numbers and quoted text.
+   *
+   * @param message The message.
+   * @return The template.
+   */
+  static String toTemplate(String message) {
+    return message.replaceAll("\"[^\"]*\"", "\"...\"").replaceAll("'[^']*'", "'...'")
+        .replaceAll("\\b(0x[0-9a-fA-F]+|\\d+(\\.\\d+)?)", "#");
+  }
+
+  /**
+   * The messages logged of the same template.
+   */
+  private static class Template {
+    private final String text;
+    private final Level level;
+    private int count;
+
+    Template(String text, Level level) {
+      this.text = text;
+      this.level = level;
+    }
+  }
+
+  /**
+   * The log4j appender handing messages over to the aggregator of the document rendered by the
+   * thread logging them, or else to the appenders of the root logger.
+   */
+  private static class Appender extends AppenderSkeleton {
+    protected void append(LoggingEvent event) {
+      final FopLogAggregator aggregator = (FopLogAggregator) CURRENT.get();
+      if (aggregator == null) {
+        Logger.getRootLogger().callAppenders(event);
+        return;
+      }
+      final String message = event.getRenderedMessage();
+      final ThrowableInformation information = event.getThrowableInformation();
+      final String template = toTemplate(String.valueOf(message));
+      aggregator.aggregate(event.getLoggerName() + ':' + template, event.getLevel(), message,
+          (information == null) ? null : information.getThrowable());
+    }
+
+    public boolean requiresLayout() {
+      return false;
+    }
+
+    public void close() {
+    }
+  }
+}
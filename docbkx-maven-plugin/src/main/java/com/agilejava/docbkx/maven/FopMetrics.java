@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+
+import org.apache.xmlgraphics.image.loader.cache.ImageCacheListener;
+import org.apache.xmlgraphics.image.loader.cache.ImageKey;
+
+/**
+ * The metrics of a document rendered by FOP: the number of pages, the time spent building the FO
+ * tree, laying out and rendering pages, and the fonts and images loaded. Times are in milliseconds;
+ * metrics that could not be measured for a document are -1. The FO tree building time is what is
+ * left of the total time once font setup, layout and rendering are accounted for; when the FO
+ * output of the stylesheets is streamed into FOP, it includes the time the stylesheets took to
+ * produce it.
+ */
+public class FopMetrics {
+  /**
+   * The header of the CSV report.
+   */
+  static final String CSV_HEADER = "date,outputFile,format,pages,totalMillis,pagesPerSecond,treeBuildingMillis,"
+      + "fontSetupMillis,layoutMillis,renderingMillis,fontsUsed,imageLoads,imageCacheHits";
+
+  /**
+   * The metrics of the document being rendered for the current thread, counting the images it
+   * loads. (An instance of this class.)
+   */
+  private static final ThreadLocal COUNTING_IMAGES = new ThreadLocal();
+
+  /**
+   * Counts the images loaded by FOP for the documents being rendered, on the threads rendering
+   * them.
+   */
+  private static final ImageCacheListener IMAGE_CACHE_LISTENER = new ImageCacheListener() {
+    public void invalidHit(String uri) {
+    }
+
+    public void cacheHitImageInfo(String uri) {
+      final FopMetrics metrics = (FopMetrics) COUNTING_IMAGES.get();
+      if (metrics != null) {
+        metrics.imageCacheHits++;
+      }
+    }
+
+    public void cacheMissImageInfo(String uri) {
+      final FopMetrics metrics = (FopMetrics) COUNTING_IMAGES.get();
+      if (metrics != null) {
+        metrics.imageLoads++;
+      }
+    }
+
+    public void cacheHitImage(ImageKey key) {
+    }
+
+    public void cacheMissImage(ImageKey key) {
+    }
+  };
+
+  private final File outputFile;
+  private final String format;
+  private final long start = System.currentTimeMillis();
+  long totalTime = -1;
+  long fontSetupTime = -1;
+  long layoutTime = -1;
+  long renderingTime = -1;
+  int pages = -1;
+  int fontsUsed = -1;
+  int imageLoads = -1;
+  int imageCacheHits = -1;
+
+  /**
+   * Constructs a new instance, for a document starting to render.
+   *
+   * @param outputFile The file rendered by FOP.
+   * @param format     The file extension of the format rendered.
+   */
+  public FopMetrics(File outputFile, String format) {
+    this.outputFile = outputFile;
+    this.format = format;
+  }
+
+  /**
+   * Returns the listener to register with the image cache of FOP in order to count the images
+   * loaded by the documents.
+   *
+   * @return The listener.
+   */
+  public static ImageCacheListener getImageCacheListener() {
+    return IMAGE_CACHE_LISTENER;
+  }
+
+  /**
+   * Starts counting the images loaded on the current thread, until {@link #stopCountingImages()}.
+   * Images are only loaded once by FOP, the next documents finding them in the image cache.
+   */
+  public void startCountingImages() {
+    imageLoads = 0;
+    imageCacheHits = 0;
+    COUNTING_IMAGES.set(this);
+  }
+
+  /**
+   * Stops counting the images loaded on the current thread.
+   */
+  public void stopCountingImages() {
+    COUNTING_IMAGES.set(null);
+  }
+
+  /**
+   * Records the end of the rendering, setting the total time.
+   */
+  public void finish() {
+    totalTime = System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Returns the time spent building the FO tree.
+   *
+   * @return The FO tree building time, or -1 if the layout time is not known.
+   */
+  public long getTreeBuildingTime() {
+    if (totalTime < 0 || layoutTime < 0 || renderingTime < 0) {
+      return -1;
+    }
+    return Math.max(0, totalTime - Math.max(0, fontSetupTime) - layoutTime - renderingTime);
+  }
+
+  /**
+   * Returns the number of pages rendered per second.
+   *
+   * @return The rendering speed, or -1 if not known.
+   */
+  public double getPagesPerSecond() {
+    if (pages < 0 || totalTime <= 0) {
+      return -1;
+    }
+    return pages * 1000.0 / totalTime;
+  }
+
+  /**
+   * Summarizes the metrics, the way they are logged.
+   *
+   * @return The summary.
+   */
+  public String getSummary() {
+    final StringBuffer summary = new StringBuffer(outputFile.getName()).append(": ");
+    if (pages >= 0) {
+      summary.append(pages).append(" pages in ").append(totalTime).append(" ms (")
+          .append(Math.round(getPagesPerSecond() * 10) / 10.0).append(" pages/s)");
+    } else {
+      summary.append("rendered in ").append(totalTime).append(" ms");
+    }
+    if (getTreeBuildingTime() >= 0) {
+      summary.append("; FO tree ").append(getTreeBuildingTime()).append(" ms, fonts ").append(fontSetupTime)
+          .append(" ms, layout ").append(layoutTime).append(" ms, rendering ").append(renderingTime).append(" ms");
+    }
+    if (fontsUsed >= 0) {
+      summary.append("; ").append(fontsUsed).append(" fonts used");
+    }
+    if (imageLoads >= 0) {
+      summary.append("; ").append(imageLoads).append(" images loaded, ").append(imageCacheHits)
+          .append(" found in the image cache");
+    }
+    return summary.append('.').toString();
+  }
+
+  /**
+   * Formats the metrics as a line of the CSV report.
+   *
+   * @param date The date of the report.
+   * @return The line, without line terminator.
+   */
+  String toCsv(Date date) {
+    final StringBuffer line = new StringBuffer();
+    line.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(date)).append(',');
+    line.append('"').append(outputFile.getAbsolutePath().replaceAll("\"", "\"\"")).append('"').append(',');
+    line.append(format).append(',').append(pages).append(',').append(totalTime).append(',');
+    line.append(Math.round(getPagesPerSecond() * 100) / 100.0).append(',').append(getTreeBuildingTime()).append(',');
+    line.append(fontSetupTime).append(',').append(layoutTime).append(',').append(renderingTime).append(',');
+    line.append(fontsUsed).append(',').append(imageLoads).append(',').append(imageCacheHits);
+    return line.toString();
+  }
+
+  /**
+   * Appends the metrics of documents to a CSV report, writing its header first if the report does
+   * not exist yet, so that the report keeps the metrics of the previous builds until cleaned.
+   *
+   * @param report  The CSV report.
+   * @param metrics The metrics of the documents. (Instances of this class.)
+   * @throws IOException If the report cannot be written.
+   */
+  public static void appendToReport(File report, List metrics) throws IOException {
+    final boolean exists = report.exists();
+    report.getParentFile().mkdirs();
+    final Date date = new Date();
+    Writer out = null;
+    try {
+      out = new OutputStreamWriter(new FileOutputStream(report, true), "UTF-8");
+      if (!exists) {
+        out.write(CSV_HEADER);
+        out.write('\n');
+      }
+      for (Iterator i = metrics.iterator(); i.hasNext();) {
+        out.write(((FopMetrics) i.next()).toCsv(date));
+        out.write('\n');
+      }
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+  }
+}
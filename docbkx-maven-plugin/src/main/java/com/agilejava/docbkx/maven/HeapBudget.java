@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+/**
+ * A share of the heap, handed out to the documents rendered concurrently by FOP according to
+ * their estimated footprint. A document is only admitted while the footprints of all documents
+ * being rendered fit in the budget, except when no other document is being rendered: a document
+ * larger than the whole budget is then rendered on its own.
+ */
+public class HeapBudget {
+  /**
+   * The number of bytes that may be handed out.
+   */
+  private final long capacity;
+
+  /**
+   * The number of bytes handed out to the documents being rendered.
+   */
+  private long used;
+
+  /**
+   * The number of documents being rendered.
+   */
+  private int admitted;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param capacity The number of bytes that may be handed out.
+   */
+  public HeapBudget(long capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Waits until a document with the given footprint fits in the budget, and admits it.
+   *
+   * @param footprint The estimated footprint of the document, in bytes.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public synchronized void acquire(long footprint) throws InterruptedException {
+    while (admitted > 0 && used + footprint > capacity) {
+      wait();
+    }
+    used += footprint;
+    admitted++;
+  }
+
+  /**
+   * Returns the share of a document that has been rendered to the budget.
+   *
+   * @param footprint The footprint the document has been admitted with.
+   */
+  public synchronized void release(long footprint) {
+    used -= footprint;
+    admitted--;
+    notifyAll();
+  }
+
+  /**
+   * Returns the number of bytes that may be handed out.
+   *
+   * @return The capacity of the budget.
+   */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns the number of bytes currently handed out.
+   *
+   * @return The sum of the footprints of the documents being rendered.
+   */
+  public synchronized long getUsed() {
+    return used;
+  }
+}
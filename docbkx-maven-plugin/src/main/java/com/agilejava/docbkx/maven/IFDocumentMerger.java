@@ -0,0 +1,316 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.awt.Dimension;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.fop.datatypes.URISpecification;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFDocumentNavigationHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.extensions.AbstractAction;
+import org.apache.fop.render.intermediate.extensions.Bookmark;
+import org.apache.fop.render.intermediate.extensions.BookmarkTree;
+import org.apache.fop.render.intermediate.extensions.GoToXYAction;
+import org.apache.fop.render.intermediate.extensions.Link;
+import org.apache.fop.render.intermediate.extensions.NamedDestination;
+import org.apache.fop.render.intermediate.extensions.URIAction;
+import org.apache.fop.render.intermediate.util.IFDocumentHandlerProxy;
+
+/**
+ * An {@link IFDocumentHandler} merging the intermediate format of documents rendered from
+ * consecutive page sequences of an FO document into a single document. Unlike FOP's
+ * <code>IFConcatenator</code>, the links and named destinations of the documents are kept, the
+ * links pointing to other documents are resolved, and the bookmarks of the FO document are
+ * written once all documents have been merged.
+ *
+ * <p>The bookmarks of the merged documents are expected to be the ones written by
+ * {@link PageSequenceFilter}, telling the position of the identifiers pointed to from other
+ * documents.</p>
+ */
+public class IFDocumentMerger extends IFDocumentHandlerProxy {
+  /**
+   * The positions of the identifiers found so far, by identifier. (Instances of
+   * {@link GoToXYAction}, relative to the merged document.)
+   */
+  private final Map positions = new HashMap();
+
+  /**
+   * The identifiers pointed to by links before their position was known.
+   */
+  private final Set unresolved = new LinkedHashSet();
+
+  /**
+   * The identifiers the document being merged points to without defining them.
+   */
+  private Set externalTargets = Collections.EMPTY_SET;
+
+  /**
+   * The named destinations of the documents merged so far, written along with the bookmarks.
+   * (Instances of {@link NamedDestination}.)
+   */
+  private final List destinations = new ArrayList();
+
+  /**
+   * The identifiers of the URI actions, by URI.
+   */
+  private final Map uriActions = new HashMap();
+
+  private final Navigation navigation = new Navigation();
+
+  /**
+   * The index of the first page of the document being merged, in the merged document.
+   */
+  private int pageOffset;
+
+  /**
+   * The number of pages of the documents merged so far, including the one being merged.
+   */
+  private int pageCount;
+
+  /**
+   * Whether the first document is being merged.
+   */
+  private boolean first = true;
+
+  private boolean inPageSequence;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param delegate The handler receiving the merged document.
+   */
+  public IFDocumentMerger(IFDocumentHandler delegate) {
+    super(delegate);
+  }
+
+  public void startDocument() throws IFException {
+    if (first) {
+      super.startDocument();
+    }
+  }
+
+  public void setDocumentLocale(Locale locale) {
+    if (first) {
+      super.setDocumentLocale(locale);
+    }
+  }
+
+  public void startDocumentHeader() throws IFException {
+    if (first) {
+      super.startDocumentHeader();
+    }
+  }
+
+  public void endDocumentHeader() throws IFException {
+    if (first) {
+      super.endDocumentHeader();
+    }
+  }
+
+  public void startPageSequence(String id) throws IFException {
+    inPageSequence = true;
+    super.startPageSequence(id);
+  }
+
+  public void endPageSequence() throws IFException {
+    super.endPageSequence();
+    inPageSequence = false;
+  }
+
+  public void startPage(int index, String name, String pageMasterName, Dimension size) throws IFException {
+    pageCount = Math.max(pageCount, pageOffset + index + 1);
+    super.startPage(pageOffset + index, name, pageMasterName, size);
+  }
+
+  public void handleExtensionObject(Object extension) throws IFException {
+    // the metadata of the merged document is the one of the first document
+    if (first || inPageSequence) {
+      super.handleExtensionObject(extension);
+    }
+  }
+
+  public void startDocumentTrailer() throws IFException {
+    // the trailer is written once all documents have been merged
+  }
+
+  public void endDocumentTrailer() throws IFException {
+    // the trailer is written once all documents have been merged
+  }
+
+  public void endDocument() throws IFException {
+    // the pages of the next document follow the ones of this document
+    pageOffset = pageCount;
+    first = false;
+    externalTargets = Collections.EMPTY_SET;
+  }
+
+  /**
+   * Sets the identifiers the next document points to, but which are defined by other documents.
+   * Their positions within the next document are ignored, in favor of their positions in the
+   * documents defining them. (See {@link PageSequenceFilter}.)
+   *
+   * @param ids The identifiers defined by other documents.
+   */
+  public void setExternalTargets(Set ids) {
+    this.externalTargets = ids;
+  }
+
+  public IFDocumentNavigationHandler getDocumentNavigationHandler() {
+    return (delegate.getDocumentNavigationHandler() == null) ? null : navigation;
+  }
+
+  /**
+   * Completes the merged document, once all documents have been merged: resolves the links that
+   * point to identifiers found after them, and writes the named destinations and the bookmarks.
+   *
+   * @param bookmarks The bookmarks of the FO document. (Instances of {@link FoOutline.Bookmark}.)
+   * @throws IFException If the document cannot be completed.
+   */
+  public void finish(List bookmarks) throws IFException {
+    super.startDocumentTrailer();
+    final IFDocumentNavigationHandler target = delegate.getDocumentNavigationHandler();
+    if (target != null) {
+      for (Iterator iterator = destinations.iterator(); iterator.hasNext();) {
+        target.renderNamedDestination((NamedDestination) iterator.next());
+      }
+      for (Iterator iterator = unresolved.iterator(); iterator.hasNext();) {
+        final GoToXYAction position = (GoToXYAction) positions.get(iterator.next());
+        if (position != null) {
+          target.addResolvedAction(position);
+        }
+      }
+      if (!bookmarks.isEmpty()) {
+        final BookmarkTree tree = new BookmarkTree();
+        for (Iterator iterator = bookmarks.iterator(); iterator.hasNext();) {
+          tree.addBookmark(toBookmark((FoOutline.Bookmark) iterator.next()));
+        }
+        target.renderBookmarkTree(tree);
+      }
+    }
+    super.endDocumentTrailer();
+    super.endDocument();
+  }
+
+  private Bookmark toBookmark(FoOutline.Bookmark source) {
+    AbstractAction action = null;
+    if (source.getInternalDestination() != null) {
+      action = (GoToXYAction) positions.get(source.getInternalDestination());
+      if (action == null) {
+        action = new GoToXYAction(source.getInternalDestination());
+      }
+    } else if (source.getExternalDestination() != null) {
+      action = toMergedAction(new URIAction(URISpecification.getURL(source.getExternalDestination()),
+          source.isNewWindow()));
+    }
+
+    final Bookmark bookmark = new Bookmark(source.getTitle(), source.isShown(), action);
+    for (Iterator iterator = source.getChildren().iterator(); iterator.hasNext();) {
+      bookmark.addChildBookmark(toBookmark((FoOutline.Bookmark) iterator.next()));
+    }
+    return bookmark;
+  }
+
+  /**
+   * Returns the action to use in the merged document in place of an action of the document being
+   * merged.
+   */
+  private AbstractAction toMergedAction(AbstractAction action) {
+    if (action instanceof GoToXYAction) {
+      final GoToXYAction goTo = (GoToXYAction) action;
+      final boolean external = externalTargets.contains(goTo.getID());
+      if (goTo.isComplete() && !external) {
+        return new GoToXYAction(goTo.getID(), pageOffset + goTo.getPageIndex(), goTo.getTargetLocation());
+      }
+      final GoToXYAction position = (GoToXYAction) positions.get(goTo.getID());
+      if (position != null) {
+        return position;
+      }
+      unresolved.add(goTo.getID());
+      return external ? new GoToXYAction(goTo.getID()) : goTo;
+    } else if (action instanceof URIAction) {
+      // the identifiers of URI actions are only unique within the document being merged
+      final URIAction uri = (URIAction) action;
+      final String key = uri.getURI() + (uri.isNewWindow() ? "#new" : "#replace");
+      String id = (String) uriActions.get(key);
+      if (id == null) {
+        id = "uri-merged-" + (uriActions.size() + 1);
+        uriActions.put(key, id);
+      }
+      final URIAction merged = new URIAction(uri.getURI(), uri.isNewWindow());
+      merged.setID(id);
+      return merged;
+    }
+    return action;
+  }
+
+  /**
+   * Records the position of an identifier.
+   */
+  private void addPosition(AbstractAction action) {
+    if (action instanceof GoToXYAction && action.isComplete()) {
+      positions.put(action.getID(), action);
+    }
+  }
+
+  /**
+   * The navigation handler of the merged document.
+   */
+  private class Navigation implements IFDocumentNavigationHandler {
+    public void renderNamedDestination(NamedDestination destination) throws IFException {
+      final AbstractAction action = toMergedAction(destination.getAction());
+      addPosition(action);
+      destinations.add(new NamedDestination(destination.getName(), action));
+    }
+
+    public void renderBookmarkTree(BookmarkTree tree) throws IFException {
+      // these are the bookmarks written by the PageSequenceFilter
+      for (Iterator iterator = tree.getBookmarks().iterator(); iterator.hasNext();) {
+        addPosition(toMergedAction(((Bookmark) iterator.next()).getAction()));
+      }
+    }
+
+    public void renderLink(Link link) throws IFException {
+      final AbstractAction action = toMergedAction(link.getAction());
+      delegate.getDocumentNavigationHandler().renderLink(new Link(action, link.getTargetRect()));
+    }
+
+    public void addResolvedAction(AbstractAction action) throws IFException {
+      final AbstractAction merged = toMergedAction(action);
+      if (!merged.isComplete()) {
+        // the position of an identifier of another document
+        return;
+      }
+      addPosition(merged);
+      unresolved.remove(merged.getID());
+      delegate.getDocumentNavigationHandler().addResolvedAction(merged);
+    }
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import org.w3c.dom.NodeList;
+
+/**
+ * A cache of PNG and JPEG images prepared for the output resolution, so that FOP does not need
+ * to decode images at a higher resolution than the output resolution on every build. Images with
+ * a higher resolution are scaled down to the output resolution once, keeping their size; images
+ * that do not need to be scaled are passed on to FOP as they are.
+ *
+ * <p>
+ * The prepared images are stored by the SHA-256 digest of the original image and the output
+ * resolution, so that they are found again as long as neither changes, whatever the location of
+ * the original image. As a <code>URIResolver</code>, the cache hands the prepared images out to
+ * FOP in place of the original images. Instances may be shared by several threads.
+ * </p>
+ */
+public class ImageCache implements URIResolver {
+  /**
+   * The resolution FOP assumes for images without resolution information by default.
+   */
+  private static final int DEFAULT_SOURCE_RESOLUTION = 72;
+
+  private static final float MILLIMETERS_PER_INCH = 25.4f;
+
+  private static final String PNG_METADATA_FORMAT = "javax_imageio_png_1.0";
+
+  private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+  /**
+   * The quality of JPEG images scaled down, between <code>0</code> and <code>1</code>.
+   */
+  private static final float JPEG_QUALITY = 0.9f;
+
+  /**
+   * The extension of the empty file recording that an image does not need to be prepared.
+   */
+  private static final String UNCHANGED = ".unchanged";
+
+  /**
+   * The directory holding the prepared images.
+   */
+  private final File directory;
+
+  /**
+   * The resolution of the output, in dpi.
+   */
+  private final int targetResolution;
+
+  /**
+   * The resolution assumed for images without resolution information, in dpi.
+   */
+  private final int sourceResolution;
+
+  /**
+   * The fingerprints of the original images.
+   */
+  private final FingerprintStore fingerprints;
+
+  private final Log log;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param directory        The directory holding the prepared images.
+   * @param targetResolution The resolution of the output, in dpi, or <code>0</code> to leave all
+   *                         images as they are.
+   * @param sourceResolution The resolution assumed for images without resolution information, in
+   *                         dpi, or <code>0</code> for FOP's default.
+   * @param log              The <code>Log</code> to report to.
+   */
+  public ImageCache(File directory, int targetResolution, int sourceResolution, Log log) {
+    this.directory = directory;
+    this.targetResolution = targetResolution;
+    this.sourceResolution = (sourceResolution > 0) ? sourceResolution : DEFAULT_SOURCE_RESOLUTION;
+    this.fingerprints = new FingerprintStore(new File(directory, "fingerprints.properties"));
+    this.log = log;
+  }
+
+  /**
+   * Returns the prepared image for a local image, if it has been resolved relative to the base
+   * URL; other resources are left to FOP.
+   *
+   * @param href The URI of the resource.
+   * @param base The base URL, possibly <code>null</code>.
+   * @return The prepared image, or <code>null</code> if FOP should resolve the resource itself.
+   */
+  public Source resolve(String href, String base) {
+    final File file;
+    try {
+      file = FileUtils.toFile((base == null) ? new URL(href) : new URL(new URL(base), href));
+    } catch (MalformedURLException mue) {
+      return null;
+    }
+    if (file == null || !file.isFile()) {
+      return null;
+    }
+
+    final File image = getImage(file);
+    return (image == file) ? null : new StreamSource(image);
+  }
+
+  /**
+   * Returns the image to pass on to FOP in place of an original image.
+   *
+   * @param file The original image.
+   * @return The prepared image, or the original image if it does not need to be prepared, or
+   *         fails to.
+   */
+  public File getImage(File file) {
+    if (targetResolution <= 0) {
+      return file;
+    }
+    final String name = file.getName().toLowerCase();
+    final String format;
+    if (name.endsWith(".png")) {
+      format = "png";
+    } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+      format = "jpeg";
+    } else {
+      return file;
+    }
+
+    try {
+      final String key = fingerprints.getFingerprint(file) + "-" + targetResolution;
+      final File prepared = new File(directory, key + "." + format);
+      if (prepared.isFile()) {
+        return prepared;
+      }
+      final File unchanged = new File(directory, key + UNCHANGED);
+      if (unchanged.isFile()) {
+        return file;
+      }
+
+      directory.mkdirs();
+      if (prepare(file, format, prepared)) {
+        return prepared;
+      }
+      unchanged.createNewFile();
+    } catch (IOException ioe) {
+      log.debug("Failed to prepare " + file + " for " + targetResolution + " dpi.", ioe);
+    }
+    return file;
+  }
+
+  /**
+   * Saves the fingerprints of the original images, for the next build.
+   *
+   * @throws IOException If the fingerprints cannot be written.
+   */
+  public void store() throws IOException {
+    fingerprints.store();
+  }
+
+  /**
+   * Scales an image down to the output resolution, if it has a higher resolution.
+   *
+   * @param file     The original image.
+   * @param format   The format of the image.
+   * @param prepared The file receiving the prepared image.
+   * @return <code>true</code> if the image has been prepared, <code>false</code> if it can be
+   *         passed on as it is.
+   * @throws IOException If the image cannot be read or written.
+   */
+  private boolean prepare(File file, String format, File prepared) throws IOException {
+    final ImageInputStream in = ImageIO.createImageInputStream(file);
+    if (in == null) {
+      return false;
+    }
+    final BufferedImage original;
+    final float resolution;
+    try {
+      final Iterator readers = ImageIO.getImageReaders(in);
+      if (!readers.hasNext()) {
+        return false;
+      }
+      final ImageReader reader = (ImageReader) readers.next();
+      try {
+        reader.setInput(in, true, false);
+        resolution = getResolution(reader.getImageMetadata(0));
+        if (resolution <= targetResolution) {
+          return false;
+        }
+        original = reader.read(0);
+      } finally {
+        reader.dispose();
+      }
+    } finally {
+      in.close();
+    }
+
+    final float scale = targetResolution / resolution;
+    final int width = Math.max(1, Math.round(original.getWidth() * scale));
+    final int height = Math.max(1, Math.round(original.getHeight() * scale));
+    final boolean alpha = original.getColorModel().hasAlpha() && !"jpeg".equals(format);
+    final BufferedImage scaled = new BufferedImage(width, height,
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = scaled.createGraphics();
+    try {
+      graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      graphics.drawImage(original, 0, 0, width, height, null);
+    } finally {
+      graphics.dispose();
+    }
+
+    // written next to the prepared image first, so that other threads never see half of it
+    final File temporary = File.createTempFile("image", ".tmp", directory);
+    try {
+      write(scaled, format, temporary);
+      if (!temporary.renameTo(prepared) && !prepared.isFile()) {
+        throw new IOException("Failed to move " + temporary + " to " + prepared + ".");
+      }
+    } finally {
+      temporary.delete();
+    }
+    return true;
+  }
+
+  /**
+   * Writes an image, recording the output resolution in its metadata, so that FOP renders it at
+   * the size of the original image.
+   */
+  private void write(BufferedImage image, String format, File file) throws IOException {
+    final ImageWriter writer = (ImageWriter) ImageIO.getImageWritersByFormatName(format).next();
+    final ImageOutputStream out = ImageIO.createImageOutputStream(file);
+    try {
+      final ImageWriteParam param = writer.getDefaultWriteParam();
+      if ("jpeg".equals(format)) {
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+      }
+      final IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+      try {
+        setResolution(metadata, format);
+      } catch (IIOInvalidTreeException iite) {
+        throw new IOException("Failed to set the resolution of " + file + ": " + iite.getMessage());
+      }
+
+      writer.setOutput(out);
+      writer.write(null, new IIOImage(image, null, metadata), param);
+    } finally {
+      writer.dispose();
+      out.close();
+    }
+  }
+
+  /**
+   * Sets the output resolution in the metadata of an image. (The standard metadata format cannot
+   * be used, as the PNG writer of some JREs gets the pixel size wrong.)
+   */
+  private void setResolution(IIOMetadata metadata, String format) throws IIOInvalidTreeException {
+    if ("png".equals(format)) {
+      final String pixelsPerMeter = String.valueOf(Math.round(targetResolution * 1000 / MILLIMETERS_PER_INCH));
+      final IIOMetadataNode physical = new IIOMetadataNode("pHYs");
+      physical.setAttribute("pixelsPerUnitXAxis", pixelsPerMeter);
+      physical.setAttribute("pixelsPerUnitYAxis", pixelsPerMeter);
+      physical.setAttribute("unitSpecifier", "meter");
+      final IIOMetadataNode root = new IIOMetadataNode(PNG_METADATA_FORMAT);
+      root.appendChild(physical);
+      metadata.mergeTree(PNG_METADATA_FORMAT, root);
+    } else {
+      final IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+      final IIOMetadataNode jfif = (IIOMetadataNode) root.getElementsByTagName("app0JFIF").item(0);
+      if (jfif == null) {
+        throw new IIOInvalidTreeException("No JFIF segment", root);
+      }
+      jfif.setAttribute("resUnits", "1");
+      jfif.setAttribute("Xdensity", String.valueOf(targetResolution));
+      jfif.setAttribute("Ydensity", String.valueOf(targetResolution));
+      metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+    }
+  }
+
+  /**
+   * Returns the horizontal resolution of an image, as FOP determines it.
+   *
+   * @param metadata The metadata of the image.
+   * @return The resolution, in dpi.
+   */
+  private float getResolution(IIOMetadata metadata) {
+    if (metadata != null && metadata.isStandardMetadataFormatSupported()) {
+      final IIOMetadataNode root =
+          (IIOMetadataNode) metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+      final NodeList sizes = root.getElementsByTagName("HorizontalPixelSize");
+      if (sizes.getLength() > 0) {
+        try {
+          final float size = Float.parseFloat(((IIOMetadataNode) sizes.item(0)).getAttribute("value"));
+          if (size > 0) {
+            return MILLIMETERS_PER_INCH / size;
+          }
+        } catch (NumberFormatException nfe) {
+          // no usable resolution information
+        }
+      }
+    }
+    return sourceResolution;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.area.CachedRenderPagesModel;
+import org.apache.fop.fonts.FontInfo;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A <code>CachedRenderPagesModel</code> keeping the pages waiting for forward references in a
+ * temporary directory of its own. FOP names these files after the pages alone, in the temporary
+ * directory of the JVM, so that documents rendered concurrently would overwrite and delete each
+ * other's pages.
+ */
+public class IsolatedRenderPagesModel extends CachedRenderPagesModel {
+  /**
+   * Constructs a new instance, creating its temporary directory.
+   *
+   * @param userAgent    The user agent of the document.
+   * @param outputFormat The MIME type of the rendered document.
+   * @param fontInfo     The fonts of the document.
+   * @param stream       The stream receiving the rendered document.
+   * @throws FOPException If the renderer or the temporary directory cannot be created.
+   */
+  public IsolatedRenderPagesModel(FOUserAgent userAgent, String outputFormat, FontInfo fontInfo, OutputStream stream)
+      throws FOPException {
+    super(userAgent, outputFormat, fontInfo, stream);
+    try {
+      final File directory = File.createTempFile("fop-pages", "");
+      if (!directory.delete() || !directory.mkdir()) {
+        throw new FOPException("Failed to create " + directory + ".");
+      }
+      directory.deleteOnExit();
+      baseDir = directory;
+    } catch (IOException ioe) {
+      throw new FOPException(ioe);
+    }
+  }
+
+  /**
+   * {@inheritDoc} Deletes the temporary directory, once all pages have been rendered.
+   */
+  public void endDocument() throws SAXException {
+    try {
+      super.endDocument();
+    } finally {
+      final File[] files = baseDir.listFiles();
+      for (int i = 0; files != null && i < files.length; i++) {
+        files[i].delete();
+      }
+      baseDir.delete();
+    }
+  }
+}
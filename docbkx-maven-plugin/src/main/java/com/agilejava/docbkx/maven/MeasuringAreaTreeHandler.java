@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.OutputStream;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.area.AreaTreeHandler;
+import org.apache.fop.area.PageViewport;
+import org.apache.fop.area.RenderPagesModel;
+import org.apache.fop.fo.pagination.PageSequence;
+import org.apache.fop.fonts.FontInfo;
+
+import org.xml.sax.SAXException;
+
+/**
+ * An <code>AreaTreeHandler</code> measuring the time FOP spends laying out pages and rendering
+ * them. Pages are laid out when a page sequence ends, or when the next one starts, and rendered as
+ * soon as they no longer wait for forward references; the time spent handing pages over to the
+ * renderer is counted as rendering time, the rest as layout time. When saving memory, pages waiting
+ * for forward references are kept in a temporary directory of the document's own.
+ */
+public class MeasuringAreaTreeHandler extends AreaTreeHandler {
+  /**
+   * The time spent in page sequence events, in nanoseconds, including the rendering time.
+   */
+  private long elapsed;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param userAgent    The user agent of the document.
+   * @param outputFormat The MIME type of the rendered document.
+   * @param stream       The stream receiving the rendered document.
+   * @throws FOPException If the renderer cannot be created.
+   */
+  public MeasuringAreaTreeHandler(FOUserAgent userAgent, String outputFormat, OutputStream stream)
+      throws FOPException {
+    super(userAgent, outputFormat, stream);
+  }
+
+  /**
+   * {@inheritDoc} The model is one measuring the rendering time. (Called by the constructor of
+   * <code>AreaTreeHandler</code>, before the fields of this class are initialized.)
+   */
+  protected void setupModel(FOUserAgent userAgent, String outputFormat, OutputStream stream)
+      throws FOPException {
+    if (userAgent.isConserveMemoryPolicyEnabled()) {
+      model = new MeasuringCachedRenderPagesModel(userAgent, outputFormat, fontInfo, stream);
+    } else {
+      model = new MeasuringRenderPagesModel(userAgent, outputFormat, fontInfo, stream);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void startPageSequence(PageSequence pageSequence) {
+    final long start = System.nanoTime();
+    try {
+      super.startPageSequence(pageSequence);
+    } finally {
+      elapsed += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endPageSequence(PageSequence pageSequence) {
+    final long start = System.nanoTime();
+    try {
+      super.endPageSequence(pageSequence);
+    } finally {
+      elapsed += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endDocument() throws SAXException {
+    final long start = System.nanoTime();
+    try {
+      super.endDocument();
+    } finally {
+      elapsed += System.nanoTime() - start;
+    }
+  }
+
+  /**
+   * Returns the time spent laying out pages so far.
+   *
+   * @return The layout time, in nanoseconds.
+   */
+  public long getLayoutTime() {
+    return elapsed - getRenderingTime();
+  }
+
+  /**
+   * Returns the time spent rendering pages so far.
+   *
+   * @return The rendering time, in nanoseconds.
+   */
+  public long getRenderingTime() {
+    if (model instanceof MeasuringRenderPagesModel) {
+      return ((MeasuringRenderPagesModel) model).renderingTime;
+    }
+    return ((MeasuringCachedRenderPagesModel) model).renderingTime;
+  }
+
+  /**
+   * A <code>RenderPagesModel</code> measuring the time spent rendering pages.
+   */
+  private static class MeasuringRenderPagesModel extends RenderPagesModel {
+    private long renderingTime;
+
+    MeasuringRenderPagesModel(FOUserAgent userAgent, String outputFormat, FontInfo fontInfo, OutputStream stream)
+        throws FOPException {
+      super(userAgent, outputFormat, fontInfo, stream);
+    }
+
+    public void addPage(PageViewport page) {
+      final long start = System.nanoTime();
+      try {
+        super.addPage(page);
+      } finally {
+        renderingTime += System.nanoTime() - start;
+      }
+    }
+
+    public void endDocument() throws SAXException {
+      final long start = System.nanoTime();
+      try {
+        super.endDocument();
+      } finally {
+        renderingTime += System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * An {@link IsolatedRenderPagesModel} measuring the time spent rendering pages, including the
+   * time spent saving pages waiting for forward references and loading them back.
+   */
+  private static class MeasuringCachedRenderPagesModel extends IsolatedRenderPagesModel {
+    private long renderingTime;
+
+    MeasuringCachedRenderPagesModel(FOUserAgent userAgent, String outputFormat, FontInfo fontInfo,
+        OutputStream stream) throws FOPException {
+      super(userAgent, outputFormat, fontInfo, stream);
+    }
+
+    public void addPage(PageViewport page) {
+      final long start = System.nanoTime();
+      try {
+        super.addPage(page);
+      } finally {
+        renderingTime += System.nanoTime() - start;
+      }
+    }
+
+    public void endDocument() throws SAXException {
+      final long start = System.nanoTime();
+      try {
+        super.endDocument();
+      } finally {
+        renderingTime += System.nanoTime() - start;
+      }
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.util.Iterator;
+import java.util.Set;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * An {@link org.xml.sax.XMLFilter} passing on a range of page sequences of an FO document, as if
+ * the document held only those. In order to render the range the way it would be rendered as
+ * part of the whole document:
+ * <ul>
+ * <li>the first page sequence of the range starts on the page number it would have had,</li>
+ * <li>the last page sequence of the range ends the way it would have ended, had it been followed
+ * by the next page sequence of the document, and</li>
+ * <li>the bookmarks of the document are replaced by a bookmark for every identifier of the range
+ * pointed to from other ranges, so that FOP resolves the position of those identifiers.</li>
+ * </ul>
+ */
+public class PageSequenceFilter extends XMLFilterImpl {
+  private final FoOutline outline;
+  private final int first;
+  private final int last;
+  private final String initialPageNumber;
+  private final String forcePageCount;
+  private final Set anchors;
+
+  /**
+   * The depth of the current element, <code>1</code> being the root element.
+   */
+  private int depth;
+
+  /**
+   * The depth of the element being left out, or <code>0</code>.
+   */
+  private int skipping;
+
+  /**
+   * The index of the last page sequence encountered.
+   */
+  private int pageSequence = -1;
+
+  /**
+   * Whether the bookmarks pointing to the anchors have been written.
+   */
+  private boolean anchored;
+
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param outline           The outline of the document.
+   * @param first             The index of the first page sequence to pass on.
+   * @param last              The index of the last page sequence to pass on.
+   * @param initialPageNumber The <code>initial-page-number</code> of the first page sequence, or
+   *                          <code>null</code> to leave it as it is.
+   * @param forcePageCount    The <code>force-page-count</code> of the last page sequence, or
+   *                          <code>null</code> to leave it as it is.
+   * @param anchors           The identifiers of the range pointed to from other ranges.
+   */
+  public PageSequenceFilter(FoOutline outline, int first, int last, String initialPageNumber,
+      String forcePageCount, Set anchors) {
+    this.outline = outline;
+    this.first = first;
+    this.last = last;
+    this.initialPageNumber = initialPageNumber;
+    this.forcePageCount = forcePageCount;
+    this.anchors = anchors;
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    depth++;
+    if (skipping > 0) {
+      return;
+    }
+
+    Attributes attributes = atts;
+    if (depth == 2) {
+      final boolean fo = FoOutline.FO_NAMESPACE.equals(uri);
+      if (!anchored && !(fo && ("layout-master-set".equals(localName) || "declarations".equals(localName)))) {
+        writeAnchors();
+      }
+      if (fo && "page-sequence".equals(localName)) {
+        pageSequence++;
+        if (pageSequence < first || pageSequence > last) {
+          skipping = depth;
+          return;
+        }
+        if (pageSequence == first && initialPageNumber != null) {
+          attributes = setAttribute(attributes, "initial-page-number", initialPageNumber);
+        }
+        if (pageSequence == last && forcePageCount != null) {
+          attributes = setAttribute(attributes, "force-page-count", forcePageCount);
+        }
+      } else if (fo && "bookmark-tree".equals(localName)) {
+        skipping = depth;
+        return;
+      } else if (FoOutline.FOX_NAMESPACE.equals(uri) && "destination".equals(localName)
+          && !isInRange(atts.getValue("internal-destination"))) {
+        skipping = depth;
+        return;
+      }
+    }
+    super.startElement(uri, localName, qName, attributes);
+  }
+
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (skipping > 0) {
+      if (skipping == depth) {
+        skipping = 0;
+      }
+    } else {
+      super.endElement(uri, localName, qName);
+    }
+    depth--;
+  }
+
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    if (skipping == 0) {
+      super.characters(ch, start, length);
+    }
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    if (skipping == 0) {
+      super.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  public void processingInstruction(String target, String data) throws SAXException {
+    if (skipping == 0) {
+      super.processingInstruction(target, data);
+    }
+  }
+
+  /**
+   * Tells if an identifier is defined by the page sequences passed on.
+   */
+  private boolean isInRange(String id) {
+    final int owner = (id == null) ? -1 : outline.getOwner(id);
+    return owner >= first && owner <= last;
+  }
+
+  /**
+   * Writes a bookmark for every anchor, in place of the bookmarks of the document.
+   */
+  private void writeAnchors() throws SAXException {
+    anchored = true;
+    if (anchors.isEmpty()) {
+      return;
+    }
+
+    final String tree = "bookmark-tree";
+    final String bookmark = "bookmark";
+    final String title = "bookmark-title";
+    super.startElement(FoOutline.FO_NAMESPACE, tree, "fo:" + tree, new AttributesImpl());
+    for (Iterator iterator = anchors.iterator(); iterator.hasNext();) {
+      final String id = (String) iterator.next();
+      final AttributesImpl atts = new AttributesImpl();
+      atts.addAttribute("", "internal-destination", "internal-destination", "CDATA", id);
+      super.startElement(FoOutline.FO_NAMESPACE, bookmark, "fo:" + bookmark, atts);
+      super.startElement(FoOutline.FO_NAMESPACE, title, "fo:" + title, new AttributesImpl());
+      super.characters(id.toCharArray(), 0, id.length());
+      super.endElement(FoOutline.FO_NAMESPACE, title, "fo:" + title);
+      super.endElement(FoOutline.FO_NAMESPACE, bookmark, "fo:" + bookmark);
+    }
+    super.endElement(FoOutline.FO_NAMESPACE, tree, "fo:" + tree);
+  }
+
+  private static Attributes setAttribute(Attributes atts, String name, String value) {
+    final AttributesImpl result = new AttributesImpl(atts);
+    final int index = result.getIndex("", name);
+    if (index < 0) {
+      result.addAttribute("", name, name, "CDATA", value);
+    } else {
+      result.setValue(index, value);
+    }
+    return result;
+  }
+}
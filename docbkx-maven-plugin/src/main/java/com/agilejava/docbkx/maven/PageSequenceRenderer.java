@@ -0,0 +1,698 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.awt.Rectangle;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.LogFactory;
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.apps.PageSequenceResults;
+import org.apache.fop.area.AreaTreeHandler;
+import org.apache.fop.area.IDTracker;
+import org.apache.fop.area.PageViewport;
+import org.apache.fop.events.Event;
+import org.apache.fop.events.EventListener;
+import org.apache.fop.events.LoggingEventListener;
+import org.apache.fop.fo.FOTreeBuilder;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFException;
+import org.apache.fop.render.intermediate.IFParser;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.fop.render.intermediate.IFUtil;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Renders an FO document with FOP by laying out ranges of its page sequences concurrently, and
+ * merging the results. Every range is rendered to FOP's intermediate format the way it would be
+ * rendered as part of the whole document (see {@link PageSequenceFilter}), FOP being told the
+ * pages of the identifiers of other ranges it refers to. Since the page numbers a range starts
+ * with and the pages it cites from other ranges are only known once the other ranges have been
+ * laid out, ranges are laid out again until these settle. The intermediate documents are then
+ * merged into the output document, along with the bookmarks of the FO document (see
+ * {@link IFDocumentMerger}).
+ */
+public class PageSequenceRenderer {
+  /**
+   * The number of times ranges are laid out before giving up on their page numbers to settle.
+   */
+  private static final int MAX_PASSES = 5;
+
+  /**
+   * The text written in place of the pages cited from ranges that have not been laid out yet.
+   */
+  private static final String UNKNOWN_PAGE = "?";
+
+  private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+  private static final String UNRESOLVED_ID_REFERENCE =
+      "org.apache.fop.area.AreaEventProducer.unresolvedIDReference";
+
+  private static final String NON_FULLY_RESOLVED_LINK_TARGETS =
+      "org.apache.fop.render.pdf.PDFEventProducer.nonFullyResolvedLinkTargets";
+
+  private final FopFactory fopFactory;
+  private final String mimeType;
+  private final String baseUrl;
+  private final int threads;
+  private final Log log;
+
+  /**
+   * The resolver consulted first when FOP resolves the resources of the document, if any.
+   */
+  private URIResolver uriResolver;
+
+  /**
+   * The number of pages of every page sequence of the last document rendered.
+   */
+  private int[] pageCounts;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param fopFactory The <code>FopFactory</code> rendering the document.
+   * @param mimeType   The type of the output document, which must be supported by FOP's
+   *                   intermediate format.
+   * @param baseUrl    The URL relative to which the resources of the document are resolved.
+   * @param threads    The number of ranges laid out at the same time.
+   * @param log        The <code>Log</code> to report to.
+   */
+  public PageSequenceRenderer(FopFactory fopFactory, String mimeType, String baseUrl, int threads, Log log) {
+    this.fopFactory = fopFactory;
+    this.mimeType = mimeType;
+    this.baseUrl = baseUrl;
+    this.threads = threads;
+    this.log = log;
+  }
+
+  /**
+   * Sets the resolver consulted first when FOP resolves the resources of the document, such as
+   * images.
+   *
+   * @param uriResolver The resolver, or <code>null</code> to leave resources to FOP.
+   */
+  public void setURIResolver(URIResolver uriResolver) {
+    this.uriResolver = uriResolver;
+  }
+
+  /**
+   * Renders an FO document, unless its page sequences cannot be rendered separately.
+   *
+   * @param foFile             The FO document.
+   * @param out                The stream receiving the output document.
+   * @param expectedPageCounts The number of pages every page sequence had the last time the
+   *                           document has been rendered, or <code>null</code> if unknown.
+   * @return <code>true</code> if the document has been rendered, <code>false</code> if it needs
+   *         to be rendered as a whole.
+   * @throws MojoExecutionException If the document fails to render.
+   */
+  public boolean render(File foFile, OutputStream out, int[] expectedPageCounts) throws MojoExecutionException {
+    final FoOutline outline = readOutline(foFile);
+    if (outline.getUnsupportedFeature() != null) {
+      log.info("Rendering " + foFile.getName() + " as a whole, since it contains " + outline.getUnsupportedFeature()
+          + ".");
+      return false;
+    }
+
+    final Range[] ranges = createRanges(outline);
+    if (ranges.length < 2) {
+      return false;
+    }
+
+    final int[] counts = new int[outline.getPageSequenceCount()];
+    if (expectedPageCounts != null && expectedPageCounts.length == counts.length) {
+      System.arraycopy(expectedPageCounts, 0, counts, 0, counts.length);
+    }
+
+    try {
+      List pending = new ArrayList();
+      for (int i = 0; i < ranges.length; i++) {
+        pending.add(ranges[i]);
+      }
+      for (int pass = 1; !pending.isEmpty(); pass++) {
+        if (pass > MAX_PASSES) {
+          log.warn("The page numbers of " + foFile.getName() + " did not settle, rendering it as a whole.");
+          return false;
+        }
+        log.debug("Laying out " + pending.size() + " of " + ranges.length + " ranges of page sequences of "
+            + foFile.getName() + ", pass " + pass + ".");
+        final int[] starts = computeStartNumbers(outline, counts);
+        for (Iterator iterator = pending.iterator(); iterator.hasNext();) {
+          final Range range = (Range) iterator.next();
+          range.prepare(outline, starts, computeCitations(outline, range, ranges));
+        }
+        layOut(foFile, outline, pending);
+        for (int i = 0; i < ranges.length; i++) {
+          System.arraycopy(ranges[i].pageCounts, 0, counts, ranges[i].first, ranges[i].pageCounts.length);
+        }
+        pending = findPendingRanges(outline, ranges, counts);
+      }
+
+      merge(ranges, outline, out);
+      pageCounts = counts;
+      return true;
+    } finally {
+      for (int i = 0; i < ranges.length; i++) {
+        if (ranges[i].ifFile != null) {
+          ranges[i].ifFile.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the number of pages of every page sequence of the last document rendered.
+   *
+   * @return The number of pages, by page sequence.
+   */
+  public int[] getPageCounts() {
+    return pageCounts;
+  }
+
+  private FoOutline readOutline(File foFile) throws MojoExecutionException {
+    final XMLReaderPool pool = XMLReaderPool.getSharedInstance();
+    try {
+      final XMLReader reader = pool.borrow(false);
+      try {
+        reader.setFeature(NAMESPACES, true);
+        return FoOutline.read(reader, new InputSource(foFile.toURI().toString()));
+      } finally {
+        pool.release(reader);
+      }
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Failed to read " + foFile + ".", ioe);
+    } catch (SAXException saxe) {
+      throw new MojoExecutionException("Failed to parse " + foFile + ".", saxe);
+    } catch (ParserConfigurationException pce) {
+      throw new MojoExecutionException("Failed to construct parser.", pce);
+    }
+  }
+
+  /**
+   * Splits the page sequences of a document into ranges of similar sizes, one per thread.
+   */
+  private Range[] createRanges(FoOutline outline) {
+    final int count = outline.getPageSequenceCount();
+    long total = 0;
+    for (int i = 0; i < count; i++) {
+      total += outline.getPageSequence(i).getWeight();
+    }
+
+    final List ranges = new ArrayList();
+    final int parts = Math.min(threads, count);
+    long weight = 0;
+    int first = 0;
+    for (int i = 0; i < count; i++) {
+      weight += outline.getPageSequence(i).getWeight();
+      // close the range once it holds its share of the document
+      if (i == count - 1 || weight * parts >= total * (ranges.size() + 1)) {
+        ranges.add(new Range(first, i));
+        first = i + 1;
+      }
+    }
+
+    // the identifiers cited or pointed to from other ranges
+    final Range[] result = (Range[]) ranges.toArray(new Range[ranges.size()]);
+    for (int i = 0; i < result.length; i++) {
+      for (int j = result[i].first; j <= result[i].last; j++) {
+        final FoOutline.PageSequence pageSequence = outline.getPageSequence(j);
+        addReferences(outline, result, result[i], pageSequence.getLinks(), result[i].links);
+        addReferences(outline, result, result[i], pageSequence.getCitations(), result[i].cited);
+        addReferences(outline, result, result[i], pageSequence.getLastCitations(), result[i].citedLast);
+      }
+    }
+    for (Iterator iterator = outline.getBookmarkTargets().iterator(); iterator.hasNext();) {
+      final String id = (String) iterator.next();
+      final Range owner = findRange(result, outline.getOwner(id));
+      if (owner != null) {
+        owner.anchors.add(id);
+      }
+    }
+    return result;
+  }
+
+  private static void addReferences(FoOutline outline, Range[] ranges, Range range, Set ids, Set references) {
+    for (Iterator iterator = ids.iterator(); iterator.hasNext();) {
+      final String id = (String) iterator.next();
+      final Range owner = findRange(ranges, outline.getOwner(id));
+      if (owner != null && owner != range) {
+        references.add(id);
+        if (references == range.links) {
+          owner.anchors.add(id);
+        } else {
+          owner.citedByOthers.add(id);
+        }
+      }
+    }
+  }
+
+  private static Range findRange(Range[] ranges, int pageSequence) {
+    for (int i = 0; i < ranges.length; i++) {
+      if (pageSequence >= ranges[i].first && pageSequence <= ranges[i].last) {
+        return ranges[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Computes the page number every page sequence starts with, the way FOP does.
+   */
+  private static int[] computeStartNumbers(FoOutline outline, int[] counts) {
+    final int[] starts = new int[counts.length];
+    int previous = 0;
+    for (int i = 0; i < counts.length; i++) {
+      final String initial = outline.getPageSequence(i).getInitialPageNumber();
+      if ("auto".equals(initial) || "auto-odd".equals(initial) || "auto-even".equals(initial)) {
+        starts[i] = previous + 1;
+        if (("auto-odd".equals(initial) && starts[i] % 2 == 0) || ("auto-even".equals(initial) && starts[i] % 2 != 0)) {
+          starts[i]++;
+        }
+      } else {
+        starts[i] = parseNumber(initial, previous + 1);
+      }
+      previous = starts[i] + Math.max(counts[i], 1) - 1;
+    }
+    return starts;
+  }
+
+  /**
+   * Returns the value the <code>force-page-count</code> of <code>auto</code> of a page sequence
+   * stands for, given the page sequence following it.
+   */
+  private static String resolveForcePageCount(FoOutline.PageSequence next) {
+    final String initial = next.getInitialPageNumber();
+    if ("auto-odd".equals(initial)) {
+      return "end-on-even";
+    } else if ("auto-even".equals(initial)) {
+      return "end-on-odd";
+    } else if ("auto".equals(initial)) {
+      return "no-force";
+    } else {
+      return (Math.max(parseNumber(initial, 1), 1) % 2 == 0) ? "end-on-odd" : "end-on-even";
+    }
+  }
+
+  private static int parseNumber(String value, int defaultValue) {
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException nfe) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Computes the pages a range cites from other ranges, as far as they are known.
+   */
+  private static Map computeCitations(FoOutline outline, Range range, Range[] ranges) {
+    final Map citations = new HashMap();
+    addCitations(outline, ranges, range.cited, "page-number-citation", citations);
+    addCitations(outline, ranges, range.citedLast, "page-number-citation-last", citations);
+    return citations;
+  }
+
+  private static void addCitations(FoOutline outline, Range[] ranges, Set ids, String element,
+      Map citations) {
+    for (Iterator iterator = ids.iterator(); iterator.hasNext();) {
+      final String id = (String) iterator.next();
+      // pages laid out with other page numbers are still the best guess at hand
+      final String page = (String) findRange(ranges, outline.getOwner(id)).pages.get(element + "#" + id);
+      citations.put(element + "#" + id, (page == null) ? UNKNOWN_PAGE : page);
+    }
+  }
+
+  /**
+   * Returns the ranges that need to be laid out again, since they have been laid out with page
+   * numbers or citations that turned out to be wrong. Ranges citing pages of other such ranges are
+   * only laid out once those are done, unless all of them cite each other.
+   */
+  private static List findPendingRanges(FoOutline outline, Range[] ranges, int[] counts) {
+    final int[] starts = computeStartNumbers(outline, counts);
+    final List pending = new ArrayList();
+    for (int i = 0; i < ranges.length; i++) {
+      if (!ranges[i].isLaidOut(starts)
+          || !ranges[i].citations.equals(computeCitations(outline, ranges[i], ranges))) {
+        pending.add(ranges[i]);
+      }
+    }
+
+    final List ready = new ArrayList();
+    for (Iterator iterator = pending.iterator(); iterator.hasNext();) {
+      final Range range = (Range) iterator.next();
+      boolean waiting = false;
+      for (Iterator others = pending.iterator(); others.hasNext() && !waiting;) {
+        final Range other = (Range) others.next();
+        waiting = other != range && range.citesFrom(other);
+      }
+      if (!waiting) {
+        ready.add(range);
+      }
+    }
+    return ready.isEmpty() ? pending : ready;
+  }
+
+  /**
+   * Lays out ranges concurrently, to FOP's intermediate format.
+   */
+  private void layOut(final File foFile, final FoOutline outline, List ranges) throws MojoExecutionException {
+    final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, ranges.size()));
+    try {
+      final List results = new ArrayList();
+      for (Iterator iterator = ranges.iterator(); iterator.hasNext();) {
+        final Range range = (Range) iterator.next();
+        results.add(executor.submit(new Callable() {
+          public Object call() throws Exception {
+            layOut(foFile, outline, range);
+            return null;
+          }
+        }));
+      }
+      for (Iterator iterator = results.iterator(); iterator.hasNext();) {
+        try {
+          ((Future) iterator.next()).get();
+        } catch (InterruptedException ie) {
+          throw new MojoExecutionException("Interrupted while rendering " + foFile + ".", ie);
+        } catch (ExecutionException ee) {
+          if (ee.getCause() instanceof MojoExecutionException) {
+            throw (MojoExecutionException) ee.getCause();
+          }
+          throw new MojoExecutionException("Failed to render " + foFile + ".", ee.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void layOut(File foFile, final FoOutline outline, final Range range) throws MojoExecutionException {
+    final FOUserAgent userAgent = newUserAgent();
+    userAgent.getEventBroadcaster().addEventListener(new EventListener() {
+      private final EventListener delegate = new LoggingEventListener(LogFactory.getLog(FOUserAgent.class));
+
+      public void processEvent(Event event) {
+        // the links pointing to other ranges are resolved when merging the ranges
+        final Object id = event.getParam("id");
+        final int owner = (id instanceof String) ? outline.getOwner((String) id) : -1;
+        if (!event.getEventID().equals(NON_FULLY_RESOLVED_LINK_TARGETS)
+            && (!event.getEventID().startsWith(UNRESOLVED_ID_REFERENCE) || owner < 0
+                || (owner >= range.first && owner <= range.last))) {
+          delegate.processEvent(event);
+        }
+      }
+    });
+
+    final XMLReaderPool pool = XMLReaderPool.getSharedInstance();
+    OutputStream out = null;
+    XMLReader reader = null;
+    try {
+      final IFSerializer serializer = new IFSerializer();
+      serializer.setContext(new IFContext(userAgent));
+      serializer.mimicDocumentHandler(userAgent.getRendererFactory().createDocumentHandler(userAgent, mimeType));
+      userAgent.setDocumentHandlerOverride(serializer);
+
+      if (range.ifFile == null) {
+        range.ifFile = File.createTempFile("docbkx-", ".if.xml");
+      }
+      out = new BufferedOutputStream(new FileOutputStream(range.ifFile));
+      final Fop fop = fopFactory.newFop(MimeConstants.MIME_FOP_IF, userAgent, out);
+      final IDTracker tracker = ((AreaTreeHandler) ((FOTreeBuilder) fop.getDefaultHandler()).getEventHandler())
+          .getIDTracker();
+
+      reader = pool.borrow(false);
+      reader.setFeature(NAMESPACES, true);
+      addReferences(tracker, outline, range, true);
+      final PageSequenceFilter filter = new PageSequenceFilter(outline, range.first, range.last,
+          range.initialPageNumber, range.forcePageCount, range.anchors) {
+        public void endDocument() throws SAXException {
+          addReferences(tracker, outline, range, false);
+          super.endDocument();
+        }
+      };
+      filter.setParent(reader);
+      filter.setContentHandler(fop.getDefaultHandler());
+      filter.parse(new InputSource(foFile.toURI().toString()));
+
+      final List results = fop.getResults().getPageSequences();
+      for (int i = 0; i < range.pageCounts.length; i++) {
+        range.pageCounts[i] = ((PageSequenceResults) results.get(i)).getPageCount();
+      }
+      range.pages.clear();
+      for (Iterator iterator = range.citedByOthers.iterator(); iterator.hasNext();) {
+        final String id = (String) iterator.next();
+        final PageViewport first = tracker.getFirstPageViewportContaining(id);
+        final PageViewport last = tracker.getLastPageViewportContaining(id);
+        if (first != null) {
+          range.pages.put("page-number-citation#" + id, first.getPageNumberString());
+        }
+        if (last != null) {
+          range.pages.put("page-number-citation-last#" + id, last.getPageNumberString());
+        }
+      }
+    } catch (FOPException fe) {
+      throw new MojoExecutionException("Failed to render " + foFile + ".", fe);
+    } catch (IOException ioe) {
+      throw new MojoExecutionException("Failed to render " + foFile + ".", ioe);
+    } catch (SAXException saxe) {
+      throw new MojoExecutionException("Failed to render " + foFile + ".", saxe);
+    } catch (ParserConfigurationException pce) {
+      throw new MojoExecutionException("Failed to construct parser.", pce);
+    } finally {
+      IOUtils.closeQuietly(out);
+      if (reader != null) {
+        pool.release(reader);
+      }
+    }
+  }
+
+  /**
+   * Tells FOP the pages of the identifiers of other ranges referred to by a range, the way it
+   * would have found them when laying out the whole document: before laying out the range for the
+   * identifiers of earlier ranges, and once the range has been laid out for the identifiers of
+   * later ranges, resolving the citations laid out ahead of knowing their pages.
+   */
+  private static void addReferences(IDTracker tracker, FoOutline outline, Range range, boolean earlier) {
+    final Set ids = new HashSet(range.links);
+    ids.addAll(range.cited);
+    ids.addAll(range.citedLast);
+    for (Iterator iterator = ids.iterator(); iterator.hasNext();) {
+      final String id = (String) iterator.next();
+      if ((outline.getOwner(id) < range.first) != earlier) {
+        continue;
+      }
+
+      String first = (String) range.citations.get("page-number-citation#" + id);
+      first = (first == null) ? UNKNOWN_PAGE : first;
+      String last = (String) range.citations.get("page-number-citation-last#" + id);
+      last = (last == null) ? first : last;
+      tracker.signalPendingID(id);
+      tracker.associateIDWithPageViewport(id, createPage(id, first));
+      if (!last.equals(first)) {
+        tracker.associateIDWithPageViewport(id, createPage(id, last));
+      }
+      tracker.signalIDProcessed(id);
+    }
+  }
+
+  /**
+   * Creates a page standing for a page of another range, never rendered.
+   */
+  private static PageViewport createPage(String id, String pageNumber) {
+    final PageViewport page = new PageViewport(new Rectangle(), 0, pageNumber, null, false);
+    page.setKey("#" + id + "#" + pageNumber);
+    return page;
+  }
+
+  /**
+   * Merges the intermediate documents of the ranges into the output document.
+   */
+  private void merge(Range[] ranges, FoOutline outline, OutputStream out) throws MojoExecutionException {
+    final FOUserAgent userAgent = newUserAgent();
+    try {
+      final IFDocumentHandler handler = createDocumentHandler(userAgent);
+      handler.setResult(new StreamResult(out));
+      IFUtil.setupFonts(handler);
+
+      final IFDocumentMerger merger = new IFDocumentMerger(handler);
+      for (int i = 0; i < ranges.length; i++) {
+        merger.setExternalTargets(ranges[i].links);
+        new IFParser().parse(new StreamSource(ranges[i].ifFile), merger, userAgent);
+      }
+      merger.finish(outline.getBookmarks());
+    } catch (FOPException fe) {
+      throw new MojoExecutionException("Failed to merge the page sequences.", fe);
+    } catch (IFException ife) {
+      throw new MojoExecutionException("Failed to merge the page sequences.", ife);
+    } catch (TransformerException te) {
+      throw new MojoExecutionException("Failed to merge the page sequences.", te);
+    }
+  }
+
+  /**
+   * Creates a user agent resolving the resources of the document.
+   */
+  private FOUserAgent newUserAgent() {
+    final FOUserAgent userAgent = fopFactory.newFOUserAgent();
+    userAgent.setBaseURL(baseUrl);
+    if (uriResolver != null) {
+      userAgent.setURIResolver(uriResolver);
+    }
+    return userAgent;
+  }
+
+  /**
+   * Creates the handler writing the output document, once the ranges have been laid out.
+   *
+   * @param userAgent The user agent of the output document.
+   * @return The <code>IFDocumentHandler</code> writing the output document.
+   * @throws FOPException If the type of the output document is not supported.
+   */
+  protected IFDocumentHandler createDocumentHandler(FOUserAgent userAgent) throws FOPException {
+    return userAgent.getRendererFactory().createDocumentHandler(userAgent, mimeType);
+  }
+
+  /**
+   * A range of consecutive page sequences, laid out as a single document.
+   */
+  private static class Range {
+    private final int first;
+    private final int last;
+
+    /**
+     * The identifiers of the range pointed to from other ranges, or by the bookmarks.
+     */
+    private final Set anchors = new LinkedHashSet();
+
+    /**
+     * The identifiers of other ranges pointed to by the links of this range.
+     */
+    private final Set links = new HashSet();
+
+    /**
+     * The identifiers of other ranges whose first page is cited by this range.
+     */
+    private final Set cited = new HashSet();
+
+    /**
+     * The identifiers of other ranges whose last page is cited by this range.
+     */
+    private final Set citedLast = new HashSet();
+
+    /**
+     * The identifiers of the range cited by other ranges.
+     */
+    private final Set citedByOthers = new HashSet();
+
+    /**
+     * The pages of the range cited by other ranges, as laid out, by name of the citing element and
+     * identifier, such as <code>page-number-citation#intro</code>.
+     */
+    private final Map pages = new HashMap();
+
+    /**
+     * The number of pages of every page sequence, as laid out.
+     */
+    private final int[] pageCounts;
+
+    private String initialPageNumber;
+    private String forcePageCount;
+    private Map citations;
+
+    /**
+     * The page number the range has been laid out with, or <code>0</code>.
+     */
+    private int startNumber;
+
+    private File ifFile;
+
+    Range(int first, int last) {
+      this.first = first;
+      this.last = last;
+      this.pageCounts = new int[last - first + 1];
+    }
+
+    /**
+     * Sets the page number the range starts with and the pages it cites, before laying it out.
+     */
+    void prepare(FoOutline outline, int[] starts, Map citations) {
+      this.startNumber = starts[first];
+      this.citations = citations;
+      final String initial = outline.getPageSequence(first).getInitialPageNumber();
+      this.initialPageNumber = initial.startsWith("auto") ? String.valueOf(starts[first]) : null;
+      if (last + 1 < outline.getPageSequenceCount() && "auto".equals(outline.getPageSequence(last).getForcePageCount())) {
+        this.forcePageCount = resolveForcePageCount(outline.getPageSequence(last + 1));
+      }
+    }
+
+    /**
+     * Tells if the range has been laid out with the page number it starts with.
+     */
+    boolean isLaidOut(int[] starts) {
+      return ifFile != null && startNumber == starts[first];
+    }
+
+    /**
+     * Tells if the range cites pages of another range.
+     */
+    boolean citesFrom(Range other) {
+      for (Iterator iterator = other.citedByOthers.iterator(); iterator.hasNext();) {
+        final String id = (String) iterator.next();
+        if (cited.contains(id) || citedLast.contains(id)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
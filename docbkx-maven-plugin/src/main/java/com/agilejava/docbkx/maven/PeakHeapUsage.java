@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Measures the peak heap usage of the JVM from the moment it has been constructed until it is
+ * stopped. The used heap is sampled at a fixed interval by a timer shared by all instances, rather
+ * than taken from the peak usage of the memory pools: resetting those would clear the peak of the
+ * other documents rendered at the same time. Being sampled, the peak may be slightly underestimated.
+ * It is the peak of the whole JVM: when documents are rendered concurrently, the heap used by the
+ * others is included.
+ */
+public class PeakHeapUsage {
+  /**
+   * The interval between samples, in milliseconds.
+   */
+  private static final long INTERVAL = 50;
+
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  /**
+   * The instances not stopped yet. (Instances of <code>PeakHeapUsage</code>.)
+   */
+  private static final Set ACTIVE = new HashSet();
+
+  /**
+   * The timer sampling the heap usage, only running while there are active instances.
+   */
+  private static Timer timer;
+
+  /**
+   * The peak heap usage sampled so far, in bytes.
+   */
+  private long peak;
+
+  /**
+   * Constructs a new instance, sampling the heap usage until {@link #stop()} is called.
+   */
+  public PeakHeapUsage() {
+    peak = MEMORY.getHeapMemoryUsage().getUsed();
+    synchronized (ACTIVE) {
+      ACTIVE.add(this);
+      if (timer == null) {
+        timer = new Timer("docbkx-heap-usage", true);
+        timer.schedule(new TimerTask() {
+          public void run() {
+            sample();
+          }
+        }, INTERVAL, INTERVAL);
+      }
+    }
+  }
+
+  /**
+   * Updates the peak of every active instance with the current heap usage.
+   */
+  private static void sample() {
+    final long used = MEMORY.getHeapMemoryUsage().getUsed();
+    synchronized (ACTIVE) {
+      for (Iterator i = ACTIVE.iterator(); i.hasNext();) {
+        final PeakHeapUsage usage = (PeakHeapUsage) i.next();
+        usage.peak = Math.max(usage.peak, used);
+      }
+    }
+  }
+
+  /**
+   * Stops sampling the heap usage for this instance. The timer is stopped along with the last
+   * active instance.
+   */
+  public void stop() {
+    sample();
+    synchronized (ACTIVE) {
+      if (ACTIVE.remove(this) && ACTIVE.isEmpty()) {
+        timer.cancel();
+        timer = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the peak heap usage since this instance has been constructed, until it has been
+   * stopped.
+   *
+   * @return The peak heap usage, in bytes.
+   */
+  public long getPeak() {
+    synchronized (ACTIVE) {
+      if (ACTIVE.contains(this)) {
+        peak = Math.max(peak, MEMORY.getHeapMemoryUsage().getUsed());
+      }
+      return peak;
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.OutputStream;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.fo.pagination.PageSequence;
+
+import org.xml.sax.SAXException;
+
+/**
+ * An <code>AreaTreeHandler</code> dropping the FO tree of every page sequence once it has been
+ * laid out. FOP keeps the page sequences it parsed attached to the root of the FO tree until the
+ * whole document has been rendered; this handler detaches a page sequence as soon as the next one
+ * starts, when FOP has finished laying it out, so that only the page sequences being laid out are
+ * kept in memory.
+ */
+public class ReleasingAreaTreeHandler extends MeasuringAreaTreeHandler {
+  /**
+   * The page sequence laid out last, still attached to the FO tree.
+   */
+  private PageSequence previous;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param userAgent    The user agent of the document.
+   * @param outputFormat The MIME type of the rendered document.
+   * @param stream       The stream receiving the rendered document.
+   * @throws FOPException If the renderer cannot be created.
+   */
+  public ReleasingAreaTreeHandler(FOUserAgent userAgent, String outputFormat, OutputStream stream)
+      throws FOPException {
+    super(userAgent, outputFormat, stream);
+  }
+
+  /**
+   * {@inheritDoc} Finishing the layout of the previous page sequence, which is then dropped.
+   */
+  public void startPageSequence(PageSequence pageSequence) {
+    super.startPageSequence(pageSequence);
+    if (previous != null) {
+      // the new page sequence has been attached already, so the previous one is not the last
+      // child of the root
+      previous.getRoot().removeChild(previous);
+    }
+    previous = pageSequence;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void endDocument() throws SAXException {
+    previous = null;
+    super.endDocument();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Writes the search index of a webhelp document in shards, so that the browser only loads the
+ * shards holding the words looked for, instead of the whole index before the first search. Words
+ * are grouped by prefix: a prefix holding more than the maximum size of a shard is split by the
+ * next character of its words, until every shard fits, or holds a single prefix.
+ *
+ * <p>
+ * The shards are written to the <code>shards</code> directory next to the index, as
+ * <code>w["word"]="files";</code> statements like the index itself. In place of the words, the
+ * first file of the index, loaded by every page, lists the shards in <code>indexShards</code>,
+ * mapping every prefix to the name of its shard; the loader appended to
+ * <code>nwSearchFnt.js</code> then loads the shards of every prefix of the words looked for before
+ * searching. The other files of the index are left empty, as the pages refer to them all.
+ * </p>
+ */
+public class ShardedIndexWriter {
+  /**
+   * The name of the directory holding the shards, next to the index.
+   */
+  public static final String SHARDS = "shards";
+
+  /**
+   * The number of characters taken by a word and its files besides their own, roughly.
+   */
+  private static final int ENTRY_OVERHEAD = 10;
+
+  private final int maxShardSize;
+  private final boolean compress;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param maxShardSize The maximum size of a shard, in characters, unless it holds a single
+   *                     prefix.
+   * @param compress     Whether to write a gzipped copy of every file next to it, for web servers
+   *                     serving precompressed files.
+   */
+  public ShardedIndexWriter(int maxShardSize, boolean compress) {
+    this.maxShardSize = maxShardSize;
+    this.compress = compress;
+  }
+
+  /**
+   * Writes the index. Besides the shard being written, only the words are kept in memory, without
+   * the files holding them.
+   *
+   * @param indexFile The file the webhelp indexer would write the index to, of which the files of
+   *                  the index are named.
+   * @param builder   The builder of the index, once built.
+   * @param size      The number of words in the index.
+   * @param language  The language of the document.
+   * @return The number of shards written.
+   * @throws IOException If the index cannot be read, or a file cannot be written.
+   */
+  public int write(File indexFile, WebhelpIndexBuilder builder, int size, String language) throws IOException {
+    final File directory = new File(indexFile.getParentFile(), SHARDS);
+    if (directory.exists()) {
+      FileUtils.cleanDirectory(directory);
+    } else if (!directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory + ".");
+    }
+
+    final String[] words = new String[size];
+    final int[] sizes = new int[size];
+    WebhelpIndexBuilder.Words index = builder.read();
+    try {
+      for (int w = 0; w < size && index.next(); w++) {
+        words[w] = index.getWord();
+        sizes[w] = words[w].length() + index.getFiles().length() + ENTRY_OVERHEAD;
+      }
+    } finally {
+      index.close();
+    }
+    final String[] shards = new String[size];
+    final Set prefixes = new TreeSet();
+    split("", words, sizes, 0, size, shards, prefixes);
+
+    final StringBuffer manifest = new StringBuffer();
+    manifest.append("var indexerLanguage=\"").append(language).append("\";\n");
+    manifest.append("//Search index sharded by word prefix, loaded on demand.\n");
+    manifest.append("var indexShards = new Object();\n");
+    for (Iterator i = prefixes.iterator(); i.hasNext();) {
+      final String prefix = (String) i.next();
+      manifest.append("indexShards[").append(quote(prefix)).append("]=\"").append(getShardName(prefix))
+          .append("\";\n");
+    }
+
+    // the words of every shard follow each other
+    final StringBuffer shard = new StringBuffer();
+    index = builder.read();
+    try {
+      for (int w = 0; w < size && index.next(); w++) {
+        shard.append("w[").append(quote(words[w])).append("]=").append(quote(index.getFiles())).append(";\n");
+        if ((w + 1 == size) || !shards[w + 1].equals(shards[w])) {
+          write(new File(directory, getShardName(shards[w]) + ".js"), shard.toString());
+          shard.setLength(0);
+        }
+      }
+    } finally {
+      index.close();
+    }
+
+    for (int i = 1; i <= WebhelpIndexBuilder.INDEX_FILES; i++) {
+      final File file = new File(indexFile.getParentFile(), "index-" + i + indexFile.getName());
+      write(file, (i == 1) ? manifest.toString() : "//The search index is sharded, see index-1.js.\n");
+    }
+    return prefixes.size();
+  }
+
+  /**
+   * Groups words by prefix.
+   *
+   * @param prefix   The prefix of the words.
+   * @param words    All words, sorted.
+   * @param sizes    The size of every word in a shard.
+   * @param start    The index of the first word of the prefix.
+   * @param end      The index following the last word of the prefix.
+   * @param shards   Receives the prefix of the shard of every word.
+   * @param prefixes Receives the prefix of every shard.
+   */
+  private void split(String prefix, String[] words, int[] sizes, int start, int end, String[] shards,
+      Set prefixes) {
+    int size = 0;
+    for (int w = start; w < end && size <= maxShardSize; w++) {
+      size += sizes[w];
+    }
+    if (size <= maxShardSize) {
+      for (int w = start; w < end; w++) {
+        shards[w] = prefix;
+      }
+      prefixes.add(prefix);
+      return;
+    }
+
+    int first = start;
+    while (first < end) {
+      if (words[first].length() == prefix.length()) {
+        // the word equal to the prefix is left in the shard of the prefix
+        shards[first] = prefix;
+        prefixes.add(prefix);
+        first++;
+        continue;
+      }
+      final String next = words[first].substring(0, prefix.length() + 1);
+      int last = first + 1;
+      while ((last < end) && words[last].startsWith(next)) {
+        last++;
+      }
+      split(next, words, sizes, first, last, shards, prefixes);
+      first = last;
+    }
+  }
+
+  /**
+   * Returns the name of the shard of a prefix, spelling out the characters of the prefix in
+   * hexadecimal notation, to stay clear of characters not allowed in file names.
+   *
+   * @param prefix The prefix.
+   * @return The name of the shard, without extension.
+   */
+  static String getShardName(String prefix) {
+    final StringBuffer name = new StringBuffer("s");
+    for (int i = 0; i < prefix.length(); i++) {
+      final String hex = Integer.toHexString(prefix.charAt(i));
+      name.append("0000".substring(hex.length())).append(hex);
+    }
+    return name.toString();
+  }
+
+  /**
+   * Quotes a text as a JavaScript string literal.
+   *
+   * @param text The text.
+   * @return The string literal.
+   */
+  static String quote(String text) {
+    final StringBuffer quoted = new StringBuffer(text.length() + 2);
+    quoted.append('"');
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if ((c == '"') || (c == '\\')) {
+        quoted.append('\\').append(c);
+      } else if ((c < ' ') || (c == '\u2028') || (c == '\u2029')) {
+        final String hex = Integer.toHexString(c);
+        quoted.append("\\u").append("0000".substring(hex.length())).append(hex);
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+
+  private void write(File file, String content) throws IOException {
+    final byte[] bytes = content.getBytes("UTF-8");
+    FileUtils.writeByteArrayToFile(file, bytes);
+    if (compress) {
+      OutputStream out = null;
+      try {
+        out = new GZIPOutputStream(new FileOutputStream(new File(file.getPath() + ".gz")));
+        out.write(bytes);
+        out.close();
+        out = null;
+      } finally {
+        IOUtils.closeQuietly(out);
+      }
+    }
+  }
+}
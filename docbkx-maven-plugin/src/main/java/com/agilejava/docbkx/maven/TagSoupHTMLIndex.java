@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.lang.reflect.Field;
+
+import java.util.ArrayList;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+
+import org.apache.maven.plugin.logging.Log;
+import org.ccil.cowan.tagsoup.jaxp.SAXFactoryImpl;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.nexwave.nquindexer.SaxDocFileParser;
+import com.nexwave.nquindexer.SaxHTMLIndex;
+
+/**
+ * A <code>SaxHTMLIndex</code> parsing the HTML files with a TagSoup parser of its own. The webhelp
+ * indexer parses HTML files with the parser JAXP creates, which is only TagSoup if the
+ * <code>javax.xml.parsers.SAXParserFactory</code> system property says so, switching every later
+ * JAXP parser of the JVM over to TagSoup as well, whichever thread or Mojo creates it. Instances
+ * are not thread-safe, but may be used by several threads, one at a time.
+ */
+public class TagSoupHTMLIndex extends SaxHTMLIndex {
+  private static final String EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+
+  /**
+   * The state the indexer resets before parsing a file, which is not accessible to subclasses, or
+   * <code>null</code> if this version of the indexer keeps it elsewhere.
+   */
+  private static final Field ADD_CONTENT = getField("addContent");
+  private static final Field DIV_COUNT = getField("divCount");
+
+  /**
+   * The log reporting the files that cannot be parsed.
+   */
+  private final Log log;
+
+  /**
+   * The TagSoup parser, created on first use.
+   */
+  private SAXParser parser;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param cleanUpStrings The words left out of the index.
+   * @param cleanUpChars   The characters left out of the index.
+   * @param log            The log reporting the files that cannot be parsed.
+   */
+  public TagSoupHTMLIndex(ArrayList cleanUpStrings, ArrayList cleanUpChars, Log log) {
+    super(cleanUpStrings, cleanUpChars);
+    this.log = log;
+  }
+
+  private static Field getField(String name) {
+    try {
+      final Field field = SaxDocFileParser.class.getDeclaredField(name);
+      field.setAccessible(true);
+      return field;
+    } catch (NoSuchFieldException nsfe) {
+      return null;
+    } catch (SecurityException se) {
+      return null;
+    }
+  }
+
+  /**
+   * Resets the state the indexer keeps while parsing, and parses an HTML file with TagSoup, rather
+   * than letting the indexer create a JAXP parser it would not use.
+   *
+   * @param file The HTML file.
+   */
+  public void parseDocument(File file) {
+    if ((ADD_CONTENT == null) || (DIV_COUNT == null)) {
+      // the indexer calls RemoveValidationPI once it has reset its state
+      super.parseDocument(file);
+      return;
+    }
+    try {
+      ADD_CONTENT.setBoolean(this, false);
+      DIV_COUNT.setInt(this, 0);
+    } catch (IllegalAccessException iae) {
+      super.parseDocument(file);
+      return;
+    }
+    parse(file);
+  }
+
+  /**
+   * Reads an HTML file, and parses it with TagSoup. Only called by the indexer if the state it
+   * keeps while parsing cannot be reset otherwise; nothing is returned, so that the indexer does
+   * not parse the file again with the JAXP parser.
+   *
+   * @param file The HTML file.
+   * @return <code>null</code>.
+   */
+  public String RemoveValidationPI(File file) {
+    parse(file);
+    return null;
+  }
+
+  /**
+   * Parses an HTML file with TagSoup. Like the indexer, files that cannot be read or parsed are
+   * reported and left out, rather than failing the whole index.
+   *
+   * @param file The HTML file.
+   */
+  private void parse(File file) {
+    final String content = super.RemoveValidationPI(file);
+    if (content == null) {
+      return;
+    }
+    try {
+      if (parser == null) {
+        parser = new SAXFactoryImpl().newSAXParser();
+        parser.getXMLReader().setFeature(EXTERNAL_GENERAL_ENTITIES, false);
+      }
+      final InputSource input = new InputSource(new StringReader(content));
+      input.setSystemId(file.toURI().toURL().toString());
+      parser.parse(input, this);
+    } catch (SAXException saxe) {
+      log.warn("Failed to parse " + file + ", leaving it out of the search index.", saxe);
+    } catch (ParserConfigurationException pce) {
+      log.warn("Failed to create a TagSoup parser, leaving " + file + " out of the search index.", pce);
+    } catch (IOException ioe) {
+      log.warn("Failed to read " + file + ", leaving it out of the search index.", ioe);
+    }
+  }
+}
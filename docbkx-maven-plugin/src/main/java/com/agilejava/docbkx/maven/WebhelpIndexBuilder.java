@@ -0,0 +1,469 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Builds the search index of a webhelp document within a memory budget. The files holding every
+ * word are kept as <code>int</code> pairs of file index and score; once the words take more than
+ * the budget, they are written to disk in a run sorted by word, and the next words start a new
+ * run. The runs are then merged into the index, in the order of the words, and for every word in
+ * the order of the files, as long as the words are added in the order of the files.
+ *
+ * <p>
+ * Runs and index are written to a work directory, which is removed by {@link #close()}.
+ * </p>
+ */
+public class WebhelpIndexBuilder {
+  /**
+   * The number of files the index is written to by the webhelp indexer.
+   */
+  static final int INDEX_FILES = 3;
+
+  /**
+   * The maximum number of runs merged at once, each taking a file handle.
+   */
+  private static final int MERGE_WIDTH = 64;
+
+  /**
+   * The memory taken by a word besides its characters and files, roughly: the map entry, the
+   * string and the list of files.
+   */
+  private static final int WORD_OVERHEAD = 112;
+
+  /**
+   * The number of <code>int</code>s the list of files of a word starts with.
+   */
+  private static final int INITIAL_CAPACITY = 4;
+
+  /**
+   * Orders the runs being merged by their current word, and by their order for the same word.
+   */
+  private static final Comparator RUN_ORDER = new Comparator() {
+    public int compare(Object o1, Object o2) {
+      final Run r1 = (Run) o1;
+      final Run r2 = (Run) o2;
+      final int order = r1.word.compareTo(r2.word);
+      return (order != 0) ? order : (r1.number - r2.number);
+    }
+  };
+
+  private final File directory;
+  private final long memoryBudget;
+
+  /**
+   * The words added since the last run was written. (Maps words to their files, as
+   * <code>int[]</code> of file index and score pairs, preceded by their number of
+   * <code>int</code>s.)
+   */
+  private Map words = new HashMap();
+
+  /**
+   * The memory taken by the words added since the last run was written, roughly, in bytes.
+   */
+  private long memoryUsed;
+
+  /**
+   * The runs written. (Instances of <code>File</code>.)
+   */
+  private final List runs = new ArrayList();
+
+  /**
+   * The index, once built.
+   */
+  private File index;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param directory    The work directory, holding runs and index.
+   * @param memoryBudget The memory the words may take before they are written to disk, in bytes.
+   */
+  public WebhelpIndexBuilder(File directory, long memoryBudget) {
+    this.directory = directory;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Adds a word of a file. The files holding a word are expected to be added in order.
+   *
+   * @param word  The word, left out if empty.
+   * @param file  The index of the file.
+   * @param score The score of the word in the file.
+   * @throws IOException If a run cannot be written.
+   */
+  public void add(String word, int file, int score) throws IOException {
+    if (word.length() == 0) {
+      return;
+    }
+    int[] files = (int[]) words.get(word);
+    if (files == null) {
+      files = new int[INITIAL_CAPACITY + 1];
+      words.put(word, files);
+      memoryUsed += WORD_OVERHEAD + (2 * word.length()) + (4 * files.length);
+    } else if (files[0] + 2 >= files.length) {
+      final int[] grown = new int[2 * files.length - 1];
+      System.arraycopy(files, 0, grown, 0, files[0] + 1);
+      memoryUsed += 4 * (grown.length - files.length);
+      files = grown;
+      words.put(word, files);
+    }
+    files[files[0] + 1] = file;
+    files[files[0] + 2] = score;
+    files[0] += 2;
+
+    if (memoryUsed > memoryBudget) {
+      writeRun();
+    }
+  }
+
+  /**
+   * Returns the number of runs written so far, all merged into the index once built.
+   *
+   * @return The number of runs.
+   */
+  public int getRunCount() {
+    return runs.size();
+  }
+
+  /**
+   * Merges the words added into the index. No words can be added afterwards.
+   *
+   * @return The number of words in the index.
+   * @throws IOException If the runs cannot be read, or the index cannot be written.
+   */
+  public int build() throws IOException {
+    writeRun();
+    words = null;
+    createDirectory();
+
+    // runs are merged in order, a limited number at a time
+    List inputs = runs;
+    for (int pass = 0; inputs.size() > MERGE_WIDTH; pass++) {
+      final List merged = new ArrayList();
+      for (int r = 0; r < inputs.size(); r += MERGE_WIDTH) {
+        final File output = new File(directory, "merge-" + pass + "-" + merged.size() + ".bin");
+        merge(inputs.subList(r, Math.min(r + MERGE_WIDTH, inputs.size())), output);
+        merged.add(output);
+      }
+      inputs = merged;
+    }
+    index = new File(directory, "index.bin");
+    return merge(inputs, index);
+  }
+
+  /**
+   * Merges runs, deleting them afterwards.
+   *
+   * @param inputs The runs, in the order of the files. (Instances of <code>File</code>.)
+   * @param output The file receiving the merged run.
+   * @return The number of words in the merged run.
+   */
+  private static int merge(List inputs, File output) throws IOException {
+    final PriorityQueue queue = new PriorityQueue(Math.max(1, inputs.size()), RUN_ORDER);
+    DataOutputStream out = null;
+    int count = 0;
+    try {
+      for (int r = 0; r < inputs.size(); r++) {
+        final Run run = new Run((File) inputs.get(r), r);
+        if (run.next()) {
+          queue.add(run);
+        } else {
+          run.close();
+        }
+      }
+
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output)));
+      int[] files = new int[INITIAL_CAPACITY];
+      while (!queue.isEmpty()) {
+        Run run = (Run) queue.poll();
+        final String word = run.word;
+        int length = 0;
+        while (true) {
+          if (length + run.files.length > files.length) {
+            final int[] grown = new int[Math.max(2 * files.length, length + run.files.length)];
+            System.arraycopy(files, 0, grown, 0, length);
+            files = grown;
+          }
+          System.arraycopy(run.files, 0, files, length, run.files.length);
+          length += run.files.length;
+          if (run.next()) {
+            queue.add(run);
+          } else {
+            run.close();
+          }
+          if (queue.isEmpty() || !((Run) queue.peek()).word.equals(word)) {
+            break;
+          }
+          run = (Run) queue.poll();
+        }
+        write(out, word, files, 0, length);
+        count++;
+      }
+      out.writeBoolean(false);
+      out.close();
+      out = null;
+    } finally {
+      IOUtils.closeQuietly(out);
+      for (Iterator i = queue.iterator(); i.hasNext();) {
+        ((Run) i.next()).close();
+      }
+    }
+
+    for (Iterator i = inputs.iterator(); i.hasNext();) {
+      ((File) i.next()).delete();
+    }
+    return count;
+  }
+
+  /**
+   * Reads the index, once built. The index may be read several times.
+   *
+   * @return The words of the index, sorted.
+   * @throws IOException If the index cannot be read.
+   */
+  public Words read() throws IOException {
+    if (index == null) {
+      throw new IllegalStateException("The index has not been built.");
+    }
+    return new Words(index);
+  }
+
+  /**
+   * Writes the index the way the webhelp indexer does, in three files of about the same number of
+   * words, named after the index file. Unlike the webhelp indexer, which leaves out the last word,
+   * all words are written.
+   *
+   * @param indexFile The file the webhelp indexer would write the index to.
+   * @param size      The number of words in the index.
+   * @param language  The language of the document.
+   * @throws IOException If the index cannot be read, or its files cannot be written.
+   */
+  public void writeIndex(File indexFile, int size, String language) throws IOException {
+    final Words words = read();
+    try {
+      boolean more = words.next();
+      for (int i = 1; i <= INDEX_FILES; i++) {
+        final File file = new File(indexFile.getParentFile(), "index-" + i + indexFile.getName());
+        Writer out = null;
+        try {
+          out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+          if (i == 1) {
+            out.write("var indexerLanguage=\"" + language + "\";\n");
+          }
+          out.write("//Auto generated index for searching by xsl-webhelpindexer for DocBook Webhelp.# Kasun Gajasinghe, University of Moratuwa\n");
+          int count = 0;
+          while (more) {
+            out.write("w[" + ShardedIndexWriter.quote(words.getWord()) + "]=\"" + words.getFiles() + "\";\n");
+            more = words.next();
+            if ((i < INDEX_FILES) && (size / ++count < INDEX_FILES)) {
+              break;
+            }
+          }
+          out.write("\n");
+          out.close();
+          out = null;
+        } finally {
+          IOUtils.closeQuietly(out);
+        }
+      }
+    } finally {
+      words.close();
+    }
+  }
+
+  /**
+   * Removes the work directory.
+   */
+  public void close() {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (int i = 0; i < files.length; i++) {
+        files[i].delete();
+      }
+    }
+    directory.delete();
+  }
+
+  /**
+   * Writes the words added since the last run to a new run, sorted.
+   */
+  private void writeRun() throws IOException {
+    if (words.isEmpty()) {
+      return;
+    }
+    createDirectory();
+
+    final String[] sorted = (String[]) words.keySet().toArray(new String[words.size()]);
+    Arrays.sort(sorted);
+    final File run = new File(directory, "run-" + runs.size() + ".bin");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+      for (int w = 0; w < sorted.length; w++) {
+        final int[] files = (int[]) words.get(sorted[w]);
+        write(out, sorted[w], files, 1, files[0]);
+      }
+      out.writeBoolean(false);
+      out.close();
+      out = null;
+    } finally {
+      IOUtils.closeQuietly(out);
+    }
+    runs.add(run);
+    words.clear();
+    memoryUsed = 0;
+  }
+
+  private void createDirectory() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory + ".");
+    }
+  }
+
+  private static void write(DataOutputStream out, String word, int[] files, int offset, int length)
+      throws IOException {
+    out.writeBoolean(true);
+    WebhelpIndexCache.writeString(out, word);
+    out.writeInt(length);
+    for (int i = offset; i < offset + length; i++) {
+      out.writeInt(files[i]);
+    }
+  }
+
+  /**
+   * Reads the words of a run, or of the index.
+   */
+  private static class Reader {
+    private final DataInputStream in;
+    String word;
+    int[] files;
+
+    Reader(File file) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    boolean next() throws IOException {
+      if (!in.readBoolean()) {
+        word = null;
+        files = null;
+        return false;
+      }
+      word = WebhelpIndexCache.readString(in);
+      files = new int[in.readInt()];
+      for (int i = 0; i < files.length; i++) {
+        files[i] = in.readInt();
+      }
+      return true;
+    }
+
+    void close() {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * A run being merged.
+   */
+  private static class Run extends Reader {
+    final int number;
+
+    Run(File file, int number) throws IOException {
+      super(file);
+      this.number = number;
+    }
+  }
+
+  /**
+   * The words of the index, in order, with the files holding them.
+   */
+  public static class Words {
+    private final Reader reader;
+
+    Words(File index) throws IOException {
+      this.reader = new Reader(index);
+    }
+
+    /**
+     * Moves on to the next word.
+     *
+     * @return <code>false</code> if there are no words left.
+     * @throws IOException If the index cannot be read.
+     */
+    public boolean next() throws IOException {
+      return reader.next();
+    }
+
+    /**
+     * Returns the current word.
+     *
+     * @return The word.
+     */
+    public String getWord() {
+      return reader.word;
+    }
+
+    /**
+     * Returns the files holding the current word, the way the webhelp search expects them: a
+     * list of file index and score pairs.
+     *
+     * @return The files holding the word.
+     */
+    public String getFiles() {
+      final StringBuffer files = new StringBuffer(reader.files.length * 4);
+      for (int i = 0; i < reader.files.length; i += 2) {
+        if (i > 0) {
+          files.append(',');
+        }
+        files.append(reader.files[i]).append('*').append(reader.files[i + 1]);
+      }
+      return files.toString();
+    }
+
+    /**
+     * Closes the index.
+     */
+    public void close() {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The postings of the HTML files of a webhelp document indexed by previous builds, so that only
+ * the files that changed need to be parsed again. Every file has its postings stored in a file of
+ * their own, named after the key computed by the {@link WebhelpIndexer}, which covers the content
+ * of the HTML file.
+ */
+public class WebhelpIndexCache {
+  private static final String EXTENSION = ".postings";
+
+  /**
+   * The directory holding the postings.
+   */
+  private final File directory;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param directory The directory holding the postings.
+   */
+  public WebhelpIndexCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Tells whether there are postings stored for a key.
+   *
+   * @param key The key of the postings.
+   * @return <code>true</code> if there are postings for the key.
+   */
+  public boolean contains(String key) {
+    return getFile(key).isFile();
+  }
+
+  /**
+   * Returns the postings stored for a key.
+   *
+   * @param key The key of the postings.
+   * @return The postings, or <code>null</code> if there are none, or if they cannot be read.
+   */
+  public WebhelpIndexer.Postings load(String key) {
+    final File file = getFile(key);
+    if (!file.isFile()) {
+      return null;
+    }
+
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      final String title = in.readBoolean() ? readString(in) : null;
+      final String shortdesc = in.readBoolean() ? readString(in) : null;
+      final String[] stems = new String[in.readInt()];
+      final int[] scores = new int[stems.length];
+      for (int w = 0; w < stems.length; w++) {
+        stems[w] = readString(in);
+        scores[w] = in.readInt();
+      }
+      return new WebhelpIndexer.Postings(title, shortdesc, stems, scores);
+    } catch (IOException ioe) {
+      return null;
+    } finally {
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Stores the postings of a file.
+   *
+   * @param key      The key of the postings.
+   * @param postings The postings.
+   * @throws IOException If the postings cannot be written.
+   */
+  public void store(String key, WebhelpIndexer.Postings postings) throws IOException {
+    directory.mkdirs();
+    final File file = getFile(key);
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+      writeOptional(out, postings.title);
+      writeOptional(out, postings.shortdesc);
+      out.writeInt(postings.stems.length);
+      for (int w = 0; w < postings.stems.length; w++) {
+        writeString(out, postings.stems[w]);
+        out.writeInt(postings.scores[w]);
+      }
+      out.close();
+      out = null;
+    } catch (IOException ioe) {
+      IOUtils.closeQuietly(out);
+      file.delete();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Drops the postings of the files no longer indexed.
+   *
+   * @param keys The keys of the postings to keep. (Instances of <code>String</code>.)
+   */
+  public void retain(Set keys) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (int i = 0; i < files.length; i++) {
+      final String name = files[i].getName();
+      if (name.endsWith(EXTENSION)
+          && !keys.contains(name.substring(0, name.length() - EXTENSION.length()))) {
+        files[i].delete();
+      }
+    }
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + EXTENSION);
+  }
+
+  private static void writeOptional(DataOutputStream out, String text) throws IOException {
+    out.writeBoolean(text != null);
+    if (text != null) {
+      writeString(out, text);
+    }
+  }
+
+  /**
+   * Writes a string as its length followed by its UTF-8 bytes. Unlike
+   * <code>DataOutput.writeUTF</code>, strings of more than 64 KB can be written, such as a huge
+   * token taken from a page.
+   *
+   * @param out  The output.
+   * @param text The string.
+   * @throws IOException If the string cannot be written.
+   */
+  static void writeString(DataOutput out, String text) throws IOException {
+    final byte[] bytes = text.getBytes("UTF-8");
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads a string written by {@link #writeString(DataOutput, String)}.
+   *
+   * @param in The input.
+   * @return The string.
+   * @throws IOException If the string cannot be read.
+   */
+  static String readString(DataInput in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("Invalid string length: " + length);
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, "UTF-8");
+  }
+}
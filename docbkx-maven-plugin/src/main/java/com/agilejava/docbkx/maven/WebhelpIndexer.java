@@ -0,0 +1,414 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.nexwave.nquindexer.SaxHTMLIndex;
+import com.nexwave.nquindexer.WordAndScoring;
+
+import com.nexwave.nsidita.DocFileInfo;
+
+/**
+ * Extracts the words of the HTML files of a webhelp document for its search index, parsing ranges
+ * of files concurrently. The words of every file are kept apart as its {@link Postings}, and the
+ * postings are handed to the {@link WebhelpIndexBuilder} in the order of the files, so that the
+ * index is the same as if all files had been parsed one by one. As the parser carries some state over from one file
+ * to the next, each range parses the file preceding it first, for nothing.
+ *
+ * <p>
+ * With a {@link WebhelpIndexCache}, the postings of the files that did not change since the
+ * previous build are taken from the cache, and only the other files are parsed.
+ * </p>
+ */
+public class WebhelpIndexer {
+  /**
+   * The number of ranges handed to every thread, so that threads finishing early take over more.
+   */
+  private static final int RANGES_PER_THREAD = 4;
+
+  /**
+   * The version of the format of the postings, part of the keys of the cached postings.
+   */
+  private static final String VERSION = "2";
+
+  /**
+   * The scripts of a page, read as ISO-8859-1 to keep every byte.
+   */
+  private static final Pattern SCRIPT = Pattern.compile("<script\\b.*?</script\\s*>",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private final ArrayList cleanUpStrings;
+  private final ArrayList cleanUpChars;
+  private final String language;
+  private final boolean stemming;
+  private final int threads;
+
+  /**
+   * The postings of the files parsed before, or <code>null</code>.
+   */
+  private WebhelpIndexCache cache;
+
+  /**
+   * The log reporting the files that cannot be parsed.
+   */
+  private Log log = new SystemStreamLog();
+
+  /**
+   * The number of files parsed by the last call to {@link #index(List, WebhelpIndexBuilder)}.
+   */
+  private int filesParsed;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param cleanUpStrings The words left out of the index.
+   * @param cleanUpChars   The characters left out of the index.
+   * @param language       The language of the document.
+   * @param stemming       Whether words are indexed by their stem.
+   * @param threads        The number of threads parsing files.
+   */
+  public WebhelpIndexer(ArrayList cleanUpStrings, ArrayList cleanUpChars, String language, boolean stemming,
+      int threads) {
+    this.cleanUpStrings = cleanUpStrings;
+    this.cleanUpChars = cleanUpChars;
+    this.language = language;
+    this.stemming = stemming;
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the cache holding the postings of the files parsed before. The postings of every file
+   * parsed are stored in the cache, and the postings of files no longer indexed are dropped.
+   *
+   * @param cache The cache, or <code>null</code> to parse all files.
+   */
+  public void setCache(WebhelpIndexCache cache) {
+    this.cache = cache;
+  }
+
+  /**
+   * Sets the log reporting the files that cannot be parsed, which are left out of the index.
+   *
+   * @param log The log.
+   */
+  public void setLog(Log log) {
+    this.log = log;
+  }
+
+  /**
+   * Returns the number of files parsed by the last call to
+   * {@link #index(List, WebhelpIndexBuilder)}, the others being taken from the cache.
+   *
+   * @return The number of files parsed.
+   */
+  public int getFilesParsed() {
+    return filesParsed;
+  }
+
+  /**
+   * Extracts the words of HTML files. The words of every file are handed to the builder as soon
+   * as the files before are done, so that the words of only a few files are kept in memory.
+   *
+   * @param htmlFiles The HTML files, in the order of the index. (Instances of <code>File</code>.)
+   * @param builder   The builder of the index, receiving the words of every file.
+   * @return The title and description of every file. (Instances of <code>DocFileInfo</code>.)
+   * @throws MojoExecutionException If a range of files fails to parse, or the words cannot be
+   *                                added to the index.
+   */
+  public List index(final List htmlFiles, WebhelpIndexBuilder builder) throws MojoExecutionException {
+    final int count = htmlFiles.size();
+    final String[] keys = (cache == null) ? null : computeKeys(htmlFiles);
+    final boolean[] missing = new boolean[count];
+    filesParsed = 0;
+    for (int f = 0; f < count; f++) {
+      missing[f] = (cache == null) || !cache.contains(keys[f]);
+      if (missing[f]) {
+        filesParsed++;
+      }
+    }
+
+    final List ranges = getRanges(missing);
+    ExecutorService executor = null;
+    final List futures = new ArrayList();
+    if ((threads > 1) && (ranges.size() > 1)) {
+      executor = Executors.newFixedThreadPool(threads);
+      for (Iterator i = ranges.iterator(); i.hasNext();) {
+        final int[] range = (int[]) i.next();
+        futures.add(executor.submit(new Callable() {
+          public Object call() throws Exception {
+            return parse(htmlFiles, range[0], range[1]);
+          }
+        }));
+      }
+    }
+
+    try {
+      final Set retained = new HashSet();
+      final List infos = new ArrayList();
+      SaxHTMLIndex parser = null;
+      int next = -1;
+      int range = -1;
+      Postings[] parsed = null;
+      for (int f = 0; f < count; f++) {
+        Postings postings = null;
+        if (!missing[f]) {
+          postings = cache.load(keys[f]);
+          if (postings == null) {
+            // the postings cannot be read
+            postings = parse(htmlFiles, f, f + 1)[0];
+            missing[f] = true;
+            filesParsed++;
+          }
+        } else if (futures.isEmpty()) {
+          if (f != next) {
+            parser = createParser(htmlFiles, f);
+          }
+          postings = parse(parser, (File) htmlFiles.get(f));
+          next = f + 1;
+        } else {
+          while ((parsed == null) || (f >= ((int[]) ranges.get(range))[1])) {
+            range++;
+            parsed = null;
+            if (f < ((int[]) ranges.get(range))[1]) {
+              parsed = (Postings[]) get((Future) futures.get(range));
+            }
+          }
+          final int offset = f - ((int[]) ranges.get(range))[0];
+          postings = parsed[offset];
+          parsed[offset] = null;
+        }
+
+        if (cache != null) {
+          if (missing[f]) {
+            try {
+              cache.store(keys[f], postings);
+            } catch (IOException ioe) {
+              // the file is parsed again next time
+            }
+          }
+          retained.add(keys[f]);
+        }
+        try {
+          postings.addTo(f, builder);
+        } catch (IOException ioe) {
+          throw new MojoExecutionException("Failed to build the search index.", ioe);
+        }
+        final DocFileInfo info = new DocFileInfo((File) htmlFiles.get(f));
+        info.setTitle(postings.title);
+        info.setShortdesc(postings.shortdesc);
+        infos.add(info);
+      }
+
+      if (cache != null) {
+        cache.retain(retained);
+      }
+      return infos;
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Computes the keys of the postings of the files in the cache. Besides the content of the file
+   * and the indexing settings, the key covers the content of the file before, as the parser
+   * carries some state over from one file to the next. Scripts are left out, as they are not
+   * indexed, and as the stylesheets give every page a script that changes with the whole document.
+   *
+   * @param htmlFiles The HTML files.
+   * @return The key of the postings of every file.
+   * @throws MojoExecutionException If a file cannot be read.
+   */
+  private String[] computeKeys(List htmlFiles) throws MojoExecutionException {
+    final String settings = VERSION + "|" + language + "|" + stemming + "|" + cleanUpStrings + "|" + cleanUpChars;
+    final String[] keys = new String[htmlFiles.size()];
+    String previous = "";
+    for (int f = 0; f < keys.length; f++) {
+      final File file = (File) htmlFiles.get(f);
+      final String fingerprint;
+      try {
+        fingerprint = BuildManifest.digest(SCRIPT.matcher(FileUtils.readFileToString(file, "ISO-8859-1"))
+            .replaceAll(""));
+      } catch (IOException ioe) {
+        throw new MojoExecutionException("Failed to read " + file + ".", ioe);
+      }
+      keys[f] = BuildManifest.digest(settings + "|" + previous + "|" + fingerprint);
+      previous = fingerprint;
+    }
+    return keys;
+  }
+
+  /**
+   * Groups the files to parse in ranges of consecutive files, as many as it takes to keep all
+   * threads busy.
+   *
+   * @param missing Whether every file needs to be parsed.
+   * @return The first file and the file following the last file of every range. (Instances of
+   *         <code>int[]</code>.)
+   */
+  private List getRanges(boolean[] missing) {
+    final int rangeSize;
+    if (threads > 1) {
+      final int rangeCount = threads * RANGES_PER_THREAD;
+      rangeSize = Math.max(1, (filesParsed + rangeCount - 1) / rangeCount);
+    } else {
+      rangeSize = Integer.MAX_VALUE;
+    }
+    final List ranges = new ArrayList();
+    int[] range = null;
+    for (int f = 0; f < missing.length; f++) {
+      if (!missing[f]) {
+        range = null;
+      } else if ((range != null) && (range[1] - range[0] < rangeSize)) {
+        range[1] = f + 1;
+      } else {
+        range = new int[] { f, f + 1 };
+        ranges.add(range);
+      }
+    }
+    return ranges;
+  }
+
+  private static Object get(Future future) throws MojoExecutionException {
+    try {
+      return future.get();
+    } catch (InterruptedException ie) {
+      throw new MojoExecutionException("Interrupted while indexing.", ie);
+    } catch (ExecutionException ee) {
+      throw new MojoExecutionException("Failed to index.", ee.getCause());
+    }
+  }
+
+  /**
+   * Parses a range of files.
+   *
+   * @param htmlFiles All files.
+   * @param start     The index of the first file of the range.
+   * @param end       The index following the last file of the range.
+   * @return The postings of the files of the range.
+   */
+  private Postings[] parse(List htmlFiles, int start, int end) {
+    final SaxHTMLIndex parser = createParser(htmlFiles, start);
+    final Postings[] postings = new Postings[end - start];
+    for (int f = start; f < end; f++) {
+      postings[f - start] = parse(parser, (File) htmlFiles.get(f));
+    }
+    return postings;
+  }
+
+  /**
+   * Creates a parser for a range of files, having parsed the file before for nothing.
+   *
+   * @param htmlFiles All files.
+   * @param start     The index of the first file of the range.
+   * @return The parser.
+   */
+  private SaxHTMLIndex createParser(List htmlFiles, int start) {
+    final SaxHTMLIndex parser = new TagSoupHTMLIndex(cleanUpStrings, cleanUpChars, log);
+    if (start > 0) {
+      parser.init(new HashMap());
+      parser.runExtractData((File) htmlFiles.get(start - 1), language, stemming);
+    }
+    return parser;
+  }
+
+  private Postings parse(SaxHTMLIndex parser, File file) {
+    // the words are taken from the parser, not from its dictionary
+    parser.init(new HashMap());
+    final DocFileInfo info = parser.runExtractData(file, language, stemming);
+    return new Postings(info.getTitle(), info.getShortdesc(), parser.getWsList());
+  }
+
+  /**
+   * The words of a file, with their score, and the title and description of the file.
+   */
+  public static final class Postings {
+    final String title;
+    final String shortdesc;
+    final String[] stems;
+    final int[] scores;
+
+    Postings(String title, String shortdesc, String[] stems, int[] scores) {
+      this.title = title;
+      this.shortdesc = shortdesc;
+      this.stems = stems;
+      this.scores = scores;
+    }
+
+    /**
+     * Constructs a new instance from the words found by the parser.
+     *
+     * @param title     The title of the file.
+     * @param shortdesc The description of the file.
+     * @param words     The words of the file. (Instances of <code>WordAndScoring</code>.)
+     */
+    Postings(String title, String shortdesc, List words) {
+      this.title = title;
+      this.shortdesc = shortdesc;
+      final List found = new ArrayList();
+      for (Iterator i = words.iterator(); i.hasNext();) {
+        final WordAndScoring word = (WordAndScoring) i.next();
+        if ((word != null) && (word.getStem() != null)) {
+          found.add(word);
+        }
+      }
+      this.stems = new String[found.size()];
+      this.scores = new int[found.size()];
+      for (int w = 0; w < stems.length; w++) {
+        stems[w] = ((WordAndScoring) found.get(w)).getStem();
+        scores[w] = ((WordAndScoring) found.get(w)).getScoring();
+      }
+    }
+
+    /**
+     * Adds the words of the file to the index.
+     *
+     * @param file    The index of the file.
+     * @param builder The builder of the index.
+     * @throws IOException If the builder fails to write the words to disk.
+     */
+    void addTo(int file, WebhelpIndexBuilder builder) throws IOException {
+      for (int w = 0; w < stems.length; w++) {
+        builder.add(stems[w], file, scores[w]);
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+
+/*----------------------------------------------------------------------------
+ * Loader of the search index sharded by word prefix
+ *----------------------------------------------------------------------------
+ The first file of a sharded index lists the shards in indexShards, mapping
+ every word prefix to the name of its shard. Before searching, the shards of
+ every prefix of the words looked for are loaded, and kept for the searches
+ that follow. Without indexShards, the whole index has been loaded already.
+ */
+
+var indexShardsLoaded = new Object();
+
+// The directory of the shards, next to this script.
+var indexShardsBase = (function () {
+    var scripts = document.getElementsByTagName('script');
+    for (var i = scripts.length - 1; i >= 0; i--) {
+        var src = scripts[i].getAttribute('src');
+        if (src && src.indexOf('nwSearchFnt.js') >= 0) {
+            return src.substring(0, src.lastIndexOf('/') + 1) + 'shards/';
+        }
+    }
+    return 'search/shards/';
+})();
+
+var searchLoadedIndex = Effectuer_recherche;
+
+Effectuer_recherche = function (expressionInput) {
+    if (typeof indexShards == "undefined") {
+        searchLoadedIndex(expressionInput);
+        return;
+    }
+    var words = shardedWords(expressionInput);
+    var prefixes = new Array();
+    for (var prefix in indexShards) {
+        if (indexShardsLoaded[prefix]) {
+            continue;
+        }
+        for (var i = 0; i < words.length; i++) {
+            if (words[i].indexOf(prefix) == 0) {
+                prefixes.push(prefix);
+                break;
+            }
+        }
+    }
+    loadShards(prefixes, function () {
+        searchLoadedIndex(expressionInput);
+    });
+};
+
+/* Returns the words the search may look up in the index: the words looked for,
+   their stems, and for CJK words every part, as they are split in tokens */
+function shardedWords(expressionInput) {
+    var words = new Array();
+    var parts = expressionInput.toLowerCase().split(/%20|%22|%2C|%3B|%21|%3A|[\s,;!:@\/*"]+/);
+    for (var i = 0; i < parts.length; i++) {
+        var word = parts[i].replace(/^-/, "").replace(/[.]$/, "");
+        if (word.length == 0) {
+            continue;
+        }
+        words.push(word);
+        words.push(parts[i]);
+        if (typeof stemmer != "undefined") {
+            words.push(stemmer(word));
+        }
+        if (getAvgAsciiValue(word) >= 127) {
+            for (var j = 1; j < word.length; j++) {
+                words.push(word.substring(j));
+            }
+        }
+    }
+    return words;
+}
+
+/* Loads the shards of some prefixes, then calls done */
+function loadShards(prefixes, done) {
+    var remaining = prefixes.length;
+    if (remaining == 0) {
+        done();
+        return;
+    }
+    var head = document.getElementsByTagName('head').item(0);
+    var finished = function () {
+        if (--remaining == 0) {
+            done();
+        }
+    };
+    for (var i = 0; i < prefixes.length; i++) {
+        var script = document.createElement('script');
+        script.type = 'text/javascript';
+        watchShard(script, prefixes[i], finished);
+        script.src = indexShardsBase + indexShards[prefixes[i]] + '.js';
+        head.appendChild(script);
+    }
+}
+
+function watchShard(script, prefix, finished) {
+    var called = false;
+    script.onload = script.onreadystatechange = function () {
+        if (called || (this.readyState && this.readyState != "loaded" && this.readyState != "complete")) {
+            return;
+        }
+        called = true;
+        indexShardsLoaded[prefix] = true;
+        finished();
+    };
+    script.onerror = function () {
+        if (!called) {
+            called = true;
+            finished();
+        }
+    };
+}
@@ -25,6 +25,10 @@ import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.plugin.testing.stubs.MavenProjectStub;
 
@@ -58,6 +62,24 @@ public class AbstractTransformerMojoTest extends AbstractMojoTestCase {
   public void testNothing() {
   }
 
+  public void testDumpsOnlyWithXIncludes() throws Exception {
+    final File directory = new File(getBasedir(), "target/test-dumps");
+    DocbkxPdfMojo mojo = new DocbkxPdfMojo();
+    setVariableValueToObject(mojo, "generatedSourceDirectory", directory);
+    setVariableValueToObject(mojo, "streamingXInclude", Boolean.TRUE);
+    PreprocessingFilter filter = new PreprocessingFilter(SAXParserFactory.newInstance().newSAXParser().getXMLReader());
+    File sourceFile = new File(directory, "book.xml");
+
+    // without XIncludes, the generatedSourceDirectory is left alone
+    Source source = mojo.createSource("book.xml", sourceFile, filter);
+    assertSame(filter, ((SAXSource) source).getXMLReader());
+
+    setVariableValueToObject(mojo, "xincludeSupported", Boolean.TRUE);
+    source = mojo.createSource("book.xml", sourceFile, filter);
+    assertTrue(((SAXSource) source).getXMLReader() instanceof DumpingFilter);
+    ((DumpingFilter) ((SAXSource) source).getXMLReader()).close();
+  }
+
   /**
    * DOCUMENT ME!
    *
@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link FopLogAggregator}.
+ */
+public class FopLogAggregatorTest extends TestCase {
+  private final List lines = new ArrayList();
+
+  private final SystemStreamLog log = new SystemStreamLog() {
+    public void info(CharSequence content) {
+      lines.add("info " + content);
+    }
+
+    public void warn(CharSequence content, Throwable error) {
+      lines.add("warn " + content);
+    }
+
+    public void error(CharSequence content, Throwable error) {
+      lines.add("error " + content);
+    }
+  };
+
+  public void testAggregatesMessagesByTemplate() {
+    Logger logger = Logger.getLogger("org.apache.fop.docbkx.test");
+    logger.setLevel(Level.WARN);
+    FopLogAggregator.configure(logger, true);
+    FopLogAggregator aggregator = new FopLogAggregator(log, "book.pdf", 2);
+    aggregator.start();
+    try {
+      for (int i = 0; i < 10; i++) {
+        logger.warn("Glyph \"" + (char) ('a' + i) + "\" (0x" + (61 + i) + ") not available in font \"Symbol\".");
+      }
+      logger.error("Table overflows by " + 12.5 + " points.");
+      logger.info("Not logged at all.");
+    } finally {
+      aggregator.stop();
+      FopLogAggregator.configure(logger, false);
+    }
+    aggregator.summarize();
+
+    assertEquals(6, lines.size());
+    assertEquals("warn Glyph \"a\" (0x61) not available in font \"Symbol\".", lines.get(0));
+    assertEquals("warn Glyph \"b\" (0x62) not available in font \"Symbol\".", lines.get(1));
+    assertEquals("error Table overflows by 12.5 points.", lines.get(2));
+    assertEquals("info FOP logged 11 messages of 2 kinds for book.pdf, 8 of which have not been shown:",
+        lines.get(3));
+    assertEquals("warn       10 x Glyph \"...\" (#) not available in font \"...\".", lines.get(4));
+    assertEquals("error        1 x Table overflows by # points.", lines.get(5));
+  }
+
+  public void testLeavesNumbersAndQuotedTextOutOfTemplates() {
+    assertEquals("Page # of '...' at # pt", FopLogAggregator.toTemplate("Page 12 of 'intro' at 3.25 pt"));
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link HeapBudget}.
+ */
+public class HeapBudgetTest extends TestCase {
+  public void testAdmitsWhileFootprintsFit() throws Exception {
+    HeapBudget budget = new HeapBudget(100);
+    budget.acquire(40);
+    budget.acquire(60);
+    assertEquals(100, budget.getUsed());
+    budget.release(40);
+    budget.release(60);
+    assertEquals(0, budget.getUsed());
+  }
+
+  public void testAdmitsLargeDocumentAlone() throws Exception {
+    HeapBudget budget = new HeapBudget(100);
+    budget.acquire(500);
+    assertEquals(500, budget.getUsed());
+    budget.release(500);
+  }
+
+  public void testWaitsUntilFootprintFits() throws Exception {
+    final HeapBudget budget = new HeapBudget(100);
+    budget.acquire(80);
+
+    final boolean[] admitted = new boolean[1];
+    Thread waiter = new Thread() {
+      public void run() {
+        try {
+          budget.acquire(50);
+          synchronized (admitted) {
+            admitted[0] = true;
+          }
+        } catch (InterruptedException ie) {
+          // the test fails below
+        }
+      }
+    };
+    waiter.start();
+    waiter.join(200);
+    synchronized (admitted) {
+      assertFalse(admitted[0]);
+    }
+
+    budget.release(80);
+    waiter.join(5000);
+    synchronized (admitted) {
+      assertTrue(admitted[0]);
+    }
+    assertEquals(50, budget.getUsed());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.awt.image.BufferedImage;
+
+import java.io.File;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ImageCache}.
+ */
+public class ImageCacheTest extends TestCase {
+  private File directory;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("docbkx-", "-images");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testScalesDownImagesToTargetResolution() throws Exception {
+    File original = writeImage("shot.png", "png", 600, 300, 300);
+    ImageCache cache = new ImageCache(new File(directory, "cache"), 150, 0, new SystemStreamLog());
+
+    File prepared = cache.getImage(original);
+    assertFalse(original.equals(prepared));
+    BufferedImage image = ImageIO.read(prepared);
+    assertEquals(300, image.getWidth());
+    assertEquals(150, image.getHeight());
+    assertEquals(150, Math.round(25.4f / getPixelSize(prepared)));
+
+    // found again by content, wherever the original image is
+    File copy = new File(directory, "copy.png");
+    FileUtils.copyFile(original, copy);
+    long modified = prepared.lastModified();
+    assertEquals(prepared, cache.getImage(copy));
+    assertEquals(modified, prepared.lastModified());
+
+    StreamSource source = (StreamSource) cache.resolve("shot.png", directory.toURI().toString());
+    assertEquals(prepared.toURI().toString(), source.getSystemId());
+
+    File photo = cache.getImage(writeImage("photo.jpg", "jpeg", 400, 400, 600));
+    assertTrue(photo.getName().endsWith(".jpeg"));
+    assertEquals(100, ImageIO.read(photo).getWidth());
+    assertEquals(150, Math.round(25.4f / getPixelSize(photo)));
+  }
+
+  public void testPassesOnImagesWithoutHigherResolution() throws Exception {
+    File original = writeImage("shot.jpg", "jpeg", 200, 100, 96);
+    ImageCache cache = new ImageCache(new File(directory, "cache"), 150, 0, new SystemStreamLog());
+    assertEquals(original, cache.getImage(original));
+    assertEquals(original, cache.getImage(original));
+    assertNull(cache.resolve("shot.jpg", directory.toURI().toString()));
+    assertNull(cache.resolve("missing.png", directory.toURI().toString()));
+
+    ImageCache unscaled = new ImageCache(new File(directory, "cache"), 0, 0, new SystemStreamLog());
+    File large = writeImage("large.png", "png", 600, 300, 300);
+    assertEquals(large, unscaled.getImage(large));
+  }
+
+  private File writeImage(String name, String format, int width, int height, int resolution) throws Exception {
+    File file = new File(directory, name);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    image.getGraphics().drawLine(0, 0, width, height);
+    ImageWriter writer = (ImageWriter) ImageIO.getImageWritersByFormatName(format).next();
+    IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), null);
+    if ("png".equals(format)) {
+      IIOMetadataNode root = new IIOMetadataNode("javax_imageio_png_1.0");
+      IIOMetadataNode physical = new IIOMetadataNode("pHYs");
+      physical.setAttribute("pixelsPerUnitXAxis", String.valueOf(Math.round(resolution / 0.0254f)));
+      physical.setAttribute("pixelsPerUnitYAxis", String.valueOf(Math.round(resolution / 0.0254f)));
+      physical.setAttribute("unitSpecifier", "meter");
+      root.appendChild(physical);
+      metadata.mergeTree("javax_imageio_png_1.0", root);
+    } else {
+      IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+      IIOMetadataNode jfif = (IIOMetadataNode) root.getElementsByTagName("app0JFIF").item(0);
+      jfif.setAttribute("resUnits", "1");
+      jfif.setAttribute("Xdensity", String.valueOf(resolution));
+      jfif.setAttribute("Ydensity", String.valueOf(resolution));
+      metadata.setFromTree("javax_imageio_jpeg_image_1.0", root);
+    }
+    ImageOutputStream out = ImageIO.createImageOutputStream(file);
+    writer.setOutput(out);
+    writer.write(new IIOImage(image, null, metadata));
+    out.close();
+    writer.dispose();
+    return file;
+  }
+
+  private static float getPixelSize(File file) throws Exception {
+    ImageInputStream in = ImageIO.createImageInputStream(file);
+    ImageReader reader = (ImageReader) ImageIO.getImageReaders(in).next();
+    reader.setInput(in);
+    IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0).getAsTree(
+        IIOMetadataFormatImpl.standardMetadataFormatName);
+    in.close();
+    reader.dispose();
+    IIOMetadataNode size = (IIOMetadataNode) root.getElementsByTagName("HorizontalPixelSize").item(0);
+    return Float.parseFloat(size.getAttribute("value"));
+  }
+}
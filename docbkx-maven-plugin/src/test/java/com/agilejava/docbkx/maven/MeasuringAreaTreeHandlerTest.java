@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.awt.image.BufferedImage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringReader;
+
+import java.util.Collections;
+
+import javax.imageio.ImageIO;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.codehaus.plexus.util.FileUtils;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link MeasuringAreaTreeHandler} and {@link FopMetrics}.
+ */
+public class MeasuringAreaTreeHandlerTest extends TestCase {
+  private static final String DOCUMENT = "<?xml version='1.0'?>"
+      + "<fo:root xmlns:fo='http://www.w3.org/1999/XSL/Format'><fo:layout-master-set>"
+      + "<fo:simple-page-master master-name='p' page-height='200pt' page-width='200pt'>"
+      + "<fo:region-body margin='20pt'/></fo:simple-page-master></fo:layout-master-set>"
+      + "<fo:page-sequence master-reference='p'><fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block>One <fo:external-graphic src='dot.png'/></fo:block>"
+      + "<fo:block break-before='page'>Two <fo:external-graphic src='dot.png'/></fo:block>"
+      + "</fo:flow></fo:page-sequence></fo:root>";
+
+  public void testMeasuresRendering() throws Exception {
+    File directory = File.createTempFile("docbkx-", "-metrics");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", new File(directory, "dot.png"));
+
+      FopFactory fopFactory = FopFactory.newInstance();
+      fopFactory.getImageManager().getCache().setCacheListener(FopMetrics.getImageCacheListener());
+      FopMetrics metrics = new FopMetrics(new File(directory, "doc.pdf"), "pdf");
+      metrics.startCountingImages();
+      FOUserAgent userAgent = fopFactory.newFOUserAgent();
+      userAgent.setBaseURL(directory.toURI().toString());
+      MeasuringAreaTreeHandler handler = new MeasuringAreaTreeHandler(userAgent, MimeConstants.MIME_PDF,
+          new ByteArrayOutputStream());
+      userAgent.setFOEventHandlerOverride(handler);
+      Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, userAgent, new ByteArrayOutputStream());
+      new TransformerFactoryImpl().newTransformer().transform(new StreamSource(new StringReader(DOCUMENT)),
+          new SAXResult(fop.getDefaultHandler()));
+      metrics.stopCountingImages();
+      metrics.finish();
+
+      assertEquals(2, fop.getResults().getPageCount());
+      assertTrue(handler.getLayoutTime() > 0);
+      assertTrue(handler.getRenderingTime() > 0);
+      // the image is loaded once, and found in the image cache afterwards
+      assertEquals(1, metrics.imageLoads);
+      assertTrue(metrics.imageCacheHits > 0);
+
+      metrics.pages = 2;
+      metrics.fontSetupTime = 1;
+      metrics.layoutTime = 2;
+      metrics.renderingTime = 3;
+      metrics.fontsUsed = 1;
+      assertEquals(metrics.totalTime - 6, metrics.getTreeBuildingTime());
+      assertTrue(metrics.getSummary().startsWith("doc.pdf: 2 pages in "));
+
+      File report = new File(directory, "report.csv");
+      FopMetrics.appendToReport(report, Collections.singletonList(metrics));
+      FopMetrics.appendToReport(report, Collections.singletonList(new FopMetrics(new File("doc.rtf"), "rtf")));
+      String[] lines = FileUtils.fileRead(report).split("\n");
+      assertEquals(3, lines.length);
+      assertEquals(FopMetrics.CSV_HEADER, lines[0]);
+      assertTrue(lines[1].endsWith(",pdf,2," + metrics.totalTime + "," + Math.round(metrics.getPagesPerSecond() * 100)
+          / 100.0 + "," + metrics.getTreeBuildingTime() + ",1,2,3,1,1," + metrics.imageCacheHits));
+      assertTrue(lines[2].endsWith(",rtf,-1,-1,-1.0,-1,-1,-1,-1,-1,-1,-1"));
+    } finally {
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFDocumentHandler;
+import org.apache.fop.render.intermediate.IFSerializer;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PageSequenceRenderer}.
+ */
+public class PageSequenceRendererTest extends TestCase {
+  private static final String PAGE = "<fo:static-content flow-name='xsl-region-after'>"
+      + "<fo:block><fo:page-number/></fo:block></fo:static-content>";
+
+  private static final String DOCUMENT = "<?xml version='1.0'?>"
+      + "<fo:root xmlns:fo='http://www.w3.org/1999/XSL/Format'><fo:layout-master-set>"
+      + "<fo:simple-page-master master-name='p' page-height='200pt' page-width='200pt'>"
+      + "<fo:region-body margin='20pt'/><fo:region-after extent='15pt'/></fo:simple-page-master>"
+      + "</fo:layout-master-set><fo:bookmark-tree>"
+      + "<fo:bookmark internal-destination='c1'><fo:bookmark-title>One</fo:bookmark-title>"
+      + "<fo:bookmark internal-destination='s1'><fo:bookmark-title>Section</fo:bookmark-title></fo:bookmark>"
+      + "</fo:bookmark><fo:bookmark internal-destination='c2'><fo:bookmark-title>Two</fo:bookmark-title>"
+      + "</fo:bookmark><fo:bookmark internal-destination='c3'><fo:bookmark-title>Three</fo:bookmark-title>"
+      + "</fo:bookmark></fo:bookmark-tree>"
+      + "<fo:page-sequence master-reference='p' format='i'>" + PAGE + "<fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block>One <fo:page-number-citation ref-id='c1'/></fo:block>"
+      + "<fo:block><fo:basic-link internal-destination='c2'>Two <fo:page-number-citation ref-id='c2'/>"
+      + "</fo:basic-link></fo:block>"
+      + "<fo:block>Three <fo:page-number-citation ref-id='c3'/>-<fo:page-number-citation-last ref-id='c3'/>"
+      + "</fo:block></fo:flow></fo:page-sequence>"
+      + "<fo:page-sequence master-reference='p' initial-page-number='1' force-page-count='auto'>" + PAGE
+      + "<fo:flow flow-name='xsl-region-body'><fo:block id='c1'>One, see <fo:page-number-citation ref-id='c3'/>"
+      + "</fo:block><fo:block break-before='page' id='s1'>Section</fo:block></fo:flow></fo:page-sequence>"
+      + "<fo:page-sequence master-reference='p' initial-page-number='auto-odd'>" + PAGE
+      + "<fo:flow flow-name='xsl-region-body'><fo:block id='c2'>Two <fo:basic-link internal-destination='c1'>"
+      + "back</fo:basic-link></fo:block></fo:flow></fo:page-sequence>"
+      + "<fo:page-sequence master-reference='p'>" + PAGE + "<fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block id='c3'>Three <fo:basic-link internal-destination='c2'>"
+      + "<fo:page-number-citation ref-id='c2'/></fo:basic-link></fo:block>"
+      + "<fo:block break-before='page'>Three continued</fo:block></fo:flow></fo:page-sequence></fo:root>";
+
+  private static final String NAVIGATION_NAMESPACE =
+      "http://xmlgraphics.apache.org/fop/intermediate/document-navigation";
+
+  private File foFile;
+  private FopFactory fopFactory;
+
+  protected void setUp() throws Exception {
+    foFile = File.createTempFile("docbkx-", ".fo");
+    OutputStream out = new FileOutputStream(foFile);
+    out.write(DOCUMENT.getBytes("UTF-8"));
+    out.close();
+    fopFactory = FopFactory.newInstance();
+  }
+
+  protected void tearDown() throws Exception {
+    foFile.delete();
+  }
+
+  public void testRendersLikeSerialRendering() throws Exception {
+    ByteArrayOutputStream serial = new ByteArrayOutputStream();
+    FOUserAgent userAgent = fopFactory.newFOUserAgent();
+    userAgent.setDocumentHandlerOverride(createSerializer(userAgent));
+    Fop fop = fopFactory.newFop(MimeConstants.MIME_FOP_IF, userAgent, serial);
+    new TransformerFactoryImpl().newTransformer().transform(new StreamSource(foFile),
+        new SAXResult(fop.getDefaultHandler()));
+
+    ByteArrayOutputStream split = new ByteArrayOutputStream();
+    PageSequenceRenderer renderer = new PageSequenceRenderer(fopFactory, MimeConstants.MIME_PDF,
+        foFile.getParentFile().toURI().toString(), 3, new SystemStreamLog()) {
+      protected IFDocumentHandler createDocumentHandler(FOUserAgent userAgent) throws FOPException {
+        return createSerializer(userAgent);
+      }
+    };
+    assertTrue(renderer.render(foFile, split, null));
+
+    assertEquals(describe(serial.toByteArray()), describe(split.toByteArray()));
+    int[] pageCounts = renderer.getPageCounts();
+    assertEquals(4, pageCounts.length);
+    assertEquals(2, pageCounts[0]);
+    assertEquals(2, pageCounts[1]);
+    assertEquals(1, pageCounts[2]);
+    assertEquals(2, pageCounts[3]);
+  }
+
+  public void testLeavesDocumentToSerialRenderingWithSingleThread() throws Exception {
+    PageSequenceRenderer renderer = new PageSequenceRenderer(fopFactory, MimeConstants.MIME_PDF,
+        foFile.getParentFile().toURI().toString(), 1, new SystemStreamLog());
+    assertFalse(renderer.render(foFile, new ByteArrayOutputStream(), null));
+  }
+
+  /**
+   * Describes the pages of a document in the intermediate format, along with the pages its links
+   * and bookmarks point to, leaving out where FOP resolved them.
+   */
+  private static String describe(byte[] document) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    Document dom = factory.newDocumentBuilder().parse(new ByteArrayInputStream(document));
+
+    Map pages = new HashMap();
+    NodeList actions = dom.getElementsByTagNameNS(NAVIGATION_NAMESPACE, "goto-xy");
+    for (int i = 0; i < actions.getLength(); i++) {
+      Element action = (Element) actions.item(i);
+      if (!"-1".equals(action.getAttribute("page-index"))) {
+        pages.put(action.getAttribute("id"), action.getAttribute("page-index"));
+      }
+    }
+
+    StringBuffer description = new StringBuffer();
+    NodeList elements = dom.getElementsByTagName("*");
+    for (int i = 0; i < elements.getLength(); i++) {
+      Element element = (Element) elements.item(i);
+      String name = element.getLocalName();
+      if ("page".equals(name)) {
+        description.append("page ").append(element.getAttribute("name")).append('\n');
+      } else if ("text".equals(name)) {
+        description.append("text ").append(element.getTextContent()).append('\n');
+      } else if ("link".equals(name) || "bookmark".equals(name)) {
+        Element action = (Element) element.getElementsByTagNameNS(NAVIGATION_NAMESPACE, "goto-xy").item(0);
+        description.append(name).append(' ').append(element.getAttribute("title")).append(" -> ")
+            .append(pages.get(action.getAttribute("id"))).append('\n');
+      }
+    }
+    return description.toString();
+  }
+
+  private IFSerializer createSerializer(FOUserAgent userAgent) throws FOPException {
+    IFSerializer serializer = new IFSerializer();
+    serializer.setContext(new IFContext(userAgent));
+    serializer.mimicDocumentHandler(userAgent.getRendererFactory().createDocumentHandler(userAgent,
+        MimeConstants.MIME_PDF));
+    return serializer;
+  }
+}
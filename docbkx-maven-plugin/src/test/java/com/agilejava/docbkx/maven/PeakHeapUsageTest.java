@@ -0,0 +1,50 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.lang.management.ManagementFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link PeakHeapUsage}.
+ */
+public class PeakHeapUsageTest extends TestCase {
+  public void testLaterInstancesKeepEarlierPeaks() throws Exception {
+    PeakHeapUsage first = new PeakHeapUsage();
+    byte[][] garbage = new byte[32][];
+    for (int i = 0; i < garbage.length; i++) {
+      garbage[i] = new byte[1024 * 1024];
+    }
+    long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    Thread.sleep(200);
+    long peak = first.getPeak();
+    assertTrue(peak >= used);
+    garbage = null;
+    System.gc();
+
+    // starting another measurement leaves the peak of the running one alone
+    PeakHeapUsage second = new PeakHeapUsage();
+    second.stop();
+    first.stop();
+    assertTrue(first.getPeak() >= peak);
+    assertTrue(second.getPeak() > 0);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.MimeConstants;
+import org.apache.fop.fo.FONode;
+import org.apache.fop.fo.pagination.Root;
+import org.apache.fop.render.intermediate.IFContext;
+import org.apache.fop.render.intermediate.IFSerializer;
+
+import com.icl.saxon.TransformerFactoryImpl;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ReleasingAreaTreeHandler}.
+ */
+public class ReleasingAreaTreeHandlerTest extends TestCase {
+  private static final String DOCUMENT = "<?xml version='1.0'?>"
+      + "<fo:root xmlns:fo='http://www.w3.org/1999/XSL/Format'><fo:layout-master-set>"
+      + "<fo:simple-page-master master-name='p' page-height='200pt' page-width='200pt'>"
+      + "<fo:region-body margin='20pt'/></fo:simple-page-master></fo:layout-master-set>"
+      + "<fo:page-sequence master-reference='p'><fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block>Three is on <fo:basic-link internal-destination='c3'>page "
+      + "<fo:page-number-citation ref-id='c3'/></fo:basic-link></fo:block></fo:flow></fo:page-sequence>"
+      + "<fo:page-sequence master-reference='p' force-page-count='even'><fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block id='c2'>Two</fo:block></fo:flow></fo:page-sequence>"
+      + "<fo:page-sequence master-reference='p'><fo:flow flow-name='xsl-region-body'>"
+      + "<fo:block id='c3'>Three, after <fo:page-number-citation ref-id='c2'/></fo:block>"
+      + "</fo:flow></fo:page-sequence></fo:root>";
+
+  private FopFactory fopFactory;
+
+  protected void setUp() throws Exception {
+    fopFactory = FopFactory.newInstance();
+  }
+
+  public void testRendersLikeAreaTreeHandler() throws Exception {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    render(fopFactory.newFOUserAgent(), expected);
+
+    final Root[] root = new Root[1];
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    FOUserAgent userAgent = fopFactory.newFOUserAgent();
+    userAgent.setFOEventHandlerOverride(new ReleasingAreaTreeHandler(userAgent, MimeConstants.MIME_FOP_IF,
+        actual) {
+      public void startRoot(Root node) {
+        super.startRoot(node);
+        root[0] = node;
+      }
+    });
+    render(userAgent, actual);
+
+    assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    // the layout-master-set and the last page sequence
+    int children = 0;
+    for (FONode.FONodeIterator i = root[0].getChildNodes(); i.hasNext(); i.next()) {
+      children++;
+    }
+    assertEquals(2, children);
+  }
+
+  private void render(FOUserAgent userAgent, OutputStream out) throws Exception {
+    userAgent.setDocumentHandlerOverride(createSerializer(userAgent));
+    Fop fop = fopFactory.newFop(MimeConstants.MIME_FOP_IF, userAgent, out);
+    new TransformerFactoryImpl().newTransformer().transform(new StreamSource(new StringReader(DOCUMENT)),
+        new SAXResult(fop.getDefaultHandler()));
+  }
+
+  private IFSerializer createSerializer(FOUserAgent userAgent) throws FOPException {
+    IFSerializer serializer = new IFSerializer();
+    serializer.setContext(new IFContext(userAgent));
+    serializer.mimicDocumentHandler(userAgent.getRendererFactory().createDocumentHandler(userAgent,
+        MimeConstants.MIME_PDF));
+    return serializer;
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ShardedIndexWriter}.
+ */
+public class ShardedIndexWriterTest extends TestCase {
+  private File directory;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("docbkx-", "-search");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testSplitsByPrefix() throws Exception {
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(directory, "work"), 1000);
+    builder.add("a", 0, 1);
+    builder.add("alpha", 0, 1);
+    builder.add("alpha", 1, 2);
+    builder.add("also", 2, 1);
+    builder.add("beta", 1, 1);
+    builder.add("say \"x\"", 3, 1);
+    assertEquals(5, builder.build());
+    File indexFile = new File(directory, ".js");
+
+    // everything fits in a single shard
+    assertEquals(1, new ShardedIndexWriter(1000, false).write(indexFile, builder, 5, "en"));
+    assertTrue(FileUtils.fileRead(new File(directory, "index-1.js")).indexOf("indexShards[\"\"]=\"s\";") > 0);
+    assertTrue(FileUtils.fileRead(new File(directory, "shards/s.js")).indexOf("w[\"say \\\"x\\\"\"]=\"3*1\";") >= 0);
+
+    // "a" keeps its own shard, apart from the words starting with "al"
+    assertEquals(5, new ShardedIndexWriter(25, true).write(indexFile, builder, 5, "en"));
+    String manifest = FileUtils.fileRead(new File(directory, "index-1.js"));
+    assertTrue(manifest.startsWith("var indexerLanguage=\"en\";"));
+    assertTrue(manifest.indexOf("indexShards[\"a\"]=\"s0061\";") > 0);
+    assertTrue(manifest.indexOf("indexShards[\"alp\"]=\"s0061006c0070\";") > 0);
+    assertTrue(manifest.indexOf("indexShards[\"als\"]=\"s0061006c0073\";") > 0);
+    assertEquals("w[\"a\"]=\"0*1\";\n", FileUtils.fileRead(new File(directory, "shards/s0061.js")));
+    assertEquals("w[\"alpha\"]=\"0*1,1*2\";\n", FileUtils.fileRead(new File(directory, "shards/s0061006c0070.js")));
+    assertFalse(new File(directory, "shards/s.js").exists());
+    assertTrue(new File(directory, "shards/s0062.js.gz").exists());
+    assertTrue(new File(directory, "index-3.js").exists());
+    builder.close();
+  }
+
+  public void testQuotes() {
+    assertEquals("\"a\\\\b\\\"c\\u000a\\u2028\"", ShardedIndexWriter.quote("a\\b\"c\n\u2028"));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import com.nexwave.nquindexer.WriteJSFiles;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link WebhelpIndexBuilder}.
+ */
+public class WebhelpIndexBuilderTest extends TestCase {
+  private File directory;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("docbkx-", "-index");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testMergesRunsLikeWebhelpIndexer() throws Exception {
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(directory, "work"), 4096);
+    Map dictionary = new HashMap();
+    for (int file = 0; file < 50; file++) {
+      for (int w = file % 7; w < 100; w += 3) {
+        String word = "w" + ((w * 31) % 100);
+        builder.add(word, file, w + 1);
+        String previous = (String) dictionary.get(word);
+        String pair = file + "*" + (w + 1);
+        dictionary.put(word, (previous == null) ? pair : previous + "," + pair);
+      }
+      builder.add("", file, 1);
+    }
+    assertEquals(dictionary.size(), builder.build());
+    assertTrue(builder.getRunCount() > 1);
+
+    Map merged = new HashMap();
+    WebhelpIndexBuilder.Words words = builder.read();
+    String previous = "";
+    while (words.next()) {
+      assertTrue(words.getWord().compareTo(previous) > 0);
+      merged.put(words.getWord(), words.getFiles());
+      previous = words.getWord();
+    }
+    words.close();
+    assertEquals(dictionary, merged);
+
+    File expected = new File(directory, "expected");
+    expected.mkdirs();
+    WriteJSFiles.WriteIndex(new File(expected, ".js").getAbsolutePath(), dictionary, "en");
+    File actual = new File(directory, "actual");
+    actual.mkdirs();
+    builder.writeIndex(new File(actual, ".js"), dictionary.size(), "en");
+    builder.close();
+    assertFalse(new File(directory, "work").exists());
+
+    assertEquals(FileUtils.fileRead(new File(expected, "index-1.js")), FileUtils.fileRead(new File(actual, "index-1.js")));
+    assertEquals(FileUtils.fileRead(new File(expected, "index-2.js")), FileUtils.fileRead(new File(actual, "index-2.js")));
+    // the webhelp indexer leaves out the last word
+    String last = "w[\"w99\"]=\"" + dictionary.get("w99") + "\";\n";
+    String lastFile = FileUtils.fileRead(new File(actual, "index-3.js"));
+    assertTrue(lastFile.endsWith(last + "\n"));
+    assertEquals(FileUtils.fileRead(new File(expected, "index-3.js")),
+        lastFile.substring(0, lastFile.length() - last.length() - 1) + "\n");
+  }
+
+  public void testMergesManyRuns() throws Exception {
+    // every word is written to a run of its own
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(directory, "work"), 0);
+    for (int file = 0; file < 300; file++) {
+      builder.add((file % 2 == 0) ? "even" : "odd", file, 1);
+      builder.add("all", file, file);
+    }
+    assertEquals(3, builder.build());
+    assertEquals(600, builder.getRunCount());
+    WebhelpIndexBuilder.Words words = builder.read();
+    assertTrue(words.next());
+    assertEquals("all", words.getWord());
+    assertTrue(words.getFiles().startsWith("0*0,1*1,2*2,"));
+    assertTrue(words.getFiles().endsWith(",298*298,299*299"));
+    assertTrue(words.next());
+    assertTrue(words.getFiles().startsWith("0*1,2*1,"));
+    assertTrue(words.next());
+    assertFalse(words.next());
+    words.close();
+    assertEquals(1, new File(directory, "work").list().length);
+    builder.close();
+  }
+
+  public void testMergesHugeWords() throws Exception {
+    StringBuffer huge = new StringBuffer();
+    for (int i = 0; i < 30000; i++) {
+      huge.append("\u00e9");
+    }
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(directory, "work"), 0);
+    builder.add(huge.toString(), 0, 1);
+    builder.add("word", 0, 2);
+    builder.add(huge.toString(), 1, 3);
+    assertEquals(2, builder.build());
+    WebhelpIndexBuilder.Words words = builder.read();
+    assertTrue(words.next());
+    assertEquals("word", words.getWord());
+    assertTrue(words.next());
+    assertEquals(huge.toString(), words.getWord());
+    assertEquals("0*1,1*3", words.getFiles());
+    words.close();
+    builder.close();
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * #%L
+ * Docbkx Maven Plugin
+ * %%
+ * Copyright (C) 2006 - 2014 Wilfred Springer, Cedric Pronzato
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package com.agilejava.docbkx.maven;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import com.nexwave.nsidita.DocFileInfo;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link WebhelpIndexer}.
+ */
+public class WebhelpIndexerTest extends TestCase {
+  private static final String[] WORDS = { "alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta", "theta" };
+
+  private File directory;
+
+  protected void setUp() throws Exception {
+    directory = File.createTempFile("docbkx-", "-webhelp");
+    directory.delete();
+    directory.mkdirs();
+  }
+
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(directory);
+  }
+
+  public void testIndexesLikeSingleThread() throws Exception {
+    List files = writeFiles(11);
+
+    Map expected = new HashMap();
+    List expectedInfos = index(new WebhelpIndexer(new ArrayList(), new ArrayList(), "en", true, 1), files, expected);
+    for (int threads = 2; threads <= 4; threads++) {
+      Map actual = new HashMap();
+      List actualInfos = index(new WebhelpIndexer(new ArrayList(), new ArrayList(), "en", true, threads), files,
+          actual);
+      assertEquals(expected, actual);
+      assertEquals(expectedInfos.size(), actualInfos.size());
+      for (int i = 0; i < expectedInfos.size(); i++) {
+        assertEquals(((DocFileInfo) expectedInfos.get(i)).getTitle(), ((DocFileInfo) actualInfos.get(i)).getTitle());
+        assertEquals(files.get(i), ((DocFileInfo) actualInfos.get(i)).getFullpath());
+      }
+    }
+    assertEquals("0*50,1*50,2*50,3*50,4*50,5*50,6*50,7*50,8*50,9*50,10*50", expected.get("head"));
+    assertEquals("Chapter 3", ((DocFileInfo) expectedInfos.get(3)).getTitle());
+    // TagSoup is not made the parser of the whole JVM
+    assertNull(System.getProperty("javax.xml.parsers.SAXParserFactory"));
+    assertFalse(SAXParserFactory.newInstance().getClass().getName().startsWith("org.ccil.cowan.tagsoup"));
+  }
+
+  public void testReusesUnchangedFiles() throws Exception {
+    List files = writeFiles(11);
+    WebhelpIndexCache cache = new WebhelpIndexCache(new File(directory, "cache"));
+    WebhelpIndexer indexer = new WebhelpIndexer(new ArrayList(), new ArrayList(), "en", true, 2);
+    indexer.setCache(cache);
+
+    Map expected = new HashMap();
+    index(new WebhelpIndexer(new ArrayList(), new ArrayList(), "en", true, 1), files, expected);
+    Map actual = new HashMap();
+    index(indexer, files, actual);
+    assertEquals(11, indexer.getFilesParsed());
+    assertEquals(expected, actual);
+    actual = new HashMap();
+    List infos = index(indexer, files, actual);
+    assertEquals(0, indexer.getFilesParsed());
+    assertEquals(expected, actual);
+    assertEquals("Chapter 3", ((DocFileInfo) infos.get(3)).getTitle());
+
+    // a changed file is parsed again, along with the file after it
+    writeFile(5, "<script>var id = 42;</script>");
+    actual = new HashMap();
+    index(indexer, files, actual);
+    assertEquals(0, indexer.getFilesParsed());
+    writeFile(5, "omega");
+    actual = new HashMap();
+    index(indexer, files, actual);
+    assertEquals(2, indexer.getFilesParsed());
+    expected = new HashMap();
+    index(new WebhelpIndexer(new ArrayList(), new ArrayList(), "en", true, 1), files, expected);
+    assertEquals(expected, actual);
+    assertEquals("5*1", actual.get("omega"));
+
+    // the postings of files no longer indexed are dropped
+    files.remove(10);
+    index(indexer, files, new HashMap());
+    assertEquals(0, indexer.getFilesParsed());
+    assertEquals(10, new File(directory, "cache").list().length);
+  }
+
+  public void testCachesHugeTokens() throws Exception {
+    StringBuffer token = new StringBuffer();
+    for (int i = 0; i < 30000; i++) {
+      token.append("\u00e9");
+    }
+    WebhelpIndexCache cache = new WebhelpIndexCache(new File(directory, "cache"));
+    cache.store("key", new WebhelpIndexer.Postings("Title", null, new String[] { token.toString(), "word" },
+        new int[] { 1, 20 }));
+    WebhelpIndexer.Postings postings = cache.load("key");
+    assertEquals("Title", postings.title);
+    assertNull(postings.shortdesc);
+    assertEquals(token.toString(), postings.stems[0]);
+    assertEquals("word", postings.stems[1]);
+    assertEquals(20, postings.scores[1]);
+  }
+
+  // indexes within a budget small enough for the words to be written to disk several times
+  private List index(WebhelpIndexer indexer, List files, Map dictionary) throws Exception {
+    WebhelpIndexBuilder builder = new WebhelpIndexBuilder(new File(directory, "work"), 2000);
+    try {
+      List infos = indexer.index(files, builder);
+      builder.build();
+      assertTrue(builder.getRunCount() > 1);
+      WebhelpIndexBuilder.Words words = builder.read();
+      while (words.next()) {
+        dictionary.put(words.getWord(), words.getFiles());
+      }
+      words.close();
+      return infos;
+    } finally {
+      builder.close();
+    }
+  }
+
+  private List writeFiles(int count) throws Exception {
+    List files = new ArrayList();
+    for (int i = 0; i < count; i++) {
+      files.add(writeFile(i, ""));
+    }
+    return files;
+  }
+
+  private File writeFile(int i, String extra) throws Exception {
+    File file = new File(directory, "ch" + i + ".html");
+    StringBuffer html = new StringBuffer("<html><head><meta name='Section-Title' content='Chapter " + i
+        + "'/></head><body>");
+    html.append("<div id='content'><h1>").append(WORDS[i % WORDS.length]).append(" heading</h1><p>");
+    for (int w = 0; w <= i; w++) {
+      html.append(WORDS[(i + w) % WORDS.length]).append(" <em>words</em> ");
+    }
+    html.append(extra).append("</p></div></body></html>");
+    FileUtils.fileWrite(file.getAbsolutePath(), html.toString());
+    return file;
+  }
+}